@@ -12,6 +12,7 @@ package org.eclipse.osgi.tests.classloader.hooks.a;
 
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.internal.hookregistry.*;
+import org.eclipse.osgi.internal.loader.ModuleClassLoader;
 import org.eclipse.osgi.internal.loader.classpath.ClasspathEntry;
 import org.eclipse.osgi.internal.loader.classpath.ClasspathManager;
 import org.eclipse.osgi.storage.bundlefile.BundleEntry;
@@ -21,6 +22,7 @@ public class TestHookConfigurator implements HookConfigurator {
 	private static final String BAD_TRANSFORM_PROP = "classloader.hooks.a.bad.transform";
 	private static final String RECURSION_LOAD = "classloader.hooks.a.recursion.load";
 	private static final String RECURSION_LOAD_SUPPORTED = "classloader.hooks.a.recursion.load.supported";
+	private static final String PRE_FIND_CLASS = "classloader.hooks.a.pre.find.class";
 	final ThreadLocal<Boolean> doingRecursionLoad = new ThreadLocal<Boolean>() {
 		protected Boolean initialValue() {
 			return false;
@@ -68,6 +70,14 @@ public class TestHookConfigurator implements HookConfigurator {
 				return Boolean.getBoolean(RECURSION_LOAD_SUPPORTED);
 			}
 
+			@Override
+			public Class<?> preFindClass(String name, ModuleClassLoader classLoader) throws ClassNotFoundException {
+				if (name.equals(System.getProperty(PRE_FIND_CLASS))) {
+					return TestHookConfigurator.class;
+				}
+				return null;
+			}
+
 		});
 	}
 }
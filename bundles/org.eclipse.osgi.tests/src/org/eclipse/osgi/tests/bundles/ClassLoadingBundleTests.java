@@ -36,10 +36,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.loader.ModuleClassLoader;
+import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
@@ -61,6 +64,7 @@ import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
 import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.osgi.service.packageadmin.ExportedPackage;
 import org.osgi.service.packageadmin.PackageAdmin;
 import org.osgi.service.startlevel.StartLevel;
@@ -2319,4 +2323,279 @@ public class ClassLoadingBundleTests extends AbstractBundleTests {
 		actualFrameworkEvents = frameworkListenerResults.getResults(1);
 		compareResults(expectedFrameworkEvents, actualFrameworkEvents);
 	}
+
+	public void testNegativeLookupCache() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		File bundles = new File(config, "bundles"); //$NON-NLS-1$
+		bundles.mkdirs();
+		Map<String, String> importerHeaders = new HashMap<String, String>();
+		importerHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		importerHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName() + ".importer");
+		importerHeaders.put(Constants.DYNAMICIMPORT_PACKAGE, "negative.cache");
+		File importerFile = SystemBundleTests.createBundle(bundles, getName() + ".importer", importerHeaders);
+		Map<String, String> exporterHeaders = new HashMap<String, String>();
+		exporterHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		exporterHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName() + ".exporter");
+		exporterHeaders.put(Constants.EXPORT_PACKAGE, "negative.cache");
+		File exporterFile = SystemBundleTests.createBundle(bundles, getName() + ".exporter", exporterHeaders, Collections.singletonMap("negative/cache/resource.txt", "testValue"));
+
+		Equinox equinox = startNegativeLookupCacheFramework(config, "256"); //$NON-NLS-1$
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			Bundle importer = systemContext.installBundle(getName() + ".importer", new FileInputStream(importerFile));
+			importer.start();
+			BundleLoader importerLoader = getBundleLoader(importer);
+
+			assertNull("Found resource.", importer.getResource("negative/cache/resource.txt"));
+			long hits = importerLoader.getNegativeCacheHits();
+			assertNull("Found resource.", importer.getResource("negative/cache/resource.txt"));
+			assertEquals("Wrong number of negative cache hits.", hits + 1, importerLoader.getNegativeCacheHits());
+			for (int i = 0; i < 2; i++) {
+				try {
+					importer.loadClass("negative.cache.Missing");
+					fail("Expected a ClassNotFoundException.");
+				} catch (ClassNotFoundException e) {
+					// expected
+				}
+			}
+			assertEquals("Wrong number of negative cache hits.", hits + 2, importerLoader.getNegativeCacheHits());
+
+			// resolving a new exporter must invalidate the cached misses
+			Bundle exporter = systemContext.installBundle(getName() + ".exporter", new FileInputStream(exporterFile));
+			assertTrue("Could not resolve exporter.", equinox.adapt(FrameworkWiring.class).resolveBundles(Collections.singleton(exporter)));
+			assertNotNull("No resource found.", importer.getResource("negative/cache/resource.txt"));
+			assertEquals("Wrong number of negative cache hits.", hits + 2, importerLoader.getNegativeCacheHits());
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testNegativeLookupCacheBypass() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		File bundles = new File(config, "bundles"); //$NON-NLS-1$
+		bundles.mkdirs();
+		File dirBundleFile = SystemBundleTests.createBundle(bundles, "-dir", false, true); //$NON-NLS-1$
+		Map<String, String> buddyHeaders = new HashMap<String, String>();
+		buddyHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		buddyHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName() + ".buddy");
+		buddyHeaders.put("Eclipse-BuddyPolicy", "registered");
+		File buddyFile = SystemBundleTests.createBundle(bundles, getName() + ".buddy", buddyHeaders);
+		Map<String, String> jarHeaders = new HashMap<String, String>();
+		jarHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		jarHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName() + ".jar");
+		File jarFile = SystemBundleTests.createBundle(bundles, getName() + ".jar", jarHeaders);
+
+		// the negative cache is disabled by default
+		Equinox equinox = startNegativeLookupCacheFramework(new File(config, "default"), null); //$NON-NLS-1$
+		try {
+			Bundle jarBundle = equinox.getBundleContext().installBundle(getName() + ".jar", new FileInputStream(jarFile));
+			jarBundle.start();
+			assertNegativeCacheNotUsed("Default configuration", jarBundle);
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+
+		equinox = startNegativeLookupCacheFramework(new File(config, "enabled"), "256"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			// the content of a directory bundle may change at any time
+			Bundle dirBundle = systemContext.installBundle("reference:file:///" + dirBundleFile.getAbsolutePath()); //$NON-NLS-1$
+			dirBundle.start();
+			assertNegativeCacheNotUsed("Directory bundle", dirBundle);
+			// buddies are not wired to the bundle
+			Bundle buddy = systemContext.installBundle(getName() + ".buddy", new FileInputStream(buddyFile));
+			buddy.start();
+			assertNegativeCacheNotUsed("Buddy policy", buddy);
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	private Equinox startNegativeLookupCacheFramework(File config, String cacheSize) throws BundleException {
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		if (cacheSize != null) {
+			configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, cacheSize);
+		}
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		return equinox;
+	}
+
+	private void assertNegativeCacheNotUsed(String message, Bundle bundle) {
+		BundleLoader loader = getBundleLoader(bundle);
+		for (int i = 0; i < 2; i++) {
+			assertNull(message + ": found resource.", bundle.getResource("negative/cache/resource.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			try {
+				bundle.loadClass("negative.cache.Missing"); //$NON-NLS-1$
+				fail(message + ": expected a ClassNotFoundException."); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+		}
+		assertEquals(message + ": wrong number of negative cache hits.", 0, loader.getNegativeCacheHits()); //$NON-NLS-1$
+		assertEquals(message + ": wrong number of negative cache misses.", 0, loader.getNegativeCacheMisses()); //$NON-NLS-1$
+	}
+
+	private static BundleLoader getBundleLoader(Bundle bundle) {
+		return ((ModuleClassLoader) bundle.adapt(BundleWiring.class).getClassLoader()).getBundleLoader();
+	}
+
+	public void testClasspathDirectoryIndex() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Map<String, String> testHeaders = new HashMap<String, String>();
+		testHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		testHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		Map<String, String> entries = new HashMap<String, String>();
+		entries.put("a/b/test.txt", "testValue");
+		entries.put("c/", "");
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), testHeaders, entries);
+		Bundle test = getContext().installBundle(getName(), new FileInputStream(testBundleFile));
+		try {
+			test.start();
+			assertNotNull("No resource found.", test.getResource("a/b/test.txt"));
+			assertNotNull("No resource found.", test.getResource("/a/b/test.txt"));
+			assertNotNull("No directory found.", test.getResource("a/b/"));
+			assertNotNull("No directory found.", test.getResource("a/"));
+			assertNotNull("No directory found.", test.getResource("c/"));
+			assertNotNull("No directory found.", test.getResource("c"));
+			assertNull("Found resource.", test.getResource("a/c/test.txt"));
+			assertNull("Found resource.", test.getResource("test.txt"));
+			assertNull("Found resource.", test.getResource("x/y/test.txt"));
+			try {
+				test.loadClass("a.b.Missing");
+				fail("Expected a ClassNotFoundException.");
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+		} finally {
+			test.uninstall();
+		}
+	}
+
+	public void testRequireBundleReexportChain() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Equinox equinox = startRequireBundleFramework(config);
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			installRequireBundle(systemContext, config, "c", null, "require.c"); //$NON-NLS-1$ //$NON-NLS-2$
+			installRequireBundle(systemContext, config, "b", "c;visibility:=reexport", "require.b"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			installRequireBundle(systemContext, config, "a", "b;visibility:=reexport", null); //$NON-NLS-1$ //$NON-NLS-2$
+			Bundle top = installRequireBundle(systemContext, config, "top", "a", null); //$NON-NLS-1$ //$NON-NLS-2$
+			installRequireBundle(systemContext, config, "private", "c", "require.private"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			Bundle bottom = installRequireBundle(systemContext, config, "bottom", "private", null); //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("Could not resolve bundles.", equinox.adapt(FrameworkWiring.class).resolveBundles(null)); //$NON-NLS-1$
+
+			// the packages of c and b are reexported through a to top
+			for (int i = 0; i < 2; i++) {
+				assertRequiredResource(top, "require/c/resource.txt", "c"); //$NON-NLS-1$ //$NON-NLS-2$
+				assertRequiredResource(top, "require/b/resource.txt", "b"); //$NON-NLS-1$ //$NON-NLS-2$
+				assertNull("Found resource.", top.getResource("require/a/resource.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// private requires c without reexporting it
+			assertRequiredResource(bottom, "require/private/resource.txt", "private"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found resource.", bottom.getResource("require/c/resource.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testRequireBundleExportsRequiredPackage() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Equinox equinox = startRequireBundleFramework(config);
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			installRequireBundle(systemContext, config, "base", null, "require.split", "require/split/base.txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			// provider exports the package it also gets from the bundle it requires
+			Bundle provider = installRequireBundle(systemContext, config, "provider", "base", "require.split", "require/split/provider.txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			Bundle top = installRequireBundle(systemContext, config, "top", "provider", null); //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("Could not resolve bundles.", equinox.adapt(FrameworkWiring.class).resolveBundles(null)); //$NON-NLS-1$
+
+			// the required bundles come before the local content of the package
+			assertRequiredResource(provider, "require/split/resource.txt", "base"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertRequiredResource(provider, "require/split/provider.txt", "provider"); //$NON-NLS-1$ //$NON-NLS-2$
+			for (int i = 0; i < 2; i++) {
+				assertRequiredResource(top, "require/split/resource.txt", "base"); //$NON-NLS-1$ //$NON-NLS-2$
+				assertRequiredResource(top, "require/split/base.txt", "base"); //$NON-NLS-1$ //$NON-NLS-2$
+				assertRequiredResource(top, "require/split/provider.txt", "provider"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			List<URL> resources = Collections.list(top.getResources("require/split/resource.txt")); //$NON-NLS-1$
+			assertEquals("Wrong number of resources.", 2, resources.size()); //$NON-NLS-1$
+			assertEquals("Wrong resource.", "base", readURL(resources.get(0))); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Wrong resource.", "provider", readURL(resources.get(1))); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testRequireBundleFragmentExports() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Equinox equinox = startRequireBundleFramework(config);
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			installRequireBundle(systemContext, config, "host", null, "require.host"); //$NON-NLS-1$ //$NON-NLS-2$
+			Bundle top = installRequireBundle(systemContext, config, "top", "host", null); //$NON-NLS-1$ //$NON-NLS-2$
+			assertTrue("Could not resolve bundles.", equinox.adapt(FrameworkWiring.class).resolveBundles(null)); //$NON-NLS-1$
+			assertRequiredResource(top, "require/host/resource.txt", "host"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found resource.", top.getResource("require/fragment/resource.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			// attaching a fragment adds exports to the resolved host required by top
+			Map<String, String> fragmentHeaders = new HashMap<String, String>();
+			fragmentHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+			fragmentHeaders.put(Constants.BUNDLE_SYMBOLICNAME, "fragment"); //$NON-NLS-1$
+			fragmentHeaders.put(Constants.FRAGMENT_HOST, "host"); //$NON-NLS-1$
+			fragmentHeaders.put(Constants.EXPORT_PACKAGE, "require.fragment"); //$NON-NLS-1$
+			File fragmentFile = SystemBundleTests.createBundle(config, "fragment", fragmentHeaders, Collections.singletonMap("require/fragment/resource.txt", "fragment")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			Bundle fragment = systemContext.installBundle("fragment", new FileInputStream(fragmentFile)); //$NON-NLS-1$
+			assertTrue("Could not resolve fragment.", equinox.adapt(FrameworkWiring.class).resolveBundles(Collections.singleton(fragment))); //$NON-NLS-1$
+			assertRequiredResource(top, "require/fragment/resource.txt", "fragment"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertRequiredResource(top, "require/host/resource.txt", "host"); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	private Equinox startRequireBundleFramework(File config) throws BundleException {
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		return equinox;
+	}
+
+	/*
+	 * Installs a bundle with the symbolic name bsn.  Each exported package contains
+	 * resource.txt and the extra entries with the symbolic name as content.
+	 */
+	private Bundle installRequireBundle(BundleContext context, File dir, String bsn, String requireBundle, String exportPackage, String... extraEntries) throws BundleException, IOException {
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		headers.put(Constants.BUNDLE_SYMBOLICNAME, bsn);
+		Map<String, String> entries = new HashMap<String, String>();
+		if (requireBundle != null) {
+			headers.put(Constants.REQUIRE_BUNDLE, requireBundle);
+		}
+		if (exportPackage != null) {
+			headers.put(Constants.EXPORT_PACKAGE, exportPackage);
+			entries.put(exportPackage.replace('.', '/') + "/resource.txt", bsn); //$NON-NLS-1$
+		}
+		for (String extraEntry : extraEntries) {
+			entries.put(extraEntry, bsn);
+		}
+		File bundleFile = SystemBundleTests.createBundle(dir, bsn, headers, entries);
+		return context.installBundle(bsn, new FileInputStream(bundleFile));
+	}
+
+	private void assertRequiredResource(Bundle bundle, String path, String expected) {
+		URL resource = bundle.getResource(path);
+		assertNotNull("No resource found: " + path, resource); //$NON-NLS-1$
+		assertEquals("Wrong resource: " + path, expected, readURL(resource)); //$NON-NLS-1$
+	}
 }
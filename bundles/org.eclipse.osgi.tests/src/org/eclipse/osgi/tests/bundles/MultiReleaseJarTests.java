@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
@@ -875,6 +876,59 @@ public class MultiReleaseJarTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testMultiReleaseIndexRestart() throws Exception {
+		System.setProperty("java.specification.version", "11");
+
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, String> configMap = Collections.singletonMap(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		Equinox equinox = new Equinox(configMap);
+		long mrBundleId;
+		try {
+			equinox.start();
+			Bundle mrBundle = equinox.getBundleContext().installBundle(mrJarBundle.toURI().toString());
+			mrBundleId = mrBundle.getBundleId();
+			assertEquals("Wrong class.", "BASE11", loadClass("multi.release.test.TestClass11", mrBundle, false));
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+		File[] indexFiles = new File(config, "org.eclipse.osgi/" + mrBundleId + "/0/.idx").listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".mr");
+			}
+		});
+		assertNotNull("No index directory.", indexFiles);
+		assertEquals("Wrong number of multi-release indexes.", 1, indexFiles.length);
+
+		// load with the stored index
+		equinox = new Equinox(configMap);
+		try {
+			equinox.start();
+			Bundle mrBundle = equinox.getBundleContext().getBundle(mrBundleId);
+			assertEquals("Wrong class.", "BASE11", loadClass("multi.release.test.TestClass11", mrBundle, false));
+			assertEquals("Wrong class.", "ADD10", loadClass("multi.release.test.sub.TestClassAdd10", mrBundle, true));
+			assertEquals("Wrong class.", "BASEXX", loadClass("multi.release.test.TestClassBase", mrBundle, false));
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+
+		// the stored index must not be used for another Java version
+		System.setProperty("java.specification.version", "10");
+		equinox = new Equinox(configMap);
+		try {
+			equinox.start();
+			Bundle mrBundle = equinox.getBundleContext().getBundle(mrBundleId);
+			assertEquals("Wrong class.", "BASEXX", loadClass("multi.release.test.TestClass11", mrBundle, false));
+			assertEquals("Wrong class.", CNFE, loadClass("multi.release.test.TestClassAdd11", mrBundle, true));
+			assertEquals("Wrong class.", "BASE10", loadClass("multi.release.test.TestClass10", mrBundle, false));
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
 	public void testMultiReleasePreventMetaInfServiceVersions() throws Exception {
 		System.setProperty("java.specification.version", "9");
 
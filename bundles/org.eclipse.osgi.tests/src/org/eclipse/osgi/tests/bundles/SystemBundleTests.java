@@ -16,7 +16,9 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
 import java.net.Proxy;
@@ -34,6 +36,7 @@ import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -49,6 +52,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -56,6 +60,8 @@ import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 import javax.net.SocketFactory;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
@@ -67,13 +73,18 @@ import org.eclipse.equinox.log.test.TestListener2;
 import org.eclipse.osgi.framework.util.FilePath;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.internal.loader.ModuleClassLoader;
 import org.eclipse.osgi.internal.location.EquinoxLocations;
 import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.service.datalocation.Location;
 import org.eclipse.osgi.service.environment.EnvironmentInfo;
 import org.eclipse.osgi.service.urlconversion.URLConverter;
+import org.eclipse.osgi.storage.Storage;
+import org.eclipse.osgi.storage.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
 import org.eclipse.osgi.storage.url.reference.Handler;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
+import org.eclipse.osgi.tests.container.dummys.DummyDebugOptions;
 import org.eclipse.osgi.tests.security.BaseSecurityTest;
 import org.junit.Assert;
 import org.osgi.framework.Bundle;
@@ -3572,6 +3583,83 @@ public class SystemBundleTests extends AbstractBundleTests {
 		assertEquals("Wrong state for SystemBundle", Bundle.RESOLVED, equinox.getState()); //$NON-NLS-1$
 	}
 
+	public void testSettingsJournal() throws BundleException, IOException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		File osgiDir = new File(config, "org.eclipse.osgi"); //$NON-NLS-1$
+		File[] testBundles = createBundles(new File(config, "bundles"), 2); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		Bundle b0 = equinox.getBundleContext().installBundle("reference:file:///" + testBundles[0].getAbsolutePath()); //$NON-NLS-1$
+		Bundle b1 = equinox.getBundleContext().installBundle("reference:file:///" + testBundles[1].getAbsolutePath()); //$NON-NLS-1$
+		assertTrue("Failed to resolve bundles.", equinox.adapt(FrameworkWiring.class).resolveBundles(null)); //$NON-NLS-1$
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertNull("Journal written for installed bundles.", getJournal(osgiDir)); //$NON-NLS-1$
+
+		// settings changes are appended to the journal
+		equinox = new Equinox(configuration);
+		equinox.start();
+		equinox.getBundleContext().getBundle(b0.getBundleId()).adapt(BundleStartLevel.class).setStartLevel(5);
+		equinox.getBundleContext().getBundle(b1.getBundleId()).start();
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertNotNull("Journal not written.", getJournal(osgiDir)); //$NON-NLS-1$
+
+		// the journal is replayed on restart
+		equinox = new Equinox(configuration);
+		equinox.start();
+		BundleStartLevel b0StartLevel = equinox.getBundleContext().getBundle(b0.getBundleId()).adapt(BundleStartLevel.class);
+		assertEquals("Wrong start level.", 5, b0StartLevel.getStartLevel()); //$NON-NLS-1$
+		assertTrue("Not persistently started.", equinox.getBundleContext().getBundle(b1.getBundleId()).adapt(BundleStartLevel.class).isPersistentlyStarted()); //$NON-NLS-1$
+		b0StartLevel.setStartLevel(7);
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		// simulate a corrupt last record
+		File journal = getJournal(osgiDir);
+		long journalLength = journal.length();
+		RandomAccessFile truncated = new RandomAccessFile(journal, "rw"); //$NON-NLS-1$
+		try {
+			truncated.setLength(journalLength - 2);
+		} finally {
+			truncated.close();
+		}
+
+		// the incomplete record is ignored and the previous records are replayed
+		equinox = new Equinox(configuration);
+		equinox.start();
+		b0StartLevel = equinox.getBundleContext().getBundle(b0.getBundleId()).adapt(BundleStartLevel.class);
+		assertEquals("Wrong start level.", 5, b0StartLevel.getStartLevel()); //$NON-NLS-1$
+		assertTrue("Not persistently started.", equinox.getBundleContext().getBundle(b1.getBundleId()).adapt(BundleStartLevel.class).isPersistentlyStarted()); //$NON-NLS-1$
+		b0StartLevel.setStartLevel(8);
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		// the save after an incomplete journal writes a new framework.info
+		equinox = new Equinox(configuration);
+		equinox.start();
+		assertEquals("Wrong start level.", 8, equinox.getBundleContext().getBundle(b0.getBundleId()).adapt(BundleStartLevel.class).getStartLevel()); //$NON-NLS-1$
+		assertTrue("Not persistently started.", equinox.getBundleContext().getBundle(b1.getBundleId()).adapt(BundleStartLevel.class).isPersistentlyStarted()); //$NON-NLS-1$
+		equinox.stop();
+		equinox.waitForStop(10000);
+	}
+
+	private File getJournal(File osgiDir) {
+		// the journal is a managed file of the storage manager
+		File[] files = osgiDir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().startsWith(Storage.FRAMEWORK_JOURNAL + '.')) {
+					return file;
+				}
+			}
+		}
+		return null;
+	}
+
 	public void testMRUBundleFileListOverflow() throws BundleException, FileNotFoundException, IOException {
 		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
 		final int numBundles = 5000;
@@ -3654,6 +3742,500 @@ public class SystemBundleTests extends AbstractBundleTests {
 		assertTrue("Test took too long: " + timeTaken, timeTaken < 30);
 	}
 
+	public void testMRUBundleFileListPrefetch() throws IOException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		AtomicInteger closes = new AtomicInteger();
+		Semaphore prefetches = new Semaphore(0);
+		MRUBundleFileList mruList = new MRUBundleFileList(MRU_TEST_LIMIT, new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap())));
+		// two more bundle files than the limit; opening them in order evicts each one before it is used again
+		List<ZipBundleFile> bundleFiles = createMRUTestBundleFiles(config, MRU_TEST_LIMIT + 2, mruList, closes, prefetches);
+		try {
+			for (ZipBundleFile bundleFile : bundleFiles) {
+				openMRUTestBundleFile(bundleFile, mruList, closes);
+			}
+			assertEquals("Wrong number of evictions.", 2, mruList.getEvictionCount()); //$NON-NLS-1$
+			assertEquals("Wrong number of reopens.", 0, mruList.getReopenCount()); //$NON-NLS-1$
+
+			// each successor has been seen once; nothing is prefetched yet
+			for (ZipBundleFile bundleFile : bundleFiles) {
+				openMRUTestBundleFile(bundleFile, mruList, closes);
+			}
+			assertEquals("Wrong number of evictions.", 2 + bundleFiles.size(), mruList.getEvictionCount()); //$NON-NLS-1$
+			assertEquals("Wrong number of reopens.", bundleFiles.size(), mruList.getReopenCount()); //$NON-NLS-1$
+			assertEquals("Wrong number of prefetches.", 0, mruList.getPrefetchCount()); //$NON-NLS-1$
+
+			// the same successor followed the first bundle file twice; it is opened ahead of time
+			openMRUTestBundleFile(bundleFiles.get(0), mruList, closes);
+			assertEquals("Wrong number of reopens.", bundleFiles.size() + 1, mruList.getReopenCount()); //$NON-NLS-1$
+			assertEquals("Wrong number of prefetches.", 1, mruList.getPrefetchCount()); //$NON-NLS-1$
+			assertTrue("Successor was not prefetched.", prefetches.tryAcquire(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertNotNull("No entry found.", bundleFiles.get(1).getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Prefetched bundle file was reopened.", bundleFiles.size() + 1, mruList.getReopenCount()); //$NON-NLS-1$
+			assertEquals("Wrong number of back pressure waits.", 0, mruList.getBackpressureWaitCount()); //$NON-NLS-1$
+		} finally {
+			closeMRUTestBundleFiles(bundleFiles, mruList);
+		}
+	}
+
+	public void testMRUBundleFileListRetainedNames() throws IOException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		AtomicInteger closes = new AtomicInteger();
+		MRUBundleFileList mruList = new MRUBundleFileList(MRU_TEST_LIMIT, new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap())));
+		Map<String, String> entries = new HashMap<String, String>();
+		entries.put("a/b/test.txt", "testValue"); //$NON-NLS-1$ //$NON-NLS-2$
+		entries.put("c/", ""); //$NON-NLS-1$ //$NON-NLS-2$
+		File targetFile = createBundle(config, getName(), Collections.singletonMap(Constants.BUNDLE_SYMBOLICNAME, getName()), entries);
+		ZipBundleFile target = new MRUTestBundleFile(targetFile, mruList, closes, new Semaphore(0));
+		List<ZipBundleFile> others = createMRUTestBundleFiles(config, MRU_TEST_LIMIT, mruList, closes, new Semaphore(0));
+		try {
+			openMRUTestBundleFile(target, mruList, closes);
+			evictMRUTestBundleFile(others, mruList, closes);
+
+			// missing entries are found with the retained names of the closed zip file
+			long reopens = mruList.getReopenCount();
+			assertNull("Found entry.", target.getEntry("x/missing.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found entry.", target.getEntry("/x/missing.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found entry.", target.getEntry("a/b/test")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found entry.", target.getEntry("a/b/tes/")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Found entry.", target.getEntry("a/c/")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertFalse("Found directory.", target.containsDir("x")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertFalse("Found directory.", target.containsDir("/a/b/te")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Closed zip file was reopened.", reopens, mruList.getReopenCount()); //$NON-NLS-1$
+
+			// existing entries are read from the reopened zip file
+			assertNotNull("No entry found.", target.getEntry("/a/b/test.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Zip file was not reopened.", reopens + 1, mruList.getReopenCount()); //$NON-NLS-1$
+			awaitMRUTestCloses(mruList, closes);
+			// directories without a directory entry are found with the names under them
+			evictMRUTestBundleFile(others, mruList, closes);
+			assertNotNull("No directory found.", target.getEntry("a/b/")); //$NON-NLS-1$ //$NON-NLS-2$
+			awaitMRUTestCloses(mruList, closes);
+			evictMRUTestBundleFile(others, mruList, closes);
+			assertTrue("No directory found.", target.containsDir("/a")); //$NON-NLS-1$ //$NON-NLS-2$
+			awaitMRUTestCloses(mruList, closes);
+			evictMRUTestBundleFile(others, mruList, closes);
+			assertNotNull("No directory found.", target.getEntry("c")); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			List<ZipBundleFile> all = new ArrayList<ZipBundleFile>(others);
+			all.add(target);
+			closeMRUTestBundleFiles(all, mruList);
+		}
+	}
+
+	// the smallest osgi.bundlefile.limit which enables the MRU
+	private static final int MRU_TEST_LIMIT = 10;
+
+	/*
+	 * Signals when the MRU closes or prefetches the bundle file.  Only the MRU
+	 * calls open(); the tests open the bundle file by getting entries.
+	 */
+	private static class MRUTestBundleFile extends ZipBundleFile {
+		private final AtomicInteger closes;
+		private final Semaphore prefetches;
+
+		MRUTestBundleFile(File basefile, MRUBundleFileList mruList, AtomicInteger closes, Semaphore prefetches) throws IOException {
+			super(basefile, null, mruList, new Debug(new DummyDebugOptions(Collections.<String, String> emptyMap())));
+			this.closes = closes;
+			this.prefetches = prefetches;
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			closes.incrementAndGet();
+		}
+
+		@Override
+		public void open() throws IOException {
+			super.open();
+			prefetches.release();
+		}
+	}
+
+	private List<ZipBundleFile> createMRUTestBundleFiles(File config, int num, MRUBundleFileList mruList, AtomicInteger closes, Semaphore prefetches) throws IOException {
+		List<ZipBundleFile> result = new ArrayList<ZipBundleFile>();
+		for (int i = 0; i < num; i++) {
+			File bundleFile = createBundle(config, getName() + i, Collections.singletonMap(Constants.BUNDLE_SYMBOLICNAME, getName() + i));
+			result.add(new MRUTestBundleFile(bundleFile, mruList, closes, prefetches));
+		}
+		return result;
+	}
+
+	/*
+	 * Opens the bundle file and waits for the bundle files it evicted to be closed.
+	 */
+	private void openMRUTestBundleFile(ZipBundleFile bundleFile, MRUBundleFileList mruList, AtomicInteger closes) throws InterruptedException {
+		assertNotNull("No entry found.", bundleFile.getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+		awaitMRUTestCloses(mruList, closes);
+	}
+
+	private void awaitMRUTestCloses(MRUBundleFileList mruList, AtomicInteger closes) throws InterruptedException {
+		for (int i = 0; i < 1000 && closes.get() < mruList.getEvictionCount(); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals("Evicted bundle files were not closed.", mruList.getEvictionCount(), closes.get()); //$NON-NLS-1$
+	}
+
+	/*
+	 * Evicts the least recently used bundle file by opening as many other bundle files
+	 * as the limit.  The direction is reversed each time so that the MRU never sees the
+	 * same successor twice and does not prefetch.
+	 */
+	private void evictMRUTestBundleFile(List<ZipBundleFile> others, MRUBundleFileList mruList, AtomicInteger closes) throws InterruptedException {
+		for (ZipBundleFile other : others) {
+			openMRUTestBundleFile(other, mruList, closes);
+		}
+		Collections.reverse(others);
+	}
+
+	private void closeMRUTestBundleFiles(List<ZipBundleFile> bundleFiles, MRUBundleFileList mruList) throws IOException {
+		mruList.shutdown();
+		for (ZipBundleFile bundleFile : bundleFiles) {
+			bundleFile.close();
+		}
+	}
+
+	public void testClassBytesCache() throws BundleException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_BYTES_CACHE, "true"); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		Bundle substitutesA = equinox.getBundleContext().installBundle(installer.getBundleLocation("substitutes.a")); //$NON-NLS-1$
+		assertEquals("Wrong class.", "substitutes.x.Ax", substitutesA.loadClass("substitutes.x.Ax").getName()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		File cacheFile = new File(config, "org.eclipse.osgi/" + substitutesA.getBundleId() + "/0/.classes"); //$NON-NLS-1$ //$NON-NLS-2$
+		assertTrue("Class bytes cache not stored.", cacheFile.isFile()); //$NON-NLS-1$
+		long cacheLength = cacheFile.length();
+		assertTrue("Class bytes cache is empty.", cacheLength > 0); //$NON-NLS-1$
+
+		// restart and load the class from the cache
+		equinox = new Equinox(configuration);
+		equinox.start();
+		substitutesA = equinox.getBundleContext().getBundle(substitutesA.getBundleId());
+		assertEquals("Wrong class.", "substitutes.x.Ax", substitutesA.loadClass("substitutes.x.Ax").getName()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertEquals("Cached class was stored again.", cacheLength, cacheFile.length()); //$NON-NLS-1$
+	}
+
+	public void testClassBytesCacheWeaving() throws BundleException, ClassNotFoundException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_BYTES_CACHE, "true"); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			BundleContext systemContext = equinox.getBundleContext();
+			Bundle substitutesA = systemContext.installBundle(installer.getBundleLocation("substitutes.a")); //$NON-NLS-1$
+			// defined from a byte buffer without any weaving hooks
+			substitutesA.loadClass("substitutes.x.Ax"); //$NON-NLS-1$
+
+			final List<String> woven = new CopyOnWriteArrayList<String>();
+			ServiceRegistration<WeavingHook> hookReg = systemContext.registerService(WeavingHook.class, new WeavingHook() {
+				@Override
+				public void weave(WovenClass wovenClass) {
+					woven.add(wovenClass.getClassName());
+				}
+			}, null);
+			try {
+				substitutesA.loadClass("substitutes.y.Ay"); //$NON-NLS-1$
+			} finally {
+				hookReg.unregister();
+			}
+			assertEquals("Wrong woven classes.", Arrays.asList("substitutes.y.Ay"), woven); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testClassBytesCacheIncompleteRecord() throws BundleException, ClassNotFoundException, InterruptedException, IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_BYTES_CACHE, "true"); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		Bundle substitutesA = equinox.getBundleContext().installBundle(installer.getBundleLocation("substitutes.a")); //$NON-NLS-1$
+		substitutesA.loadClass("substitutes.x.Ax"); //$NON-NLS-1$
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		File cacheFile = new File(config, "org.eclipse.osgi/" + substitutesA.getBundleId() + "/0/.classes"); //$NON-NLS-1$ //$NON-NLS-2$
+		long cacheLength = cacheFile.length();
+		assertTrue("Class bytes cache is empty.", cacheLength > 0); //$NON-NLS-1$
+		// simulate an append which was interrupted in the middle of a record
+		FileOutputStream out = new FileOutputStream(cacheFile, true);
+		try {
+			out.write(new byte[] {0, 0, 0, 100, 'x'});
+		} finally {
+			out.close();
+		}
+
+		equinox = new Equinox(configuration);
+		equinox.start();
+		substitutesA = equinox.getBundleContext().getBundle(substitutesA.getBundleId());
+		assertEquals("Wrong class.", "substitutes.x.Ax", substitutesA.loadClass("substitutes.x.Ax").getName()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertEquals("Incomplete record not discarded.", cacheLength, cacheFile.length()); //$NON-NLS-1$
+	}
+
+	public void testClassBytesCacheChangedJar() throws BundleException, ClassNotFoundException, InterruptedException, IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_BYTES_CACHE, "true"); //$NON-NLS-1$
+		File bundleFile = new File(config, "substitutes.a.jar"); //$NON-NLS-1$
+
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		Bundle copy = equinox.getBundleContext().installBundle(installer.getBundleLocation("substitutes.a")); //$NON-NLS-1$
+		copyBundle(copy, bundleFile, null);
+		copy.uninstall();
+		Bundle substitutesA = equinox.getBundleContext().installBundle("reference:file:///" + bundleFile.getAbsolutePath()); //$NON-NLS-1$
+		substitutesA.loadClass("substitutes.x.Ax"); //$NON-NLS-1$
+		substitutesA.loadClass("substitutes.y.Ay"); //$NON-NLS-1$
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		File cacheFile = new File(config, "org.eclipse.osgi/" + substitutesA.getBundleId() + "/0/.classes"); //$NON-NLS-1$ //$NON-NLS-2$
+		long cacheLength = cacheFile.length();
+		assertTrue("Class bytes cache is empty.", cacheLength > 0); //$NON-NLS-1$
+
+		// change the content of the jar but keep its last modified time
+		long lastModified = bundleFile.lastModified();
+		File changedFile = new File(config, "substitutes.a.changed.jar"); //$NON-NLS-1$
+		equinox = new Equinox(configuration);
+		equinox.start();
+		copyBundle(equinox.getBundleContext().getBundle(substitutesA.getBundleId()), changedFile, "changed.txt"); //$NON-NLS-1$
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertTrue("Could not delete the jar.", bundleFile.delete()); //$NON-NLS-1$
+		assertTrue("Could not replace the jar.", changedFile.renameTo(bundleFile)); //$NON-NLS-1$
+		assertTrue("Could not set last modified.", bundleFile.setLastModified(lastModified)); //$NON-NLS-1$
+
+		// the cache must be discarded; only the class loaded after the change is cached again
+		equinox = new Equinox(configuration);
+		equinox.start();
+		substitutesA = equinox.getBundleContext().getBundle(substitutesA.getBundleId());
+		assertEquals("Wrong class.", "substitutes.x.Ax", substitutesA.loadClass("substitutes.x.Ax").getName()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertTrue("Class bytes cache not discarded.", cacheFile.length() < cacheLength); //$NON-NLS-1$
+	}
+
+	private static void copyBundle(Bundle source, File target, String extraEntry) throws IOException {
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(target));
+		try {
+			Enumeration<URL> entries = source.findEntries("/", "*", true); //$NON-NLS-1$ //$NON-NLS-2$
+			while (entries.hasMoreElements()) {
+				URL entry = entries.nextElement();
+				String path = entry.getPath().substring(1);
+				if (path.endsWith("/")) { //$NON-NLS-1$
+					continue;
+				}
+				out.putNextEntry(new JarEntry(path));
+				InputStream in = entry.openStream();
+				try {
+					byte[] buffer = new byte[4096];
+					for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+				out.closeEntry();
+			}
+			if (extraEntry != null) {
+				out.putNextEntry(new JarEntry(extraEntry));
+				out.write(extraEntry.getBytes("UTF-8")); //$NON-NLS-1$
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public void testClassLoadingProfile() throws BundleException, ClassNotFoundException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE, "true"); //$NON-NLS-1$
+
+		// record classes loaded while the framework is starting
+		Equinox equinox = new Equinox(configuration);
+		equinox.init();
+		Bundle chainTestD = equinox.getBundleContext().installBundle(installer.getBundleLocation("chain.test.d")); //$NON-NLS-1$
+		Bundle testA = equinox.getBundleContext().installBundle(installer.getBundleLocation("test.bug490902.a")); //$NON-NLS-1$
+		equinox.getBundleContext().installBundle(installer.getBundleLocation("test.bug490902.b")); //$NON-NLS-1$
+		chainTestD.loadClass("chain.test.d.DMultipleChain1"); //$NON-NLS-1$
+		testA.loadClass("test.bug490902.a.TestLoadA1"); //$NON-NLS-1$
+		equinox.start();
+		equinox.stop();
+		equinox.waitForStop(10000);
+		assertTrue("Class loading profile not stored.", new File(config, "org.eclipse.osgi/.classLoadingProfile").isFile()); //$NON-NLS-1$ //$NON-NLS-2$
+
+		equinox = new Equinox(configuration);
+		equinox.init();
+		try {
+			chainTestD = equinox.getBundleContext().getBundle(chainTestD.getBundleId());
+			chainTestD.start(Bundle.START_ACTIVATION_POLICY);
+			equinox.start();
+			testA = equinox.getBundleContext().getBundle(testA.getBundleId());
+			ModuleClassLoader classLoader = (ModuleClassLoader) testA.adapt(BundleWiring.class).getClassLoader();
+			for (int i = 0; i < 100 && classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1") == null; i++) { //$NON-NLS-1$
+				Thread.sleep(100);
+			}
+			assertNotNull("Class was not preloaded.", classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1")); //$NON-NLS-1$ //$NON-NLS-2$
+			// classes of a lazy bundle are only loaded by their first use which activates the bundle
+			assertEquals("Wrong state.", Bundle.STARTING, chainTestD.getState()); //$NON-NLS-1$
+			chainTestD.loadClass("chain.test.d.DMultipleChain1"); //$NON-NLS-1$
+			assertEquals("Wrong state.", Bundle.ACTIVE, chainTestD.getState()); //$NON-NLS-1$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+
+		// the profile stored by a start which preloaded the classes still has them
+		equinox = new Equinox(configuration);
+		equinox.init();
+		try {
+			equinox.start();
+			testA = equinox.getBundleContext().getBundle(testA.getBundleId());
+			ModuleClassLoader classLoader = (ModuleClassLoader) testA.adapt(BundleWiring.class).getClassLoader();
+			for (int i = 0; i < 100 && classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1") == null; i++) { //$NON-NLS-1$
+				Thread.sleep(100);
+			}
+			assertNotNull("Class was not preloaded.", classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1")); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testClassLoadingProfileLazySuperclass() throws BundleException, ClassNotFoundException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_PROFILE, "true"); //$NON-NLS-1$
+
+		// A1 extends B1 from the lazy bundle test.bug490902.b
+		Equinox equinox = new Equinox(configuration);
+		equinox.init();
+		Bundle testA = equinox.getBundleContext().installBundle(installer.getBundleLocation("test.bug490902.a")); //$NON-NLS-1$
+		Bundle testB = equinox.getBundleContext().installBundle(installer.getBundleLocation("test.bug490902.b")); //$NON-NLS-1$
+		testA.loadClass("test.bug490902.a.A1"); //$NON-NLS-1$
+		testA.loadClass("test.bug490902.a.TestLoadA1"); //$NON-NLS-1$
+		testB.start(Bundle.START_ACTIVATION_POLICY);
+		equinox.start();
+		equinox.stop();
+		equinox.waitForStop(10000);
+
+		equinox = new Equinox(configuration);
+		equinox.init();
+		try {
+			equinox.start();
+			testA = equinox.getBundleContext().getBundle(testA.getBundleId());
+			testB = equinox.getBundleContext().getBundle(testB.getBundleId());
+			ModuleClassLoader classLoader = (ModuleClassLoader) testA.adapt(BundleWiring.class).getClassLoader();
+			// TestLoadA1 is preloaded after A1
+			for (int i = 0; i < 100 && classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1") == null; i++) { //$NON-NLS-1$
+				Thread.sleep(100);
+			}
+			assertNotNull("Class was not preloaded.", classLoader.publicFindLoaded("test.bug490902.a.TestLoadA1")); //$NON-NLS-1$ //$NON-NLS-2$
+			// defining A1 ahead of time would load B1 without activating its bundle
+			assertNull("Class with a lazy superclass was preloaded.", classLoader.publicFindLoaded("test.bug490902.a.A1")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("Wrong state.", Bundle.STARTING, testB.getState()); //$NON-NLS-1$
+			testA.loadClass("test.bug490902.a.A1"); //$NON-NLS-1$
+			assertEquals("Wrong state.", Bundle.ACTIVE, testB.getState()); //$NON-NLS-1$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	public void testZipMappedReader() throws IOException, BundleException, InterruptedException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().putValue("Manifest-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		manifest.getMainAttributes().putValue(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "mapped.reader"); //$NON-NLS-1$
+		File bundleFile = new File(config, "mapped.reader.jar"); //$NON-NLS-1$
+		JarOutputStream jos = new JarOutputStream(new FileOutputStream(bundleFile), manifest);
+		try {
+			byte[] stored = "stored content".getBytes(); //$NON-NLS-1$
+			CRC32 crc = new CRC32();
+			crc.update(stored);
+			JarEntry storedEntry = new JarEntry("a/stored/stored.txt"); //$NON-NLS-1$
+			storedEntry.setMethod(ZipEntry.STORED);
+			storedEntry.setSize(stored.length);
+			storedEntry.setCompressedSize(stored.length);
+			storedEntry.setCrc(crc.getValue());
+			jos.putNextEntry(storedEntry);
+			jos.write(stored);
+			jos.closeEntry();
+			jos.putNextEntry(new JarEntry("a/deflated/deflated.txt")); //$NON-NLS-1$
+			jos.write("deflated content".getBytes()); //$NON-NLS-1$
+			jos.closeEntry();
+		} finally {
+			jos.close();
+		}
+
+		Map<String, Object> configuration = new HashMap<String, Object>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_ZIP_MAPPED_READER, "true"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			Bundle bundle = equinox.getBundleContext().installBundle(bundleFile.toURI().toString());
+			assertEquals("Wrong content.", "stored content", readContent(bundle.getEntry("a/stored/stored.txt"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertEquals("Wrong content.", "deflated content", readContent(bundle.getEntry("/a/deflated/deflated.txt"))); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			// the jar has no directory entries
+			assertNotNull("Missing directory.", bundle.getEntry("a/stored/")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Unexpected directory.", bundle.getEntry("a/missing/")); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("Unexpected entry.", bundle.getEntry("a/stored")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			Set<String> paths = new HashSet<String>();
+			for (Enumeration<String> entryPaths = bundle.getEntryPaths("a/"); entryPaths.hasMoreElements();) { //$NON-NLS-1$
+				paths.add(entryPaths.nextElement());
+			}
+			assertEquals("Wrong entry paths.", new HashSet<String>(Arrays.asList("a/stored/", "a/deflated/")), paths); //$NON-NLS-1$ //$NON-NLS-2$
+			Enumeration<URL> found = bundle.findEntries("/", "*.txt", true); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("No entries found.", found); //$NON-NLS-1$
+			assertEquals("Wrong number of entries.", 2, Collections.list(found).size()); //$NON-NLS-1$
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	private static String readContent(URL url) throws IOException {
+		assertNotNull("Missing entry.", url); //$NON-NLS-1$
+		InputStream in = url.openStream();
+		try {
+			StringBuilder result = new StringBuilder();
+			int c;
+			while ((c = in.read()) != -1) {
+				result.append((char) c);
+			}
+			return result.toString();
+		} finally {
+			in.close();
+		}
+	}
+
 	public void testZipBundleFileOpenLock() throws IOException, BundleException, InvalidSyntaxException {
 		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
 		config.mkdirs();
@@ -17,6 +17,7 @@ public class AllTests {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(new JUnit4TestAdapter(TestModuleContainer.class));
 		suite.addTest(new JUnit4TestAdapter(ResolutionReportTest.class));
+		suite.addTest(new JUnit4TestAdapter(LongMapTest.class));
 		return suite;
 	}
 }
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.container;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import org.eclipse.osgi.internal.container.LongMap;
+import org.junit.Test;
+
+public class LongMapTest {
+	// a map created for 4 elements has 8 slots and rehashes when the 6th key is added
+	private static final int SMALL_EXPECTED = 4;
+	private static final int SMALL_CAPACITY = 8;
+
+	@Test
+	public void testZeroKey() {
+		LongMap<String> map = new LongMap<>();
+		assertFalse("Contains zero key.", map.containsKey(0));
+		assertNull("Wrong value.", map.get(0));
+		assertNull("Wrong previous value.", map.put(0, "zero"));
+		assertNull("Wrong previous value.", map.put(1, "one"));
+		assertTrue("Missing zero key.", map.containsKey(0));
+		assertEquals("Wrong value.", "zero", map.get(0));
+		assertEquals("Wrong size.", 2, map.size());
+
+		assertEquals("Wrong previous value.", "zero", map.put(0, "zero2"));
+		assertEquals("Wrong size.", 2, map.size());
+
+		assertEquals("Wrong removed value.", "zero2", map.remove(0));
+		assertNull("Removed zero key twice.", map.remove(0));
+		assertFalse("Contains zero key.", map.containsKey(0));
+		assertEquals("Wrong value.", "one", map.get(1));
+		assertEquals("Wrong size.", 1, map.size());
+
+		map.put(0, "zero");
+		map.clear();
+		assertTrue("Not empty.", map.isEmpty());
+		assertFalse("Contains zero key.", map.containsKey(0));
+		assertNull("Wrong value.", map.get(0));
+	}
+
+	@Test
+	public void testRemoveShiftsKeys() {
+		// three keys which all start probing at the same slot
+		long[] colliding = findKeys(3, 3, 1);
+		LongMap<String> map = new LongMap<>(SMALL_EXPECTED);
+		for (long key : colliding) {
+			map.put(key, Long.toString(key));
+		}
+		// removing the first key must move the others back so they can still be found
+		assertEquals("Wrong removed value.", Long.toString(colliding[0]), map.remove(colliding[0]));
+		assertNull("Wrong value.", map.get(colliding[0]));
+		assertEquals("Wrong value.", Long.toString(colliding[1]), map.get(colliding[1]));
+		assertEquals("Wrong value.", Long.toString(colliding[2]), map.get(colliding[2]));
+
+		assertEquals("Wrong removed value.", Long.toString(colliding[1]), map.remove(colliding[1]));
+		assertEquals("Wrong value.", Long.toString(colliding[2]), map.get(colliding[2]));
+		assertEquals("Wrong size.", 1, map.size());
+	}
+
+	@Test
+	public void testRemoveShiftsWrappedKeys() {
+		// three keys which start probing at the last slot and wrap around to the first slots
+		long[] last = findKeys(3, SMALL_CAPACITY - 1, 1);
+		// a key which belongs to the first slot and is pushed behind the wrapped keys
+		long[] first = findKeys(1, 0, last[last.length - 1] + 1);
+		LongMap<String> map = new LongMap<>(SMALL_EXPECTED);
+		for (long key : last) {
+			map.put(key, Long.toString(key));
+		}
+		map.put(first[0], Long.toString(first[0]));
+		assertEquals("Wrong size.", 4, map.size());
+
+		assertEquals("Wrong removed value.", Long.toString(last[0]), map.remove(last[0]));
+		assertEquals("Wrong value.", Long.toString(last[1]), map.get(last[1]));
+		assertEquals("Wrong value.", Long.toString(last[2]), map.get(last[2]));
+		assertEquals("Wrong value.", Long.toString(first[0]), map.get(first[0]));
+
+		assertEquals("Wrong removed value.", Long.toString(last[2]), map.remove(last[2]));
+		assertEquals("Wrong value.", Long.toString(last[1]), map.get(last[1]));
+		assertEquals("Wrong value.", Long.toString(first[0]), map.get(first[0]));
+		assertEquals("Wrong size.", 2, map.size());
+
+		// keys in the first slots which are at their own slot must not move back to the last slot
+		first = findKeys(2, 0, 1);
+		map = new LongMap<>(SMALL_EXPECTED);
+		map.put(last[0], Long.toString(last[0]));
+		map.put(first[0], Long.toString(first[0]));
+		map.put(first[1], Long.toString(first[1]));
+		assertEquals("Wrong removed value.", Long.toString(last[0]), map.remove(last[0]));
+		assertEquals("Wrong value.", Long.toString(first[0]), map.get(first[0]));
+		assertEquals("Wrong value.", Long.toString(first[1]), map.get(first[1]));
+	}
+
+	@Test
+	public void testRehash() {
+		LongMap<Long> map = new LongMap<>(SMALL_EXPECTED);
+		int num = 10000;
+		for (long i = 1; i <= num; i++) {
+			assertNull("Wrong previous value.", map.put(i * 31, i));
+		}
+		assertEquals("Wrong size.", num, map.size());
+		for (long i = 1; i <= num; i++) {
+			assertEquals("Wrong value.", Long.valueOf(i), map.get(i * 31));
+		}
+		assertNull("Wrong value.", map.get(num * 31 + 31));
+		for (long i = 1; i <= num; i += 2) {
+			assertEquals("Wrong removed value.", Long.valueOf(i), map.remove(i * 31));
+		}
+		assertEquals("Wrong size.", num / 2, map.size());
+		for (long i = 1; i <= num; i++) {
+			assertEquals("Wrong containsKey.", i % 2 == 0, map.containsKey(i * 31));
+		}
+	}
+
+	@Test
+	public void testRandomOperations() {
+		Random random = new Random(42);
+		LongMap<Long> map = new LongMap<>();
+		Map<Long, Long> expected = new HashMap<>();
+		for (int i = 0; i < 100000; i++) {
+			// a small key range makes collisions and removals of present keys likely
+			long key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals("Wrong removed value.", expected.remove(key), map.remove(key));
+			} else {
+				Long value = Long.valueOf(i);
+				assertEquals("Wrong previous value.", expected.put(key, value), map.put(key, value));
+			}
+			assertEquals("Wrong size.", expected.size(), map.size());
+		}
+		for (long key = -1000; key < 1000; key++) {
+			assertEquals("Wrong value.", expected.get(key), map.get(key));
+		}
+	}
+
+	/**
+	 * Finds non zero keys which start probing at the specified slot of a
+	 * map with {@link #SMALL_CAPACITY} slots.
+	 */
+	private static long[] findKeys(int num, int slot, long start) {
+		long[] result = new long[num];
+		int found = 0;
+		for (long key = start; found < num; key++) {
+			if (key != 0 && (mix(key) & (SMALL_CAPACITY - 1)) == slot) {
+				result[found++] = key;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The same hash mixing as LongMap.
+	 */
+	private static int mix(long key) {
+		int h = (int) (key ^ (key >>> 32)) * -1640531527;
+		return h ^ (h >>> 16);
+	}
+}
@@ -32,13 +32,17 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -46,6 +50,8 @@ import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import org.eclipse.osgi.container.Module;
@@ -67,6 +73,7 @@ import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.report.resolution.ResolutionReport;
 import org.eclipse.osgi.tests.container.dummys.DummyCollisionHook;
 import org.eclipse.osgi.tests.container.dummys.DummyContainerAdaptor;
+import org.eclipse.osgi.tests.container.dummys.DummyContainerAdaptor.ModuleWorker;
 import org.eclipse.osgi.tests.container.dummys.DummyDebugOptions;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase.DummyContainerEvent;
@@ -1823,6 +1830,728 @@ public class TestModuleContainer extends AbstractTest {
 		Assert.assertEquals("n3 should resolve.", State.RESOLVED, uses_n3.getState());
 	}
 
+	@Test
+	public void testResolverCandidateCache() throws BundleException, IOException {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_RESOLVER_CANDIDATE_CACHE, "true");
+		Map<String, String> debugOpts = Collections.singletonMap("org.eclipse.osgi/resolver/report", "true");
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, new DummyResolverHookFactory(), new DummyDebugOptions(debugOpts));
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "x.v1");
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=1.0");
+		Module xV1 = installDummyModule(manifest, "x.v1", container);
+
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "client");
+		manifest.put(Constants.IMPORT_PACKAGE, "x");
+		installDummyModule(manifest, "client", container);
+		container.resolve(null, false);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(bytes);
+		adaptor.getDatabase().store(data, true);
+		ByteArrayOutputStream candidateBytes = new ByteArrayOutputStream();
+		DataOutputStream candidateData = new DataOutputStream(candidateBytes);
+		adaptor.getDatabase().storeResolverCandidates(candidateData);
+
+		// reload into a new container
+		adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, new DummyResolverHookFactory(), new DummyDebugOptions(debugOpts));
+		container = adaptor.getContainer();
+		adaptor.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		adaptor.getDatabase().loadResolverCandidates(new DataInputStream(new ByteArrayInputStream(candidateBytes.toByteArray())));
+		xV1 = container.getModule("x.v1");
+		Module client = container.getModule("client");
+
+		// a higher version would normally be chosen when the client resolves again
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "x.v2");
+		manifest.put(Constants.EXPORT_PACKAGE, "x; version=2.0");
+		Module xV2 = installDummyModule(manifest, "x.v2", container);
+		container.resolve(Arrays.asList(xV2), true);
+
+		PrintStream originalOut = Debug.out;
+		ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+		PrintStream testOut = new PrintStream(bytesOut);
+		Debug.out = testOut;
+		try {
+			container.refresh(Arrays.asList(client));
+		} finally {
+			Debug.out = originalOut;
+			testOut.close();
+		}
+		Assert.assertEquals("client should resolve.", State.RESOLVED, client.getState());
+		List<ModuleWire> imports = client.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		Assert.assertEquals("Wrong number of imports.", 1, imports.size());
+		Assert.assertEquals("Wrong provider of x.", xV1.getCurrentRevision(), imports.get(0).getProvider());
+		String traceOutput = bytesOut.toString();
+		Assert.assertTrue("Wrong traceOutput: " + traceOutput, traceOutput.contains("Candidate cache hits: 1 misses: 0"));
+	}
+
+	@Test
+	public void testIncrementalResolve() throws BundleException {
+		Map<String, String> expected = doTestIncrementalResolve(false);
+		Map<String, String> actual = doTestIncrementalResolve(true);
+		Assert.assertEquals("Wrong incremental resolve results.", expected, actual);
+	}
+
+	private Map<String, String> doTestIncrementalResolve(boolean incremental) throws BundleException {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_RESOLVER_INCREMENTAL, Boolean.toString(incremental));
+		Map<String, String> debugOpts = Collections.emptyMap();
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, new DummyResolverHookFactory(), new DummyDebugOptions(debugOpts));
+		ModuleContainer container = adaptor.getContainer();
+		Map<String, String> results = new HashMap<String, String>();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "base");
+		manifest.put(Constants.EXPORT_PACKAGE, "base.a; version=1.0, base.b; version=1.0; uses:=base.a");
+		Module base = installDummyModule(manifest, "base", container);
+
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "lib");
+		manifest.put(Constants.REQUIRE_BUNDLE, "base; visibility:=reexport");
+		manifest.put(Constants.EXPORT_PACKAGE, "lib.c; uses:=base.b");
+		Module lib = installDummyModule(manifest, "lib", container);
+
+		container.resolve(null, false);
+		Assert.assertEquals("base should resolve.", State.RESOLVED, base.getState());
+		Assert.assertEquals("lib should resolve.", State.RESOLVED, lib.getState());
+
+		// the package spaces of base and lib are reused by the following resolves
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "other");
+		manifest.put(Constants.EXPORT_PACKAGE, "base.a; version=2.0");
+		installDummyModule(manifest, "other", container);
+
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "client");
+		manifest.put(Constants.REQUIRE_BUNDLE, "lib");
+		manifest.put(Constants.IMPORT_PACKAGE, "base.a");
+		Module client = installDummyModule(manifest, "client", container);
+
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "conflict");
+		manifest.put(Constants.IMPORT_PACKAGE, "lib.c, base.a; version=\"[2.0,3.0)\"");
+		Module conflict = installDummyModule(manifest, "conflict", container);
+
+		container.resolve(null, false);
+		Assert.assertEquals("client should resolve.", State.RESOLVED, client.getState());
+		Assert.assertEquals("conflict should not resolve.", State.INSTALLED, conflict.getState());
+		List<ModuleWire> clientImports = client.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		Assert.assertEquals("Wrong number of imports.", 1, clientImports.size());
+		Assert.assertEquals("Wrong provider of base.a.", base.getCurrentRevision(), clientImports.get(0).getProvider());
+		addIncrementalResolveResults("first", container, results);
+
+		// lib no longer reexports base; the package spaces of lib and client must be calculated again
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "lib");
+		manifest.put(Constants.REQUIRE_BUNDLE, "base");
+		manifest.put(Constants.EXPORT_PACKAGE, "lib.c; uses:=base.b");
+		container.update(lib, OSGiManifestBuilderFactory.createBuilder(manifest), null);
+		container.refresh(Arrays.asList(lib));
+		container.resolve(null, false);
+		addIncrementalResolveResults("second", container, results);
+		return results;
+	}
+
+	private void addIncrementalResolveResults(String prefix, ModuleContainer container, Map<String, String> results) {
+		for (Module module : container.getModules()) {
+			ModuleRevision revision = module.getCurrentRevision();
+			ModuleWiring wiring = revision.getWiring();
+			List<String> providers = new ArrayList<String>();
+			if (wiring != null) {
+				for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+					providers.add(wire.getCapability().getNamespace() + "=" + wire.getProvider().getSymbolicName());
+				}
+			}
+			Collections.sort(providers);
+			results.put(prefix + ":" + revision.getSymbolicName(), module.getState() + " " + providers);
+		}
+	}
+
+	@Test
+	public void testParallelUsesConflicts() throws BundleException {
+		Map<String, String> serialResults = new HashMap<String, String>();
+		doTestParallelUsesConflicts(null, serialResults);
+		Map<String, String> parallelResults = new HashMap<String, String>();
+		ForkJoinPool executor = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		try {
+			doTestParallelUsesConflicts(executor, parallelResults);
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals("Wrong parallel resolve results.", serialResults, parallelResults);
+	}
+
+	private void doTestParallelUsesConflicts(Executor executor, Map<String, String> results) throws BundleException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		if (executor != null) {
+			adaptor.setResolverExecutor(executor);
+		}
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p.v1");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=1.0");
+		installDummyModule(manifest, "p.v1", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p.v2");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=2.0");
+		installDummyModule(manifest, "p.v2", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "q");
+		manifest.put(Constants.EXPORT_PACKAGE, "q; uses:=p");
+		manifest.put(Constants.IMPORT_PACKAGE, "p; version=\"[1.0,2.0)\"");
+		installDummyModule(manifest, "q", container);
+
+		// the highest version of p conflicts with the uses constraint of q
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "client");
+		manifest.put(Constants.IMPORT_PACKAGE, "p, q");
+		Module client = installDummyModule(manifest, "client", container);
+
+		// the only version of p always conflicts with the uses constraint of q
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "conflict");
+		manifest.put(Constants.IMPORT_PACKAGE, "p; version=\"[2.0,3.0)\", q");
+		Module conflict = installDummyModule(manifest, "conflict", container);
+
+		for (int i = 0; i < 5; i++) {
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "user" + i);
+			manifest.put(Constants.EXPORT_PACKAGE, "user" + i + "; uses:=q");
+			manifest.put(Constants.IMPORT_PACKAGE, "p, q");
+			installDummyModule(manifest, "user" + i, container);
+		}
+
+		container.resolve(null, false);
+		Assert.assertEquals("Wrong state of client.", State.RESOLVED, client.getState());
+		Assert.assertEquals("Wrong state of conflict.", State.INSTALLED, conflict.getState());
+		addIncrementalResolveResults("", container, results);
+	}
+
+	@Test
+	public void testDynamicImportCache() throws BundleException {
+		Map<String, String> expected = doTestDynamicImportCache(false);
+		Map<String, String> actual = doTestDynamicImportCache(true);
+		Assert.assertEquals("Wrong dynamic import results.", expected, actual);
+	}
+
+	private Map<String, String> doTestDynamicImportCache(boolean cache) throws BundleException {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_RESOLVER_DYNAMIC_CACHE, Boolean.toString(cache));
+		Map<String, String> debugOpts = Collections.emptyMap();
+		// hide free version 2.0 from the filtered importer
+		ResolverHook hook = new DummyResolverHook() {
+			@Override
+			public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+				if ("filtered".equals(requirement.getRevision().getSymbolicName())) {
+					for (Iterator<BundleCapability> iCandidates = candidates.iterator(); iCandidates.hasNext();) {
+						if ("free.v2".equals(iCandidates.next().getRevision().getSymbolicName())) {
+							iCandidates.remove();
+						}
+					}
+				}
+			}
+		};
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, new DummyResolverHookFactory(hook), new DummyDebugOptions(debugOpts));
+		ModuleContainer container = adaptor.getContainer();
+		Map<String, String> results = new HashMap<String, String>();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "free.v1");
+		manifest.put(Constants.EXPORT_PACKAGE, "free; version=1.0");
+		installDummyModule(manifest, "free.v1", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "free.v2");
+		manifest.put(Constants.EXPORT_PACKAGE, "free; version=2.0");
+		installDummyModule(manifest, "free.v2", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p.v1");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=1.0");
+		installDummyModule(manifest, "p.v1", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p.v2");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=2.0");
+		installDummyModule(manifest, "p.v2", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "q");
+		manifest.put(Constants.EXPORT_PACKAGE, "q; uses:=p");
+		manifest.put(Constants.IMPORT_PACKAGE, "p; version=\"[1.0,2.0)\"");
+		installDummyModule(manifest, "q", container);
+
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.remove(Constants.IMPORT_PACKAGE);
+		manifest.put(Constants.DYNAMICIMPORT_PACKAGE, "*");
+		List<Module> importers = new ArrayList<Module>();
+		for (int i = 0; i < 10; i++) {
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "importer" + i);
+			importers.add(installDummyModule(manifest, "importer" + i, container));
+		}
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "filtered");
+		Module filtered = installDummyModule(manifest, "filtered", container);
+		// q uses p so p must be consistent with the uses constraint of q
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "uses");
+		manifest.put(Constants.IMPORT_PACKAGE, "q");
+		Module uses = installDummyModule(manifest, "uses", container);
+		container.resolve(null, false);
+
+		for (Module importer : importers) {
+			addDynamicImportResult(container, importer, "free", results);
+			addDynamicImportResult(container, importer, "p", results);
+			addDynamicImportResult(container, importer, "q", results);
+			addDynamicImportResult(container, importer, "does.not.exist", results);
+		}
+		addDynamicImportResult(container, filtered, "free", results);
+		addDynamicImportResult(container, uses, "p", results);
+		addDynamicImportResult(container, uses, "free", results);
+
+		// a new provider of free must be found by new dynamic imports
+		manifest.clear();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "free.v3");
+		manifest.put(Constants.EXPORT_PACKAGE, "free; version=3.0");
+		installDummyModule(manifest, "free.v3", container);
+		container.resolve(null, false);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "late");
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.DYNAMICIMPORT_PACKAGE, "*");
+		Module late = installDummyModule(manifest, "late", container);
+		container.resolve(null, false);
+		addDynamicImportResult(container, late, "free", results);
+
+		addIncrementalResolveResults("", container, results);
+		return results;
+	}
+
+	private void addDynamicImportResult(ModuleContainer container, Module importer, String packageName, Map<String, String> results) {
+		ModuleWire wire = container.resolveDynamic(packageName, importer.getCurrentRevision());
+		results.put(importer.getCurrentRevision().getSymbolicName() + ":" + packageName, wire == null ? null : wire.getProvider().getSymbolicName() + " " + wire.getCapability().getAttributes());
+	}
+
+	@Test
+	public void testDynamicImportCacheHookFailure() throws BundleException {
+		final AtomicReference<String> fail = new AtomicReference<String>();
+		final AtomicInteger begins = new AtomicInteger();
+		final AtomicInteger filterMatches = new AtomicInteger();
+		ResolverHookFactory resolverHookFactory = new ResolverHookFactory() {
+
+			@Override
+			public ResolverHook begin(Collection<BundleRevision> triggers) {
+				begins.incrementAndGet();
+				if ("begin".equals(fail.get())) {
+					throw new RuntimeException(new BundleException("Rejected.", BundleException.REJECTED_BY_HOOK));
+				}
+				return new DummyResolverHook() {
+					@Override
+					public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+						filterMatches.incrementAndGet();
+						if ("filterMatches".equals(fail.get())) {
+							throw new IllegalStateException("Failed.");
+						}
+					}
+				};
+			}
+		};
+		Map<String, String> configuration = Collections.singletonMap(EquinoxConfiguration.PROP_RESOLVER_DYNAMIC_CACHE, "true");
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration, resolverHookFactory, new DummyDebugOptions(Collections.<String, String> emptyMap()));
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "exporter");
+		manifest.put(Constants.EXPORT_PACKAGE, "p1, p2");
+		installDummyModule(manifest, "exporter", container);
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "importer");
+		manifest.put(Constants.DYNAMICIMPORT_PACKAGE, "*");
+		Module importer = installDummyModule(manifest, "importer", container);
+		container.resolve(null, false);
+
+		// a rejected resolve fails without starting a resolve process
+		fail.set("begin");
+		begins.set(0);
+		Assert.assertNull("Found a wire.", container.resolveDynamic("p1", importer.getCurrentRevision()));
+		Assert.assertEquals("Wrong number of begin calls.", 1, begins.get());
+
+		// a failing hook is not called again by a resolve process
+		fail.set("filterMatches");
+		filterMatches.set(0);
+		try {
+			container.resolveDynamic("p2", importer.getCurrentRevision());
+			Assert.fail("Expected the hook failure.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals("Wrong number of filterMatches calls.", 1, filterMatches.get());
+
+		fail.set(null);
+		Assert.assertNotNull("No wire found.", container.resolveDynamic("p2", importer.getCurrentRevision()));
+	}
+
+	@Test
+	public void testMandatoryAttributes() throws BundleException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "exporter");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; mandatory:=\"a,b\"; a=1; b=2, q; mandatory:=\" a , b \"; a=1; b=2");
+		Module exporter = installDummyModule(manifest, "exporter", container);
+
+		Map<String, Boolean> expected = new LinkedHashMap<String, Boolean>();
+		expected.put("(&(osgi.wiring.package=p)(a=1)(b=2))", Boolean.TRUE);
+		expected.put("(&(osgi.wiring.package=p)(a=1))", Boolean.FALSE);
+		expected.put("(osgi.wiring.package=p)", Boolean.FALSE);
+		expected.put("(&(osgi.wiring.package=p)(|(a=1)(b=2)))", Boolean.TRUE);
+		expected.put("(&(osgi.wiring.package=p)(|(a=1)(c=2)))", Boolean.FALSE);
+		expected.put("(&(osgi.wiring.package=p)(a=1)(!(b=3)))", Boolean.TRUE);
+		expected.put("(&(osgi.wiring.package=p)(a=*)(b>=2))", Boolean.TRUE);
+		expected.put("(&(osgi.wiring.package=p)(a~=1)(b=2))", Boolean.FALSE);
+		expected.put("(&(osgi.wiring.package=q)(a=1)(b=2))", Boolean.TRUE);
+		expected.put("(&(osgi.wiring.package=q)(b=2))", Boolean.FALSE);
+
+		Map<String, Module> importers = new HashMap<String, Module>();
+		int i = 0;
+		for (String filter : expected.keySet()) {
+			ModuleRevisionBuilder builder = new ModuleRevisionBuilder();
+			builder.setSymbolicName("importer" + i);
+			builder.addRequirement(PackageNamespace.PACKAGE_NAMESPACE, Collections.singletonMap(Namespace.REQUIREMENT_FILTER_DIRECTIVE, filter), Collections.<String, Object> emptyMap());
+			importers.put(filter, container.install(null, "importer" + i++, builder, null));
+		}
+		container.resolve(null, false);
+
+		for (Map.Entry<String, Boolean> entry : expected.entrySet()) {
+			Module importer = importers.get(entry.getKey());
+			if (entry.getValue().booleanValue()) {
+				Assert.assertEquals("Wrong state for " + entry.getKey(), State.RESOLVED, importer.getState());
+				List<ModuleWire> wires = importer.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+				Assert.assertEquals("Wrong number of wires for " + entry.getKey(), 1, wires.size());
+				Assert.assertEquals("Wrong provider for " + entry.getKey(), exporter.getCurrentRevision(), wires.get(0).getProvider());
+			} else {
+				Assert.assertEquals("Wrong state for " + entry.getKey(), State.INSTALLED, importer.getState());
+			}
+		}
+	}
+
+	@Test
+	public void testLoadUnindexedCapabilities() throws BundleException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "a");
+		manifest.put(Constants.EXPORT_PACKAGE, "a");
+		installDummyModule(manifest, "a", container);
+
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "b");
+		manifest.put(Constants.EXPORT_PACKAGE, "b");
+		manifest.put(Constants.IMPORT_PACKAGE, "a");
+		installDummyModule(manifest, "b", container);
+
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "dynamic");
+		manifest.put(Constants.IMPORT_PACKAGE, "a");
+		manifest.put(Constants.DYNAMICIMPORT_PACKAGE, "b");
+		installDummyModule(manifest, "dynamic", container);
+		container.resolve(null, false);
+
+		// c is stored unresolved
+		manifest.remove(Constants.DYNAMICIMPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "c");
+		manifest.put(Constants.IMPORT_PACKAGE, "a, b");
+		installDummyModule(manifest, "c", container);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			adaptor.getDatabase().store(new DataOutputStream(bytes), true);
+		} catch (IOException e) {
+			fail("Failed to store database: " + e);
+		}
+
+		// each operation on a newly loaded database must see the loaded capabilities
+		for (int operation = 0; operation < 4; operation++) {
+			adaptor = createDummyAdaptor();
+			container = adaptor.getContainer();
+			try {
+				adaptor.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			} catch (IOException e) {
+				fail("Failed to load database: " + e);
+			}
+			Module a = container.getModule("a");
+			Module b = container.getModule("b");
+			Module c = container.getModule("c");
+			Module dynamic = container.getModule("dynamic");
+			switch (operation) {
+				case 0 :
+					// resolve a loaded module
+					container.resolve(Arrays.asList(c), true);
+					Assert.assertEquals("Wrong state of c.", State.RESOLVED, c.getState());
+					Assert.assertEquals("Wrong number of wires.", 2, c.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE).size());
+					break;
+				case 1 :
+					// dynamically import from a loaded module
+					ModuleWire dynamicWire = container.resolveDynamic("b", dynamic.getCurrentRevision());
+					Assert.assertNotNull("No dynamic wire.", dynamicWire);
+					Assert.assertEquals("Wrong provider.", b.getCurrentRevision(), dynamicWire.getProvider());
+					break;
+				case 2 :
+					// install a new module before anything is looked up
+					manifest.clear();
+					manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+					manifest.put(Constants.BUNDLE_SYMBOLICNAME, "d");
+					manifest.put(Constants.IMPORT_PACKAGE, "a, b");
+					Module d = installDummyModule(manifest, "d", container);
+					container.resolve(Arrays.asList(d, c), true);
+					Assert.assertEquals("Wrong state of d.", State.RESOLVED, d.getState());
+					Assert.assertEquals("Wrong state of c.", State.RESOLVED, c.getState());
+					break;
+				case 3 :
+					// uninstall a loaded module before anything is looked up
+					container.uninstall(b);
+					container.refresh(Arrays.asList(b));
+					container.resolve(Arrays.asList(c), false);
+					Assert.assertEquals("Wrong state of c.", State.INSTALLED, c.getState());
+					Assert.assertEquals("Wrong state of a.", State.RESOLVED, a.getState());
+					break;
+			}
+		}
+	}
+
+	@Test
+	public void testStoreSettingsChanges() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		DummyModuleDatabase database = adaptor.getDatabase();
+
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+		systemBundle.start();
+
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "a");
+		Module a = installDummyModule(manifest, "a", container);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "b");
+		Module b = installDummyModule(manifest, "b", container);
+		container.resolve(Arrays.asList(a, b), true);
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		database.store(new DataOutputStream(snapshot), true);
+		// the snapshot has been saved
+		database.clearSettingsChanges();
+
+		container.getFrameworkStartLevel().setInitialBundleStartLevel(3);
+		a.setStartLevel(5);
+		b.start();
+
+		// storing the database does not clear the settings changes; the snapshot may never be saved
+		database.store(new DataOutputStream(new ByteArrayOutputStream()), true);
+		ByteArrayOutputStream changes = new ByteArrayOutputStream();
+		database.storeSettingsChanges(new DataOutputStream(changes));
+
+		DummyContainerAdaptor loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())));
+		Assert.assertEquals("Wrong start level.", 1, loaded.getContainer().getModule("a").getStartLevel());
+		Assert.assertFalse("Persistently started.", loaded.getContainer().getModule("b").isPersistentlyStarted());
+		loaded.getDatabase().loadSettingsChanges(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+		Assert.assertEquals("Wrong initial start level.", 3, loaded.getContainer().getFrameworkStartLevel().getInitialBundleStartLevel());
+		Assert.assertEquals("Wrong start level.", 5, loaded.getContainer().getModule("a").getStartLevel());
+		Assert.assertTrue("Not persistently started.", loaded.getContainer().getModule("b").isPersistentlyStarted());
+
+		// cleared settings changes are not stored again
+		database.clearSettingsChanges();
+		changes.reset();
+		database.storeSettingsChanges(new DataOutputStream(changes));
+		loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())));
+		loaded.getDatabase().loadSettingsChanges(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+		Assert.assertEquals("Wrong initial start level.", 3, loaded.getContainer().getFrameworkStartLevel().getInitialBundleStartLevel());
+		Assert.assertEquals("Wrong start level.", 1, loaded.getContainer().getModule("a").getStartLevel());
+		Assert.assertFalse("Persistently started.", loaded.getContainer().getModule("b").isPersistentlyStarted());
+
+		// settings changes of different revisions cannot be loaded
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "c");
+		installDummyModule(manifest, "c", container);
+		changes.reset();
+		database.storeSettingsChanges(new DataOutputStream(changes));
+		loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(snapshot.toByteArray())));
+		try {
+			loaded.getDatabase().loadSettingsChanges(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+			Assert.fail("Loaded settings changes of different revisions.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testParallelStartLevelWaves() throws BundleException, IOException {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_THREAD_COUNT, "4");
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration);
+		ModuleContainer container = adaptor.getContainer();
+		DummyModuleDatabase database = adaptor.getDatabase();
+
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+		systemBundle.start();
+		container.getFrameworkStartLevel().setInitialBundleStartLevel(2);
+
+		// c requires b requires a; d and slow are independent; fail fails to start
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "a");
+		manifest.put(Constants.EXPORT_PACKAGE, "a");
+		Module a = installDummyModule(manifest, "a", container);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "b");
+		manifest.put(Constants.EXPORT_PACKAGE, "b");
+		manifest.put(Constants.IMPORT_PACKAGE, "a");
+		Module b = installDummyModule(manifest, "b", container);
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "c");
+		manifest.put(Constants.IMPORT_PACKAGE, "b");
+		Module c = installDummyModule(manifest, "c", container);
+		manifest.remove(Constants.IMPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "d");
+		Module d = installDummyModule(manifest, "d", container);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "slow");
+		Module slow = installDummyModule(manifest, "slow", container);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "fail");
+		Module fail = installDummyModule(manifest, "fail", container);
+		container.resolve(null, false);
+		List<Module> modules = Arrays.asList(a, b, c, d, slow, fail);
+		for (Module module : modules) {
+			module.start();
+		}
+
+		final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+		final BundleException failure = new BundleException("Failed to start.");
+		adaptor.setModuleWorker(new ModuleWorker() {
+			@Override
+			public void start(Module module) throws BundleException {
+				String name = module.getCurrentRevision().getSymbolicName();
+				try {
+					// give dependent modules a chance to start too early
+					Thread.sleep("slow".equals(name) ? 500 : 50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				started.add(name);
+				if ("fail".equals(name)) {
+					throw failure;
+				}
+			}
+
+			@Override
+			public void stop(Module module) {
+				// nothing
+			}
+		});
+		database.getContainerEvents();
+		container.getFrameworkStartLevel().setStartLevel(2);
+
+		List<DummyContainerEvent> events = database.getContainerEvents(2);
+		Assert.assertEquals("Wrong container events.", Arrays.asList(new DummyContainerEvent(ContainerEvent.ERROR, fail, failure), new DummyContainerEvent(ContainerEvent.START_LEVEL, systemBundle, null)), events);
+		Assert.assertEquals("Wrong start error.", failure, events.get(0).error.getCause() == null ? events.get(0).error : events.get(0).error.getCause());
+		// the start level event is only fired once all the waves are done
+		Assert.assertEquals("Wrong number of started modules.", modules.size(), started.size());
+		Assert.assertTrue("a started after b: " + started, started.indexOf("a") < started.indexOf("b"));
+		Assert.assertTrue("b started after c: " + started, started.indexOf("b") < started.indexOf("c"));
+		for (Module module : modules) {
+			Assert.assertEquals("Wrong state of " + module, module == fail ? State.RESOLVED : State.ACTIVE, module.getState());
+		}
+	}
+
+	@Test
+	public void testParallelStopTimeout() throws BundleException, IOException {
+		Map<String, String> configuration = new HashMap<String, String>();
+		configuration.put(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_THREAD_COUNT, "2");
+		configuration.put(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_STOP_TIMEOUT, "1");
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration);
+		ModuleContainer container = adaptor.getContainer();
+		DummyModuleDatabase database = adaptor.getDatabase();
+
+		Module systemBundle = installDummyModule("system.bundle.MF", Constants.SYSTEM_BUNDLE_LOCATION, Constants.SYSTEM_BUNDLE_SYMBOLICNAME, null, null, container);
+		container.resolve(Arrays.asList(systemBundle), true);
+		systemBundle.start();
+		container.getFrameworkStartLevel().setInitialBundleStartLevel(2);
+
+		List<Module> modules = new ArrayList<Module>();
+		Map<String, String> manifest = new HashMap<String, String>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		for (int i = 0; i < 4; i++) {
+			manifest.put(Constants.BUNDLE_SYMBOLICNAME, "module" + i);
+			modules.add(installDummyModule(manifest, "module" + i, container));
+		}
+		container.resolve(null, false);
+		for (Module module : modules) {
+			module.start();
+		}
+		database.getContainerEvents();
+		container.getFrameworkStartLevel().setStartLevel(2);
+		database.getContainerEvents(1);
+		for (Module module : modules) {
+			Assert.assertEquals("Wrong state of " + module, State.ACTIVE, module.getState());
+		}
+
+		// the first modules to stop block every thread of the executor
+		final CountDownLatch blockedThreads = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Set<Module> blocked = Collections.synchronizedSet(new HashSet<Module>());
+		adaptor.setModuleWorker(new ModuleWorker() {
+			@Override
+			public void start(Module module) {
+				// nothing
+			}
+
+			@Override
+			public void stop(Module module) {
+				if (Thread.currentThread().getName().startsWith("Start Level Worker") && blockedThreads.getCount() > 0) {
+					blocked.add(module);
+					blockedThreads.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		});
+		try {
+			container.getFrameworkStartLevel().setStartLevel(1);
+			List<DummyContainerEvent> events = database.getContainerEvents(3);
+			Assert.assertEquals("Wrong number of events: " + events, 3, events.size());
+			Assert.assertEquals("Wrong blocked modules.", 2, blocked.size());
+			for (int i = 0; i < 2; i++) {
+				Assert.assertEquals("Wrong event type.", ContainerEvent.WARNING, events.get(i).type);
+				Assert.assertTrue("Wrong module: " + events.get(i).module, blocked.contains(events.get(i).module));
+			}
+			Assert.assertEquals("Wrong event type.", ContainerEvent.START_LEVEL, events.get(2).type);
+			// the queued modules are stopped even though the threads are blocked
+			for (Module module : modules) {
+				if (!blocked.contains(module)) {
+					Assert.assertEquals("Wrong state of " + module, State.RESOLVED, module.getState());
+				}
+			}
+		} finally {
+			release.countDown();
+		}
+	}
+
 	// DISABLE see bug 498064 @Test
 	public void testUsesTimeout() throws BundleException {
 		// Always want to go to zero threads when idle
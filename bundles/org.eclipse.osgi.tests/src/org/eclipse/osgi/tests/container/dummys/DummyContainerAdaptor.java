@@ -13,7 +13,11 @@ package org.eclipse.osgi.tests.container.dummys;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.Module.Settings;
@@ -21,13 +25,24 @@ import org.eclipse.osgi.container.ModuleCollisionHook;
 import org.eclipse.osgi.container.ModuleContainer;
 import org.eclipse.osgi.container.ModuleContainerAdaptor;
 import org.eclipse.osgi.container.SystemModule;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase.DummyContainerEvent;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase.DummyModuleEvent;
+import org.osgi.framework.BundleException;
 import org.osgi.framework.FrameworkListener;
 import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 
 public class DummyContainerAdaptor extends ModuleContainerAdaptor {
+	/**
+	 * Does the work of starting and stopping modules.
+	 */
+	public interface ModuleWorker {
+		void start(Module module) throws BundleException;
+
+		void stop(Module module) throws BundleException;
+	}
+
 	private AtomicBoolean slowdownEvents = new AtomicBoolean(false);
 	private final ModuleCollisionHook collisionHook;
 	private final Map<String, String> configuration;
@@ -37,6 +52,8 @@ public class DummyContainerAdaptor extends ModuleContainerAdaptor {
 	private final DebugOptions debugOptions;
 	private volatile Executor resolverExecutor;
 	private volatile ScheduledExecutorService timeoutExecutor;
+	private volatile ModuleWorker moduleWorker;
+	private Executor startLevelExecutor;
 
 	public DummyContainerAdaptor(ModuleCollisionHook collisionHook, Map<String, String> configuration) {
 		this(collisionHook, configuration, new DummyResolverHookFactory());
@@ -78,7 +95,7 @@ public class DummyContainerAdaptor extends ModuleContainerAdaptor {
 
 	@Override
 	public Module createModule(String location, long id, EnumSet<Settings> settings, int startlevel) {
-		return new DummyModule(id, location, container, settings, startlevel);
+		return new DummyModule(id, location, container, settings, startlevel, this);
 	}
 
 	@Override
@@ -138,4 +155,34 @@ public class DummyContainerAdaptor extends ModuleContainerAdaptor {
 		return this.timeoutExecutor;
 	}
 
+	@Override
+	public synchronized Executor getStartLevelExecutor() {
+		String threadCount = configuration.get(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_THREAD_COUNT);
+		if (threadCount == null || Integer.parseInt(threadCount) == 1) {
+			return super.getStartLevelExecutor();
+		}
+		if (startLevelExecutor == null) {
+			int maxThreads = Integer.parseInt(threadCount);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Start Level Worker - UNIT TEST");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+			startLevelExecutor = executor;
+		}
+		return startLevelExecutor;
+	}
+
+	public void setModuleWorker(ModuleWorker moduleWorker) {
+		this.moduleWorker = moduleWorker;
+	}
+
+	public ModuleWorker getModuleWorker() {
+		return moduleWorker;
+	}
+
 }
@@ -14,12 +14,20 @@ import java.util.EnumSet;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleContainer;
 import org.eclipse.osgi.container.ModuleRevision;
+import org.eclipse.osgi.tests.container.dummys.DummyContainerAdaptor.ModuleWorker;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
 
 public class DummyModule extends Module {
+	private final DummyContainerAdaptor adaptor;
 
 	public DummyModule(Long id, String location, ModuleContainer container, EnumSet<Settings> settings, int startlevel) {
+		this(id, location, container, settings, startlevel, null);
+	}
+
+	public DummyModule(Long id, String location, ModuleContainer container, EnumSet<Settings> settings, int startlevel, DummyContainerAdaptor adaptor) {
 		super(id, location, container, settings, startlevel);
+		this.adaptor = adaptor;
 	}
 
 	@Override
@@ -27,6 +35,22 @@ public class DummyModule extends Module {
 		return null;
 	}
 
+	@Override
+	protected void startWorker() throws BundleException {
+		ModuleWorker worker = adaptor == null ? null : adaptor.getModuleWorker();
+		if (worker != null) {
+			worker.start(this);
+		}
+	}
+
+	@Override
+	protected void stopWorker() throws BundleException {
+		ModuleWorker worker = adaptor == null ? null : adaptor.getModuleWorker();
+		if (worker != null) {
+			worker.stop(this);
+		}
+	}
+
 	@Override
 	protected void cleanup(ModuleRevision revision) {
 		// Do nothing
@@ -345,6 +345,49 @@ public abstract class FilterTests extends TestCase {
 		assertFalse("does match filter", f1.match(new DictionaryServiceReference(hash)));
 	}
 
+	public void testMixedValueTypes() throws InvalidSyntaxException {
+		// the same filter must give consistent results when matched against values of different types
+		Filter f = createFilter("(value>=10)");
+		Object[] matching = new Object[] {new Integer(11), new Long(10), new Short((short) 12), new Byte((byte) 10), new Float(10.5), new Double(11.5), new Version("10.1"), new BigDecimal("10.01"), "9", new int[] {1, 20}};
+		Object[] notMatching = new Object[] {new Integer(9), new Long(-10), new Short((short) 2), new Byte((byte) 1), new Float(9.5), new Double(1.5), new Version("9.0"), new BigDecimal("9.99"), "1", new int[] {1, 2}};
+		for (int repeat = 0; repeat < 2; repeat++) {
+			for (int i = 0; i < matching.length; i++) {
+				Dictionary props = new Hashtable();
+				props.put("value", matching[i]);
+				assertTrue("does not match filter: " + matching[i], f.match(props));
+				props.put("value", notMatching[i]);
+				assertFalse("does match filter: " + notMatching[i], f.match(props));
+			}
+		}
+		Dictionary props = new Hashtable();
+		props.put("value", new Integer(10));
+		assertTrue("does not match filter", f.match(props));
+		f = createFilter("(value=b)");
+		assertFalse("does match filter", f.match(props));
+		props.put("value", new Long(10));
+		assertFalse("does match filter", f.match(props));
+		props.put("value", "b");
+		assertTrue("does not match filter", f.match(props));
+	}
+
+	public void testSharedFilterBundleTypes() throws InvalidSyntaxException {
+		// filters with the same string may be shared; values of bundle types must still be coerced correctly
+		Filter f1 = createFilter("(object=42)");
+		Filter f2 = createFilter("(object=42)");
+		assertEquals("Wrong filter", f1, f2);
+		Dictionary props = new Hashtable();
+		for (int repeat = 0; repeat < 2; repeat++) {
+			props.put("object", new SampleComparable("42"));
+			assertTrue("does not match filter", f1.match(props));
+			props.put("object", new SampleObject("42"));
+			assertTrue("does not match filter", f2.match(props));
+			props.put("object", new SampleComparable("43"));
+			assertFalse("does match filter", f2.match(props));
+			props.put("object", new SampleObject("43"));
+			assertFalse("does match filter", f1.match(props));
+		}
+	}
+
 	public void testNullValueMatch() throws InvalidSyntaxException {
 		Dictionary<String, Object> nullProps = new MapDictionary<String, Object>();
 		nullProps.put("test.null", null);
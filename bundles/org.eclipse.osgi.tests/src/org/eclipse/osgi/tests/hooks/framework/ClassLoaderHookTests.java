@@ -15,6 +15,7 @@ import java.net.URL;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.hookregistry.HookRegistry;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.*;
@@ -34,6 +35,7 @@ public class ClassLoaderHookTests extends AbstractFrameworkHookTests {
 	private static final String BAD_TRANSFORM_PROP = "classloader.hooks.a.bad.transform";
 	private static final String RECURSION_LOAD = "classloader.hooks.a.recursion.load";
 	private static final String RECURSION_LOAD_SUPPORTED = "classloader.hooks.a.recursion.load.supported";
+	private static final String PRE_FIND_CLASS = "classloader.hooks.a.pre.find.class";
 
 	private Map<String, String> configuration;
 	private Framework framework;
@@ -45,6 +47,7 @@ public class ClassLoaderHookTests extends AbstractFrameworkHookTests {
 		setBadTransform(false);
 		setRecursionLoad(false);
 		setRecursionLoadSupported(false);
+		System.getProperties().remove(PRE_FIND_CLASS);
 		String loc = bundleInstaller.getBundleLocation(HOOK_CONFIGURATOR_BUNDLE);
 		loc = loc.substring(loc.indexOf("file:"));
 		classLoader.addURL(new URL(loc));
@@ -149,6 +152,24 @@ public class ClassLoaderHookTests extends AbstractFrameworkHookTests {
 		b.loadClass(TEST_CLASSNAME);
 	}
 
+	public void testPreFindClassWithNegativeCache() throws Exception {
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, "256");
+		framework = createFramework(configuration);
+		initAndStartFramework();
+		Bundle b = installBundle();
+		for (int i = 0; i < 2; i++) {
+			try {
+				b.loadClass("substitutes.x.Missing");
+				fail("Expected a ClassNotFoundException.");
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+		}
+		// the missing class is cached but the hook must still be called
+		System.setProperty(PRE_FIND_CLASS, "substitutes.x.Missing");
+		assertEquals("Wrong class.", "org.eclipse.osgi.tests.classloader.hooks.a.TestHookConfigurator", b.loadClass("substitutes.x.Missing").getName());
+	}
+
 	private void refreshBundles(Collection<Bundle> bundles) throws InterruptedException {
 		final CountDownLatch refreshSignal = new CountDownLatch(1);
 		framework.adapt(FrameworkWiring.class).refreshBundles(bundles, new FrameworkListener() {
@@ -28,6 +28,10 @@ public class AllTests extends TestSuite {
 		TestSuite suite = new TestSuite(AllTests.class.getName());
 		suite.addTest(StatePerformanceTest.suite());
 		suite.addTest(StateUsesPerformanceTest.suite());
+		suite.addTest(AttributeMapMemoryTest.suite());
+		suite.addTest(ClassLoadingContentionTest.suite());
+		suite.addTest(ZipBundleFileReaderTest.suite());
+		suite.addTest(ResolverAllocationTest.suite());
 		return suite;
 	}
 }
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.osgi.container.ModuleRevisionBuilder;
+import org.eclipse.osgi.container.ModuleRevisionBuilder.GenericInfo;
+import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
+import org.eclipse.osgi.tests.OSGiTest;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures the heap retained by the attributes and directives of the
+ * capabilities and requirements of many revision builders which mostly
+ * import and require the same things.  The builders share equal maps, which
+ * is compared with a separate HashMap for each capability and requirement.
+ */
+public class AttributeMapMemoryTest extends OSGiTest {
+	private static final int NUM_SHARED_PACKAGES = 50;
+
+	public static Test suite() {
+		return new TestSuite(AttributeMapMemoryTest.class);
+	}
+
+	public AttributeMapMemoryTest(String name) {
+		super(name);
+	}
+
+	public void testBuilderHeap01000() throws BundleException {
+		doTestBuilderHeap(1000);
+	}
+
+	public void testBuilderHeap03000() throws BundleException {
+		doTestBuilderHeap(3000);
+	}
+
+	private void doTestBuilderHeap(int numBundles) throws BundleException {
+		long before = usedHeap();
+		List<ModuleRevisionBuilder> builders = new ArrayList<>(numBundles);
+		for (int i = 0; i < numBundles; i++) {
+			builders.add(OSGiManifestBuilderFactory.createBuilder(getManifest(i)));
+		}
+		long retainedBuilders = usedHeap() - before;
+
+		Set<Map<String, ?>> equalMaps = new HashSet<>();
+		Set<Map<String, ?>> identityMaps = Collections.newSetFromMap(new IdentityHashMap<Map<String, ?>, Boolean>());
+		int totalMaps = 0;
+		for (ModuleRevisionBuilder builder : builders) {
+			List<GenericInfo> infos = new ArrayList<>(builder.getCapabilities());
+			infos.addAll(builder.getRequirements());
+			for (GenericInfo info : infos) {
+				equalMaps.add(info.getAttributes());
+				equalMaps.add(info.getDirectives());
+				identityMaps.add(info.getAttributes());
+				identityMaps.add(info.getDirectives());
+				totalMaps += 2;
+			}
+		}
+		assertTrue("No equal maps.", equalMaps.size() < totalMaps); //$NON-NLS-1$
+		assertEquals("Equal maps are not shared.", equalMaps.size(), identityMaps.size()); //$NON-NLS-1$
+
+		// the baseline copies each map into a HashMap like the builders did before the maps were shared
+		before = usedHeap();
+		List<Map<String, ?>> hashMaps = new ArrayList<>(totalMaps);
+		for (ModuleRevisionBuilder builder : builders) {
+			List<GenericInfo> infos = new ArrayList<>(builder.getCapabilities());
+			infos.addAll(builder.getRequirements());
+			for (GenericInfo info : infos) {
+				hashMaps.add(new HashMap<>(info.getAttributes()));
+				hashMaps.add(new HashMap<>(info.getDirectives()));
+			}
+		}
+		long retainedHashMaps = usedHeap() - before;
+		// keep the builders and the baseline maps reachable until after the measurement
+		assertEquals(numBundles, builders.size());
+		assertEquals(totalMaps, hashMaps.size());
+		// the whole builders must retain less than their maps alone would as HashMaps
+		assertTrue("Builders retain " + retainedBuilders + " bytes; the HashMaps retain " + retainedHashMaps + " bytes.", retainedBuilders < retainedHashMaps); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private static Map<String, String> getManifest(int index) {
+		Map<String, String> manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "bundle" + index); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_VERSION, "1.0.0"); //$NON-NLS-1$
+		StringBuilder imports = new StringBuilder();
+		for (int i = 0; i < NUM_SHARED_PACKAGES; i++) {
+			if (i > 0) {
+				imports.append(',');
+			}
+			imports.append("shared.package").append(i).append(";version=\"[1.0,2.0)\""); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		manifest.put(Constants.IMPORT_PACKAGE, imports.toString());
+		manifest.put(Constants.REQUIRE_CAPABILITY, "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=1.8))\""); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "bundle" + index + ".api;version=\"1.0\""); //$NON-NLS-1$ //$NON-NLS-2$
+		return manifest;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
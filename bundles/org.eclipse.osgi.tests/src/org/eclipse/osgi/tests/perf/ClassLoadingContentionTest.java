@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.jar.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.launch.Equinox;
+import org.eclipse.osgi.tests.OSGiTest;
+import org.osgi.framework.*;
+
+/**
+ * Measures many threads loading the same classes from one bundle with a
+ * parallel capable class loader.  Each thread loads every class of the
+ * bundle in a different order so that threads often contend for the
+ * same class name.
+ */
+public class ClassLoadingContentionTest extends OSGiTest {
+	private static final int NUM_CLASSES = 2000;
+	private static final int NUM_RUNS = 10;
+	private static final String PACKAGE = "contention.test"; //$NON-NLS-1$
+
+	public static Test suite() {
+		return new TestSuite(ClassLoadingContentionTest.class);
+	}
+
+	public ClassLoadingContentionTest(String name) {
+		super(name);
+	}
+
+	public void testClassLoadingContention08() throws Exception {
+		doTestClassLoadingContention(8);
+	}
+
+	public void testClassLoadingContention64() throws Exception {
+		doTestClassLoadingContention(64);
+	}
+
+	private void doTestClassLoadingContention(final int numThreads) throws Exception {
+		File config = getContext().getDataFile(getName());
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_TYPE, EquinoxConfiguration.CLASS_LOADER_TYPE_PARALLEL);
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			// each run needs a class loader which has not loaded any classes yet
+			final Bundle[] bundles = new Bundle[NUM_RUNS];
+			for (int i = 0; i < NUM_RUNS; i++) {
+				File jar = createBundle(new File(config, "bundles"), "contention" + i); //$NON-NLS-1$ //$NON-NLS-2$
+				bundles[i] = equinox.getBundleContext().installBundle(jar.toURI().toString());
+				bundles[i].start();
+			}
+			final int[] run = new int[1];
+			new PerformanceTestRunner() {
+				protected void test() {
+					loadAllClasses(bundles[run[0]++], numThreads);
+				}
+			}.run(this, NUM_RUNS, 1);
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	static void loadAllClasses(final Bundle bundle, int numThreads) {
+		final CountDownLatch startGate = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			final List<String> names = new ArrayList<>(NUM_CLASSES);
+			for (int j = 0; j < NUM_CLASSES; j++) {
+				names.add(getClassName(j));
+			}
+			Collections.shuffle(names, new Random(i));
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						startGate.await();
+						for (String name : names) {
+							bundle.loadClass(name);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			}, "Class loading contention " + i); //$NON-NLS-1$
+			threads[i].start();
+		}
+		startGate.countDown();
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail("Interrupted waiting for class loading threads.", e); //$NON-NLS-1$
+			}
+		}
+		if (failure.get() != null) {
+			fail("Failed to load class.", failure.get()); //$NON-NLS-1$
+		}
+	}
+
+	private static String getClassName(int index) {
+		return PACKAGE + ".Class" + index; //$NON-NLS-1$
+	}
+
+	private static File createBundle(File dir, String bsn) throws IOException {
+		dir.mkdirs();
+		File result = new File(dir, bsn + ".jar"); //$NON-NLS-1$
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Manifest-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, bsn);
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(result), manifest);
+		try {
+			for (int i = 0; i < NUM_CLASSES; i++) {
+				String internalName = getClassName(i).replace('.', '/');
+				out.putNextEntry(new JarEntry(internalName + ".class")); //$NON-NLS-1$
+				out.write(createClassBytes(internalName));
+				out.closeEntry();
+			}
+		} finally {
+			out.close();
+		}
+		return result;
+	}
+
+	/*
+	 * Creates an empty public class which extends java.lang.Object.
+	 */
+	private static byte[] createClassBytes(String internalName) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0); // minor version
+		out.writeShort(49); // major version
+		out.writeShort(5); // constant pool count
+		out.writeByte(1); // #1 utf8
+		out.writeUTF(internalName);
+		out.writeByte(7); // #2 class
+		out.writeShort(1);
+		out.writeByte(1); // #3 utf8
+		out.writeUTF("java/lang/Object"); //$NON-NLS-1$
+		out.writeByte(7); // #4 class
+		out.writeShort(3);
+		out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+		out.writeShort(2); // this class
+		out.writeShort(4); // super class
+		out.writeShort(0); // interfaces
+		out.writeShort(0); // fields
+		out.writeShort(0); // methods
+		out.writeShort(0); // attributes
+		out.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.container.Module;
+import org.eclipse.osgi.container.ModuleContainer;
+import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
+import org.eclipse.osgi.tests.OSGiTest;
+import org.eclipse.osgi.tests.container.dummys.DummyCollisionHook;
+import org.eclipse.osgi.tests.container.dummys.DummyContainerAdaptor;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Measures the time and the heap allocated by resolving many bundles where
+ * some of the bundles have uses conflicts, so the resolver has to try
+ * several permutations of the candidates.  The resolver executor of the
+ * container runs the tasks on the resolving thread, so all the allocations
+ * of the resolve are made by the current thread.
+ */
+public class ResolverAllocationTest extends OSGiTest {
+	private static final int NUM_IMPORTS = 5;
+	/*
+	 * The permutations tried for each conflict copy only the changed candidates, so
+	 * each conflict must allocate less than half of what resolving the same bundles
+	 * without conflicts allocates.  Copying the whole candidate map for each
+	 * permutation allocates more than that for 3000 bundles.
+	 */
+	private static final double MAX_ALLOCATION_PER_CONFLICT = 0.5;
+
+	public static Test suite() {
+		return new TestSuite(ResolverAllocationTest.class);
+	}
+
+	public ResolverAllocationTest(String name) {
+		super(name);
+	}
+
+	public void testResolveAllocations01000() throws BundleException {
+		doTestResolveAllocations(1000, 5);
+	}
+
+	public void testResolveAllocations03000() throws BundleException {
+		doTestResolveAllocations(3000, 10);
+	}
+
+	private void doTestResolveAllocations(final int numBundles, final int numConflicts) throws BundleException {
+		final long[] allocated = new long[2];
+		new PerformanceTestRunner() {
+			protected void test() {
+				try {
+					allocated[0] += resolve(numBundles, numConflicts);
+					allocated[1]++;
+				} catch (BundleException e) {
+					fail("Failed to install bundle.", e); //$NON-NLS-1$
+				}
+			}
+		}.run(this, 5, 1);
+		long withoutConflicts = resolve(numBundles, 0);
+		if (allocated[0] < 0 || withoutConflicts < 0) {
+			// the allocations of the current thread cannot be measured
+			return;
+		}
+		long perConflict = (allocated[0] / allocated[1] - withoutConflicts) / numConflicts;
+		assertTrue("Too many bytes allocated per conflict: " + perConflict + " without conflicts: " + withoutConflicts, perConflict < MAX_ALLOCATION_PER_CONFLICT * withoutConflicts); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Resolves a new container.
+	 * @return the bytes allocated by the resolve or a negative value if the
+	 * allocations of the current thread cannot be measured
+	 */
+	static long resolve(int numBundles, int numConflicts) throws BundleException {
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), Collections.<String, String> emptyMap());
+		ModuleContainer container = adaptor.getContainer();
+		for (int i = 0; i < numBundles; i++) {
+			Map<String, String> manifest = getManifest("bundle" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "bundle" + i); //$NON-NLS-1$
+			StringBuilder imports = new StringBuilder();
+			for (int j = Math.max(0, i - NUM_IMPORTS); j < i; j++) {
+				if (imports.length() > 0) {
+					imports.append(',');
+				}
+				imports.append("bundle").append(j); //$NON-NLS-1$
+			}
+			if (imports.length() > 0) {
+				manifest.put(Constants.IMPORT_PACKAGE, imports.toString());
+			}
+			install(container, manifest);
+		}
+
+		// the highest version of p conflicts with the uses constraint of q
+		Map<String, String> manifest = getManifest("p.v1"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=1.0"); //$NON-NLS-1$
+		install(container, manifest);
+		manifest = getManifest("p.v2"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=2.0"); //$NON-NLS-1$
+		install(container, manifest);
+		manifest = getManifest("q"); //$NON-NLS-1$
+		manifest.put(Constants.EXPORT_PACKAGE, "q; uses:=p"); //$NON-NLS-1$
+		manifest.put(Constants.IMPORT_PACKAGE, "p; version=\"[1.0,2.0)\""); //$NON-NLS-1$
+		install(container, manifest);
+		for (int i = 0; i < numConflicts; i++) {
+			manifest = getManifest("conflict" + i); //$NON-NLS-1$
+			manifest.put(Constants.EXPORT_PACKAGE, "conflict" + i + "; uses:=q"); //$NON-NLS-1$ //$NON-NLS-2$
+			manifest.put(Constants.IMPORT_PACKAGE, "p, q, bundle" + i); //$NON-NLS-1$
+			install(container, manifest);
+		}
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		long before = getAllocatedBytes(threadBean);
+		container.resolve(null, false);
+		long after = getAllocatedBytes(threadBean);
+
+		for (Module module : container.getModules()) {
+			assertEquals("Wrong state: " + module, Module.State.RESOLVED, module.getState()); //$NON-NLS-1$
+		}
+		return before < 0 || after < 0 ? -1 : after - before;
+	}
+
+	private static long getAllocatedBytes(ThreadMXBean threadBean) {
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static Map<String, String> getManifest(String bsn) {
+		Map<String, String> manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, bsn);
+		return manifest;
+	}
+
+	private static void install(ModuleContainer container, Map<String, String> manifest) throws BundleException {
+		String bsn = manifest.get(Constants.BUNDLE_SYMBOLICNAME);
+		container.install(null, bsn, OSGiManifestBuilderFactory.createBuilder(manifest), null);
+	}
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.tests.perf;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.jar.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.launch.Equinox;
+import org.eclipse.osgi.tests.OSGiTest;
+import org.osgi.framework.*;
+
+/**
+ * Compares the ZipFile reader of a jar bundle with the memory mapped reader
+ * on a large bundle.  Each run lists the entries of the bundle, looks up
+ * existing and missing directories and reads the content of every entry.
+ * Half of the entries are STORED.
+ */
+public class ZipBundleFileReaderTest extends OSGiTest {
+	private static final int NUM_DIRECTORIES = 100;
+	private static final int NUM_ENTRIES = 200;
+	private static final int ENTRY_SIZE = 2048;
+
+	public static Test suite() {
+		return new TestSuite(ZipBundleFileReaderTest.class);
+	}
+
+	public ZipBundleFileReaderTest(String name) {
+		super(name);
+	}
+
+	public void testZipFileReader() throws Exception {
+		doTestReader(false);
+	}
+
+	public void testMappedReader() throws Exception {
+		doTestReader(true);
+	}
+
+	private void doTestReader(boolean mapped) throws Exception {
+		File config = getContext().getDataFile(getName());
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_ZIP_MAPPED_READER, Boolean.toString(mapped));
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		try {
+			File jar = createBundle(new File(config, "bundles"), "reader.test"); //$NON-NLS-1$ //$NON-NLS-2$
+			final Bundle bundle = equinox.getBundleContext().installBundle(jar.toURI().toString());
+			new PerformanceTestRunner() {
+				protected void test() {
+					readBundle(bundle);
+				}
+			}.run(this, 10, 5);
+		} finally {
+			equinox.stop();
+			equinox.waitForStop(10000);
+		}
+	}
+
+	static void readBundle(Bundle bundle) {
+		byte[] buffer = new byte[ENTRY_SIZE];
+		int numEntries = 0;
+		try {
+			for (Enumeration<URL> entries = bundle.findEntries("/", "*.txt", true); entries.hasMoreElements();) { //$NON-NLS-1$ //$NON-NLS-2$
+				InputStream in = entries.nextElement().openStream();
+				try {
+					while (in.read(buffer) != -1) {
+						// read all content
+					}
+				} finally {
+					in.close();
+				}
+				numEntries++;
+			}
+		} catch (IOException e) {
+			fail("Failed to read entry.", e); //$NON-NLS-1$
+		}
+		assertEquals("Wrong number of entries.", NUM_DIRECTORIES * NUM_ENTRIES, numEntries); //$NON-NLS-1$
+		for (int i = 0; i < NUM_DIRECTORIES; i++) {
+			assertNotNull("Missing directory.", bundle.getEntry("dir" + i + "/")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNull("Unexpected directory.", bundle.getEntry("missing" + i + "/")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+
+	private static File createBundle(File dir, String bsn) throws IOException {
+		dir.mkdirs();
+		File result = new File(dir, bsn + ".jar"); //$NON-NLS-1$
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.putValue("Manifest-Version", "1.0"); //$NON-NLS-1$ //$NON-NLS-2$
+		attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2"); //$NON-NLS-1$
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, bsn);
+		Random random = new Random(0);
+		byte[] content = new byte[ENTRY_SIZE];
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(result), manifest);
+		try {
+			// no directory entries so that directories are found from the entry names
+			for (int i = 0; i < NUM_DIRECTORIES; i++) {
+				for (int j = 0; j < NUM_ENTRIES; j++) {
+					random.nextBytes(content);
+					JarEntry entry = new JarEntry("dir" + i + "/sub" + (j % 10) + "/entry" + j + ".txt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+					if (j % 2 == 0) {
+						CRC32 crc = new CRC32();
+						crc.update(content);
+						entry.setMethod(ZipEntry.STORED);
+						entry.setSize(content.length);
+						entry.setCompressedSize(content.length);
+						entry.setCrc(crc.getValue());
+					}
+					out.putNextEntry(entry);
+					out.write(content);
+					out.closeEntry();
+				}
+			}
+		} finally {
+			out.close();
+		}
+		return result;
+	}
+}
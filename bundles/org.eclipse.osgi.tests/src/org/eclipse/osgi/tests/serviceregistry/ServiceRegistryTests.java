@@ -485,6 +485,126 @@ public class ServiceRegistryTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testModifiedRankingFiltered() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		Hashtable props = new Hashtable();
+		props.put(getName(), Boolean.TRUE);
+		props.put(Constants.SERVICE_RANKING, new Integer(15));
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props.put(Constants.SERVICE_RANKING, new Integer(10));
+		ServiceRegistration reg2 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		ServiceRegistration reg3 = null;
+		try {
+			String filter = "(" + getName() + "=true)"; //$NON-NLS-1$ //$NON-NLS-2$
+			ServiceReference[] refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 2, refs.length); //$NON-NLS-1$
+
+			props.put(Constants.SERVICE_RANKING, new Integer(20));
+			reg2.setProperties(props);
+			assertEquals("wrong service reference", reg2.getReference(), getContext().getServiceReference("java.lang.Runnable")); //$NON-NLS-1$//$NON-NLS-2$
+
+			props.put(Constants.SERVICE_RANKING, new Integer(30));
+			reg3 = getContext().registerService(Runnable.class.getName(), runIt, props);
+			refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertEquals("wrong number of references", 3, refs.length); //$NON-NLS-1$
+
+			reg3.unregister();
+			reg3 = null;
+			reg1.unregister();
+			reg1 = null;
+			refs = getContext().getServiceReferences(Runnable.class.getName(), filter);
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+			if (reg2 != null)
+				reg2.unregister();
+			if (reg3 != null)
+				reg3.unregister();
+		}
+	}
+
+	public void testIndexedPropertyLookup() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		String pid1 = getName() + ".1"; //$NON-NLS-1$
+		String pid2 = getName() + ".2"; //$NON-NLS-1$
+		Hashtable props = new Hashtable();
+		props.put(Constants.SERVICE_PID, pid1);
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		props.put(Constants.SERVICE_PID, new String[] {pid1, pid2});
+		ServiceRegistration reg2 = getContext().registerService(Runnable.class.getName(), runIt, props);
+		try {
+			ServiceReference[] refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid1 + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 2, refs.length); //$NON-NLS-1$
+			refs = getContext().getServiceReferences((String) null, "(&(objectClass=" + Runnable.class.getName() + ")(SERVICE.PID=" + pid2 + "))"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			props.put(Constants.SERVICE_PID, pid2);
+			reg1.setProperties(props);
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid1 + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid2 + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 2, refs.length); //$NON-NLS-1$
+
+			reg2.unregister();
+			reg2 = null;
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid1 + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("unexpected service references", refs); //$NON-NLS-1$
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+			if (reg2 != null)
+				reg2.unregister();
+		}
+	}
+
+	public void testServiceIdLookup() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			public void run() {
+				// nothing
+			}
+		};
+		ServiceRegistration reg1 = getContext().registerService(Runnable.class.getName(), runIt, null);
+		try {
+			Long id = (Long) reg1.getReference().getProperty(Constants.SERVICE_ID);
+			ServiceReference[] refs = getContext().getServiceReferences((String) null, "(service.id=" + id + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(&(service.id= " + id + ")(objectClass=" + Runnable.class.getName() + "))"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNotNull("no service references", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Object.class.getName(), "(service.id=" + id + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("unexpected service references", refs); //$NON-NLS-1$
+			refs = getContext().getServiceReferences(Runnable.class.getName(), "(&(service.id=" + id + ")(" + getName() + "=*))"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			assertNull("unexpected service references", refs); //$NON-NLS-1$
+
+			reg1.unregister();
+			reg1 = null;
+			refs = getContext().getServiceReferences((String) null, "(service.id=" + id + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNull("unexpected service references", refs); //$NON-NLS-1$
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+		}
+	}
+
 	public void testInvalidRanking() {
 		final CountDownLatch warning = new CountDownLatch(1);
 		FrameworkListener warningListener = new FrameworkListener() {
@@ -262,6 +262,14 @@ public abstract class Module implements BundleReference, BundleStartLevel, Compa
 		this.startlevel = newStartLevel;
 	}
 
+	final void loadSettings(EnumSet<Settings> newSettings, int newStartLevel) {
+		settings.clear();
+		if (newSettings != null) {
+			settings.addAll(newSettings);
+		}
+		this.startlevel = newStartLevel;
+	}
+
 	/**
 	 * Returns the time when this module was last modified.  A module is considered
 	 * to be modified when it is installed, updated or uninstalled.
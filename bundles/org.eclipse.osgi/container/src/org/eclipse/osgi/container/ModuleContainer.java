@@ -22,6 +22,8 @@ import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -117,6 +119,12 @@ public final class ModuleContainer implements DebugOptionsListener {
 
 	private final long moduleLockTimeout;
 
+	/**
+	 * The number of seconds to wait for a module to stop when stopping
+	 * modules in parallel; zero means wait until the stop completes
+	 */
+	final long startLevelStopTimeout;
+
 	private final boolean autoStartOnResolve;
 
 	boolean DEBUG_MONITOR_LAZY = false;
@@ -146,6 +154,16 @@ public final class ModuleContainer implements DebugOptionsListener {
 			}
 		}
 		this.moduleLockTimeout = tempModuleLockTimeout;
+		long tempStopTimeout = 0;
+		String stopTimeoutProp = adaptor.getProperty(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_STOP_TIMEOUT);
+		if (stopTimeoutProp != null) {
+			try {
+				tempStopTimeout = Math.max(0, Long.parseLong(stopTimeoutProp));
+			} catch (NumberFormatException e) {
+				// will default to 0
+			}
+		}
+		this.startLevelStopTimeout = tempStopTimeout;
 		DebugOptions debugOptions = adaptor.getDebugOptions();
 		if (debugOptions != null) {
 			this.DEBUG_MONITOR_LAZY = debugOptions.getBooleanOption(Debug.OPTION_MONITOR_LAZY, false);
@@ -547,6 +565,15 @@ public final class ModuleContainer implements DebugOptionsListener {
 	 */
 	public ModuleWire resolveDynamic(String dynamicPkgName, ModuleRevision revision) {
 		ModuleWire result;
+		try {
+			result = resolveDynamicFast(dynamicPkgName, revision);
+		} catch (ResolutionException e) {
+			// a resolver hook rejected the resolve; the resolve process would fail the same way
+			return null;
+		}
+		if (result != null) {
+			return result;
+		}
 		Map<ModuleRevision, ModuleWiring> deltaWiring;
 		Collection<Module> modulesResolved;
 		long timestamp;
@@ -638,6 +665,65 @@ public final class ModuleContainer implements DebugOptionsListener {
 		return result;
 	}
 
+	/*
+	 * Wires a dynamic package requirement to an already resolved provider without
+	 * a resolve process when the dynamic resolver cache is enabled.  Returns null if
+	 * a resolve process must be used.
+	 */
+	private ModuleWire resolveDynamicFast(String dynamicPkgName, ModuleRevision revision) throws ResolutionException {
+		if (moduleDatabase.dynamicCache == null || System.getSecurityManager() != null) {
+			// the resolve process checks the permissions of the providers
+			return null;
+		}
+		DynamicModuleRequirement dynamicReq;
+		List<ModuleCapability> providers;
+		long timestamp;
+		moduleDatabase.readLock();
+		try {
+			ModuleWiring wiring = revision.getWiring();
+			if (wiring == null || wiring.isDynamicPackageMiss(dynamicPkgName)) {
+				return null;
+			}
+			ModuleWire existing = findExistingDynamicWire(wiring, dynamicPkgName);
+			if (existing != null) {
+				return existing;
+			}
+			List<DynamicModuleRequirement> dynamicReqs = getDynamicRequirements(dynamicPkgName, revision);
+			if (dynamicReqs.isEmpty()) {
+				return null;
+			}
+			dynamicReq = dynamicReqs.get(0);
+			providers = moduleResolver.getDynamicProviders(dynamicReq, moduleDatabase);
+			if (providers == null || providers.isEmpty()) {
+				return null;
+			}
+			timestamp = moduleDatabase.getRevisionsTimestamp();
+		} finally {
+			moduleDatabase.readUnlock();
+		}
+
+		// the resolver hooks must be called without holding the database lock
+		ModuleCapability provider = moduleResolver.filterDynamicProviders(dynamicReq, providers);
+		if (provider == null) {
+			return null;
+		}
+
+		Map<ModuleRevision, ModuleWiring> deltaWiring;
+		moduleDatabase.readLock();
+		try {
+			if (timestamp != moduleDatabase.getRevisionsTimestamp()) {
+				return null;
+			}
+			deltaWiring = moduleResolver.resolveDynamicProvider(dynamicReq, provider, moduleDatabase);
+		} finally {
+			moduleDatabase.readUnlock();
+		}
+		if (deltaWiring == null || !applyDelta(deltaWiring, new ArrayList<Module>(0), Collections.<Module> emptyList(), timestamp, false)) {
+			return null;
+		}
+		return findExistingDynamicWire(deltaWiring.get(revision), dynamicPkgName);
+	}
+
 	private ModuleWire findExistingDynamicWire(ModuleWiring wiring, String dynamicPkgName) {
 		if (wiring == null) {
 			return null;
@@ -694,9 +780,8 @@ public final class ModuleContainer implements DebugOptionsListener {
 				if (timestamp != moduleDatabase.getRevisionsTimestamp())
 					return false; // need to try again
 
-				Map<ModuleRevision, ModuleWiring> wiringCopy = moduleDatabase.getWiringsCopy();
 				for (Map.Entry<ModuleRevision, ModuleWiring> deltaEntry : deltaWiring.entrySet()) {
-					ModuleWiring current = wiringCopy.get(deltaEntry.getKey());
+					ModuleWiring current = moduleDatabase.getWiring(deltaEntry.getKey());
 					if (current != null) {
 						// need to update the provided capabilities, provided and required wires for currently resolved
 						current.setCapabilities(deltaEntry.getValue().getModuleCapabilities(null));
@@ -1662,11 +1747,37 @@ public final class ModuleContainer implements DebugOptionsListener {
 			incStartLevel(toStartLevel, sortedModules, false);
 		}
 
-		private void incStartLevel(int toStartLevel, List<Module> sortedModules, boolean lazyOnly) {
-			for (Module module : sortedModules) {
-				if (isRefreshingSystemModule()) {
-					return;
+		private void incStartLevel(final int toStartLevel, List<Module> sortedModules, boolean lazyOnly) {
+			Executor executor = adaptor.getStartLevelExecutor();
+			if (executor == null) {
+				for (Module module : sortedModules) {
+					if (isRefreshingSystemModule()) {
+						return;
+					}
+					try {
+						int moduleStartLevel = module.getStartLevel();
+						if (moduleStartLevel < toStartLevel) {
+							// skip modules who should have already been started
+							continue;
+						} else if (moduleStartLevel == toStartLevel) {
+							boolean isLazyStart = module.isLazyActivate();
+							if (lazyOnly ? isLazyStart : !isLazyStart) {
+								resumeModule(module, moduleStartLevel);
+							}
+						} else {
+							// can stop resuming since any remaining modules have a greater startlevel than the active startlevel
+							break;
+						}
+					} catch (IllegalStateException e) {
+						// been uninstalled
+						continue;
+					}
 				}
+				return;
+			}
+
+			List<Module> toStart = new ArrayList<>();
+			for (Module module : sortedModules) {
 				try {
 					int moduleStartLevel = module.getStartLevel();
 					if (moduleStartLevel < toStartLevel) {
@@ -1675,17 +1786,7 @@ public final class ModuleContainer implements DebugOptionsListener {
 					} else if (moduleStartLevel == toStartLevel) {
 						boolean isLazyStart = module.isLazyActivate();
 						if (lazyOnly ? isLazyStart : !isLazyStart) {
-							if (debugStartLevel) {
-								Debug.println("StartLevel: resuming bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
-							}
-							try {
-								module.start(StartOptions.TRANSIENT_IF_AUTO_START, StartOptions.TRANSIENT_RESUME);
-							} catch (BundleException e) {
-								adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
-							} catch (IllegalStateException e) {
-								// been uninstalled
-								continue;
-							}
+							toStart.add(module);
 						}
 					} else {
 						// can stop resuming since any remaining modules have a greater startlevel than the active startlevel
@@ -1696,9 +1797,60 @@ public final class ModuleContainer implements DebugOptionsListener {
 					continue;
 				}
 			}
+			if (toStart.isEmpty()) {
+				return;
+			}
+			// start each wave of independent modules in parallel;
+			// a wave only starts once all the waves it depends on are done
+			for (List<Module> wave : moduleDatabase.groupByDependency(toStart)) {
+				if (isRefreshingSystemModule()) {
+					return;
+				}
+				final CountDownLatch done = new CountDownLatch(wave.size());
+				for (final Module module : wave) {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								if (!isRefreshingSystemModule()) {
+									resumeModule(module, toStartLevel);
+								}
+							} catch (RuntimeException e) {
+								// report the failure instead of losing it on the worker thread
+								adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+							} catch (Error e) {
+								adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+							} finally {
+								done.countDown();
+							}
+						}
+					});
+				}
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		private void resumeModule(Module module, int moduleStartLevel) {
+			if (debugStartLevel) {
+				Debug.println("StartLevel: resuming bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			try {
+				module.start(StartOptions.TRANSIENT_IF_AUTO_START, StartOptions.TRANSIENT_RESUME);
+			} catch (BundleException e) {
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} catch (IllegalStateException e) {
+				// been uninstalled
+			}
 		}
 
 		private void decStartLevel(int toStartLevel, List<Module> sortedModules) {
+			Executor executor = adaptor.getStartLevelExecutor();
+			List<Module> toStop = executor == null ? null : new ArrayList<Module>();
 			ListIterator<Module> iModules = sortedModules.listIterator(sortedModules.size());
 			while (iModules.hasPrevious()) {
 				Module module = iModules.previous();
@@ -1711,25 +1863,147 @@ public final class ModuleContainer implements DebugOptionsListener {
 						// stopped all modules we are going to for this start level
 						break;
 					}
-					try {
-						if (Module.ACTIVE_SET.contains(module.getState())) {
-							if (debugStartLevel) {
-								Debug.println("StartLevel: stopping bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
-							}
-							// Note that we don't need to hold the state change lock
-							// here when checking the active status because no other
-							// thread will successfully be able to start this bundle
-							// since the start-level is no longer met.
-							module.stop(StopOptions.TRANSIENT);
-						}
-					} catch (BundleException e) {
-						adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+					if (toStop != null) {
+						toStop.add(module);
+					} else {
+						suspendModule(module, moduleStartLevel);
 					}
 				} catch (IllegalStateException e) {
 					// been uninstalled
 					continue;
 				}
 			}
+			if (toStop == null || toStop.isEmpty()) {
+				return;
+			}
+			// stop each wave of independent modules in parallel in the reverse order they were started;
+			// a wave only stops once all the waves that depend on it are done
+			List<List<Module>> waves = moduleDatabase.groupByDependency(toStop);
+			ListIterator<List<Module>> iWaves = waves.listIterator(waves.size());
+			while (iWaves.hasPrevious()) {
+				if (!stopWave(executor, iWaves.previous(), toStartLevel + 1)) {
+					return;
+				}
+			}
+		}
+
+		private boolean stopWave(Executor executor, List<Module> wave, final int moduleStartLevel) {
+			// the modules of the wave which are not stopped yet and the time their stop
+			// was submitted, or the time their stop started once a thread claimed them
+			final Map<Module, Long> stopping = new HashMap<>();
+			final Set<Module> claimed = new HashSet<>();
+			synchronized (stopping) {
+				Long submitted = Long.valueOf(System.nanoTime());
+				for (Module module : wave) {
+					stopping.put(module, submitted);
+				}
+			}
+			for (final Module module : wave) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						synchronized (stopping) {
+							if (!claimed.add(module)) {
+								// the calling thread stopped the module while this task was queued
+								return;
+							}
+							stopping.put(module, Long.valueOf(System.nanoTime()));
+						}
+						stopModule(module, moduleStartLevel, stopping);
+					}
+				});
+			}
+			long timeout = TimeUnit.SECONDS.toNanos(startLevelStopTimeout);
+			Set<Module> stragglers = new HashSet<>();
+			List<Module> stopOnCaller = new ArrayList<>();
+			while (true) {
+				synchronized (stopping) {
+					// stragglers that finished in the meantime no longer count
+					stragglers.retainAll(stopping.keySet());
+					if (stragglers.size() >= stopping.size()) {
+						return true;
+					}
+					long waitTime = 0;
+					if (timeout > 0) {
+						long now = System.nanoTime();
+						waitTime = timeout;
+						for (Map.Entry<Module, Long> entry : stopping.entrySet()) {
+							Module module = entry.getKey();
+							if (stragglers.contains(module)) {
+								// already reported
+								continue;
+							}
+							long remaining = timeout - (now - entry.getValue().longValue());
+							if (remaining > 0) {
+								waitTime = Math.min(waitTime, remaining);
+							} else if (claimed.add(module)) {
+								// still queued, possibly behind stragglers holding all the threads;
+								// stop it on this thread so the wave does not wait for the queue
+								stopOnCaller.add(module);
+							} else {
+								// give up waiting on this module; the rest of the wave continues
+								stragglers.add(module);
+								adaptor.publishContainerEvent(ContainerEvent.WARNING, module, new BundleException(NLS.bind(Msg.ModuleContainer_StopTimeoutError, toString(module), startLevelStopTimeout), BundleException.STATECHANGE_ERROR));
+							}
+						}
+						if (stopOnCaller.isEmpty() && stragglers.size() >= stopping.size()) {
+							return true;
+						}
+					}
+					if (stopOnCaller.isEmpty()) {
+						try {
+							if (waitTime > 0) {
+								TimeUnit.NANOSECONDS.timedWait(stopping, waitTime);
+							} else {
+								stopping.wait();
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return false;
+						}
+						continue;
+					}
+				}
+				for (Module module : stopOnCaller) {
+					stopModule(module, moduleStartLevel, stopping);
+				}
+				stopOnCaller.clear();
+			}
+		}
+
+		private void stopModule(Module module, int moduleStartLevel, Map<Module, Long> stopping) {
+			try {
+				suspendModule(module, moduleStartLevel);
+			} catch (RuntimeException e) {
+				// report the failure instead of losing it on the worker thread
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} catch (Error e) {
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} finally {
+				synchronized (stopping) {
+					stopping.remove(module);
+					stopping.notifyAll();
+				}
+			}
+		}
+
+		private void suspendModule(Module module, int moduleStartLevel) {
+			try {
+				if (Module.ACTIVE_SET.contains(module.getState())) {
+					if (debugStartLevel) {
+						Debug.println("StartLevel: stopping bundle; " + toString(module) + "; with startLevel=" + moduleStartLevel); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+					// Note that we don't need to hold the state change lock
+					// here when checking the active status because no other
+					// thread will successfully be able to start this bundle
+					// since the start-level is no longer met.
+					module.stop(StopOptions.TRANSIENT);
+				}
+			} catch (BundleException e) {
+				adaptor.publishContainerEvent(ContainerEvent.ERROR, module, e);
+			} catch (IllegalStateException e) {
+				// been uninstalled
+			}
 		}
 
 		private EventManager getManager() {
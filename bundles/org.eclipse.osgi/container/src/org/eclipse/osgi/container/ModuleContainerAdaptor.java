@@ -296,6 +296,34 @@ public abstract class ModuleContainerAdaptor {
 		};
 	}
 
+	/**
+	 * Returns the executor used by the {@link ModuleContainer#getFrameworkStartLevel() FrameworkStartLevel}
+	 * implementation to start modules that have the same start level in parallel.  Modules with the same
+	 * start level are grouped by their wiring dependencies and each group is started using the executor
+	 * after the groups they depend on have been started.
+	 * @return the executor used to start modules in parallel, or {@code null} if modules are started
+	 * one at a time on the start level thread
+	 * @since 3.14
+	 */
+	public Executor getStartLevelExecutor() {
+		// by default modules are started serially
+		return null;
+	}
+
+	/**
+	 * Returns the timestamp of the content of a revision.  The timestamp is used to
+	 * identify the revision across restarts of the container, for example to remember
+	 * the providers chosen by the resolver for the requirements of the revision.  The
+	 * timestamp must change when the content of the revision changes.
+	 * @param revision the revision
+	 * @return the timestamp of the content of the revision
+	 * @since 3.14
+	 */
+	public long getContentTimestamp(ModuleRevision revision) {
+		// by default use the time the module was installed or last updated
+		return revision.getRevisions().getModule().getLastModified();
+	}
+
 	/**
 	 * Allows a builder to be modified before it is used by the container. This gets
 	 * call when a new module is {@link ModuleContainer#install(Module, String, ModuleRevisionBuilder, Object) installed}
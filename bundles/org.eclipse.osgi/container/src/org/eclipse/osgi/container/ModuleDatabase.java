@@ -23,8 +23,11 @@ import org.eclipse.osgi.container.ModuleRevisionBuilder.GenericInfo;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
 import org.eclipse.osgi.framework.util.ObjectPool;
 import org.eclipse.osgi.internal.container.Capabilities;
+import org.eclipse.osgi.internal.container.CompactMap;
 import org.eclipse.osgi.internal.container.ComputeNodeOrder;
+import org.eclipse.osgi.internal.container.LongMap;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.osgi.framework.*;
 import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.framework.wiring.BundleRevision;
@@ -72,7 +75,7 @@ public class ModuleDatabase {
 	/**
 	 * A map of modules by id.
 	 */
-	private final Map<Long, Module> modulesById;
+	private final LongMap<Module> modulesById;
 
 	/**
 	 * A map of revision wiring objects.
@@ -104,6 +107,17 @@ public class ModuleDatabase {
 
 	private final Capabilities capabilities;
 
+	/**
+	 * The revisions loaded from persistent data whose capabilities have not been
+	 * added to the capabilities index yet.  The index is only populated on first
+	 * use since a warm start with nothing to resolve never needs it.  Only the
+	 * indexing is deferred; {@link #load(DataInputStream)} still decodes every
+	 * revision and wiring of the persistent data.
+	 */
+	/* @GuardedBy("unindexedMonitor") for writes */
+	private volatile List<ModuleRevision> unindexedRevisions;
+	private final Object unindexedMonitor = new Object();
+
 	/**
 	 * A map of module settings keyed by module id.
 	 */
@@ -114,6 +128,25 @@ public class ModuleDatabase {
 	 */
 	private int initialModuleStartLevel = 1;
 
+	/**
+	 * The ids of the modules whose settings or start level changed since
+	 * this database or its settings changes were last stored.
+	 */
+	/* @GuardedBy("changedSettings") */
+	private final Set<Long> changedSettings = new HashSet<>();
+
+	/**
+	 * The providers chosen by the last resolve operations, or {@code null} if
+	 * the resolver candidate cache is disabled.
+	 */
+	final ModuleResolverCandidates resolverCandidates;
+
+	/**
+	 * The providers found for dynamic package requirements, or {@code null} if
+	 * the dynamic resolver cache is disabled.
+	 */
+	final ModuleResolverDynamicCache dynamicCache;
+
 	/**
 	 * Monitors read and write access to this database
 	 */
@@ -141,7 +174,7 @@ public class ModuleDatabase {
 	public ModuleDatabase(ModuleContainerAdaptor adaptor) {
 		this.adaptor = adaptor;
 		this.modulesByLocations = new HashMap<>();
-		this.modulesById = new HashMap<>();
+		this.modulesById = new LongMap<>();
 		this.wirings = new HashMap<>();
 		// Start at id 1 because 0 is reserved for the system bundle
 		this.nextId = new AtomicLong(1);
@@ -151,6 +184,8 @@ public class ModuleDatabase {
 		this.allTimeStamp = new AtomicLong(constructionTime);
 		this.moduleSettings = new HashMap<>();
 		this.capabilities = new Capabilities();
+		this.resolverCandidates = Boolean.parseBoolean(adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_CANDIDATE_CACHE)) ? new ModuleResolverCandidates(adaptor) : null;
+		this.dynamicCache = Boolean.parseBoolean(adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_DYNAMIC_CACHE)) ? new ModuleResolverDynamicCache() : null;
 	}
 
 	/**
@@ -262,7 +297,13 @@ public class ModuleDatabase {
 		if (settings != null)
 			moduleSettings.put(id, settings);
 		ModuleRevision newRevision = module.getCurrentRevision();
-		addCapabilities(newRevision);
+		List<ModuleRevision> unindexed = unindexedRevisions;
+		if (unindexed != null) {
+			// loading persistent data; index the capabilities on first use
+			unindexed.add(newRevision);
+		} else {
+			addCapabilities(newRevision);
+		}
 		return module;
 	}
 
@@ -519,8 +560,16 @@ public class ModuleDatabase {
 	final void mergeWiring(Map<ModuleRevision, ModuleWiring> deltaWiring) {
 		writeLock();
 		try {
+			boolean wiresOnly = wirings.keySet().containsAll(deltaWiring.keySet());
+			long oldTimestamp = revisionsTimeStamp.get();
 			wirings.putAll(deltaWiring);
+			if (resolverCandidates != null) {
+				resolverCandidates.record(deltaWiring);
+			}
 			incrementTimestamps(true);
+			if (dynamicCache != null) {
+				dynamicCache.wiringsMerged(oldTimestamp, revisionsTimeStamp.get(), wiresOnly);
+			}
 		} finally {
 			writeUnlock();
 		}
@@ -595,6 +644,48 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Groups the modules into waves ordered by dependency.  A module is placed in
+	 * a wave after all of the waves containing modules in the list it is wired to.
+	 * Modules in the same wave have no wiring dependency on each other, with the
+	 * exception of modules involved in a dependency cycle.
+	 * <p>
+	 * A read operation protected by the {@link #readLock() read} lock.
+	 * @param modules the modules to group
+	 * @return the waves of modules in dependency order
+	 */
+	final List<List<Module>> groupByDependency(List<Module> modules) {
+		List<Module> sorted = new ArrayList<>(modules);
+		readLock();
+		try {
+			sortByDependencies(sorted);
+			Map<Module, Integer> waveIndexes = new HashMap<>(sorted.size());
+			List<List<Module>> waves = new ArrayList<>();
+			for (Module module : sorted) {
+				int waveIndex = 0;
+				ModuleRevision current = module.getCurrentRevision();
+				ModuleWiring wiring = current == null ? null : current.getWiring();
+				if (wiring != null) {
+					for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+						// providers later in the sorted list are part of a cycle and are ignored
+						Integer providerWave = waveIndexes.get(wire.getProvider().getRevisions().getModule());
+						if (providerWave != null && providerWave.intValue() >= waveIndex) {
+							waveIndex = providerWave.intValue() + 1;
+						}
+					}
+				}
+				waveIndexes.put(module, waveIndex);
+				if (waveIndex == waves.size()) {
+					waves.add(new ArrayList<Module>());
+				}
+				waves.get(waveIndex).add(module);
+			}
+			return waves;
+		} finally {
+			readUnlock();
+		}
+	}
+
 	private Collection<List<Module>> sortByDependencies(List<Module> toSort) {
 		// Build references so we can sort
 		List<Module[]> references = new ArrayList<>(toSort.size());
@@ -800,6 +891,7 @@ public class ModuleDatabase {
 	 */
 	final void addCapabilities(ModuleRevision revision) {
 		checkWrite();
+		indexCapabilities();
 		Collection<String> packageNames = capabilities.addCapabilities(revision);
 		// Clear the dynamic miss caches for all the package names added
 		for (ModuleWiring wiring : wirings.values()) {
@@ -818,9 +910,34 @@ public class ModuleDatabase {
 	 */
 	protected void removeCapabilities(ModuleRevision revision) {
 		checkWrite();
+		indexCapabilities();
 		capabilities.removeCapabilities(revision);
 	}
 
+	/**
+	 * Adds the capabilities of the revisions loaded from persistent data to the
+	 * capabilities index if that has not been done yet.
+	 * <p>
+	 * This method must be called while holding the {@link #readLock() read} or
+	 * {@link #writeLock() write} lock.
+	 */
+	private void indexCapabilities() {
+		if (unindexedRevisions == null) {
+			return;
+		}
+		// concurrent readers may get here; only one indexes while the others wait
+		synchronized (unindexedMonitor) {
+			List<ModuleRevision> unindexed = unindexedRevisions;
+			if (unindexed == null) {
+				return;
+			}
+			for (ModuleRevision revision : unindexed) {
+				capabilities.addCapabilities(revision);
+			}
+			unindexedRevisions = null;
+		}
+	}
+
 	/**
 	 * Returns a mutable snapshot of capabilities that are candidates for 
 	 * satisfying the specified requirement.
@@ -832,8 +949,25 @@ public class ModuleDatabase {
 	 * @return the candidates for the requirement
 	 */
 	final List<ModuleCapability> findCapabilities(Requirement requirement) {
+		if (requirement instanceof ModuleRequirement) {
+			// use the filter cached by the requirement
+			FilterImpl f;
+			try {
+				f = ((ModuleRequirement) requirement).getFilter();
+			} catch (InvalidSyntaxException e) {
+				return Collections.emptyList();
+			}
+			readLock();
+			try {
+				indexCapabilities();
+				return capabilities.findCapabilities(requirement, f);
+			} finally {
+				readUnlock();
+			}
+		}
 		readLock();
 		try {
+			indexCapabilities();
 			return capabilities.findCapabilities(requirement);
 		} finally {
 			readUnlock();
@@ -887,18 +1021,150 @@ public class ModuleDatabase {
 		try {
 			if (allTimeStamp.get() != constructionTime)
 				throw new IllegalStateException("Can only load into a empty database."); //$NON-NLS-1$
+			unindexedRevisions = new ArrayList<>();
 			Persistence.load(this, in);
+			clearSettingsChanges();
 		} finally {
 			writeUnlock();
 		}
 	}
 
+	/**
+	 * Writes the settings changes of this database to the output data stream.
+	 * The settings changes include the initial module start level and the
+	 * start level and settings of each module modified since the settings
+	 * changes were last {@link #clearSettingsChanges() cleared}.  Settings changes can only
+	 * be loaded into a database which has the same {@link #getRevisionsTimestamp()
+	 * revisions timestamp} as this database.
+	 * <p>
+	 * This method acquires the {@link #readLock() read} lock while writing the
+	 * settings changes.
+	 * <p>
+	 * The output stream remains open after this method returns.
+	 * @param out the data output steam.
+	 * @throws IOException if writing the settings changes to the specified output stream throws an IOException
+	 * @since 3.14
+	 */
+	public final void storeSettingsChanges(DataOutputStream out) throws IOException {
+		readLock();
+		try {
+			Collection<Long> changed;
+			synchronized (changedSettings) {
+				changed = new ArrayList<>(changedSettings);
+			}
+			Persistence.storeSettingsChanges(this, out, changed);
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Clears the settings changes of this database.  This must be called
+	 * once the settings changes have been persisted, either by a successful
+	 * {@link #store(DataOutputStream, boolean) store} of this database or
+	 * by a successful {@link #storeSettingsChanges(DataOutputStream) store}
+	 * of the settings changes.  Until then the settings changes are written
+	 * again by each call to {@link #storeSettingsChanges(DataOutputStream)}.
+	 * <p>
+	 * The caller should hold the {@link #readLock() read} lock from the store
+	 * until this method is called so that no settings change is cleared
+	 * before it has been persisted.
+	 * @since 3.14
+	 */
+	public final void clearSettingsChanges() {
+		synchronized (changedSettings) {
+			changedSettings.clear();
+		}
+	}
+
+	/**
+	 * Loads settings changes into this database from the input data stream.
+	 * The settings changes must have been written by {@link #storeSettingsChanges(DataOutputStream)}
+	 * from a database with the same {@link #getRevisionsTimestamp() revisions timestamp}
+	 * as this database.  Settings of modules which are not installed in this
+	 * database are ignored.
+	 * <p>
+	 * Since this method modifies this database it is considered a write operation.
+	 * This method acquires the {@link #writeLock() write} lock while loading
+	 * the settings changes into this database.
+	 * <p>
+	 * The specified stream remains open after this method returns.
+	 * @param in the data input stream.
+	 * @throws IOException if an error occurred when reading from the input stream.
+	 * @since 3.14
+	 */
+	public final void loadSettingsChanges(DataInputStream in) throws IOException {
+		writeLock();
+		try {
+			Persistence.loadSettingsChanges(this, in);
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Writes the providers chosen by the resolver for the requirements of the
+	 * current revisions to the output data stream.  Nothing is written unless
+	 * the resolver candidate cache is enabled with the
+	 * {@link EquinoxConfiguration#PROP_RESOLVER_CANDIDATE_CACHE} property.
+	 * <p>
+	 * This method acquires the {@link #readLock() read} lock while writing the
+	 * chosen providers.
+	 * <p>
+	 * The output stream remains open after this method returns.
+	 * @param out the data output steam.
+	 * @throws IOException if writing to the specified output stream throws an IOException
+	 * @since 3.14
+	 */
+	public final void storeResolverCandidates(DataOutputStream out) throws IOException {
+		if (resolverCandidates == null) {
+			return;
+		}
+		readLock();
+		try {
+			List<ModuleRevision> revisions = new ArrayList<>(modulesByLocations.size());
+			for (Module module : modulesByLocations.values()) {
+				ModuleRevision current = module.getCurrentRevision();
+				if (current != null) {
+					revisions.add(current);
+				}
+			}
+			resolverCandidates.store(out, revisions);
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Loads the providers chosen by the resolver from the input data stream.
+	 * The chosen providers must have been written by {@link #storeResolverCandidates(DataOutputStream)}.
+	 * They are used to order the candidates of requirements when the same revisions
+	 * are resolved again.  Nothing is loaded if the resolver candidate cache is disabled.
+	 * <p>
+	 * The specified stream remains open after this method returns.
+	 * @param in the data input stream.
+	 * @throws IOException if an error occurred when reading from the input stream.
+	 * @since 3.14
+	 */
+	public final void loadResolverCandidates(DataInputStream in) throws IOException {
+		if (resolverCandidates != null) {
+			resolverCandidates.load(in);
+		}
+	}
+
+	private void settingsChanged(Module module) {
+		synchronized (changedSettings) {
+			changedSettings.add(module.getId());
+		}
+	}
+
 	final void persistSettings(EnumSet<Settings> settings, Module module) {
 		writeLock();
 		try {
 			EnumSet<Settings> existing = moduleSettings.get(module.getId());
 			if (!settings.equals(existing)) {
 				moduleSettings.put(module.getId(), EnumSet.copyOf(settings));
+				settingsChanged(module);
 				incrementTimestamps(false);
 			}
 		} finally {
@@ -911,6 +1177,7 @@ public class ModuleDatabase {
 		try {
 			module.checkValid();
 			module.storeStartLevel(startlevel);
+			settingsChanged(module);
 			incrementTimestamps(false);
 		} finally {
 			writeUnlock();
@@ -965,8 +1232,12 @@ public class ModuleDatabase {
 			return (objectTable.size() - 1);
 		}
 
-		private static void addToReadTable(Object object, int index, Map<Integer, Object> objectTable) {
-			objectTable.put(Integer.valueOf(index), object);
+		private static void addToReadTable(Object object, int index, List<Object> objectTable) {
+			// the indexes are assigned in sequence by addToWriteTable so the table stays dense
+			while (objectTable.size() <= index) {
+				objectTable.add(null);
+			}
+			objectTable.set(index, object);
 		}
 
 		public static void store(ModuleDatabase moduleDatabase, DataOutputStream out, boolean persistWirings) throws IOException {
@@ -1119,7 +1390,7 @@ public class ModuleDatabase {
 			moduleDatabase.nextId.set(in.readLong());
 			moduleDatabase.setInitialModuleStartLevel(in.readInt());
 
-			Map<Integer, Object> objectTable = new HashMap<>();
+			List<Object> objectTable = new ArrayList<>();
 			if (version >= 2) {
 				int numStrings = in.readInt();
 				for (int i = 0; i < numStrings; i++) {
@@ -1172,6 +1443,71 @@ public class ModuleDatabase {
 			moduleDatabase.allTimeStamp.set(allTimeStamp);
 		}
 
+		public static void storeSettingsChanges(ModuleDatabase moduleDatabase, DataOutputStream out, Collection<Long> changed) throws IOException {
+			out.writeInt(VERSION);
+			out.writeLong(moduleDatabase.getRevisionsTimestamp());
+			out.writeLong(moduleDatabase.getTimestamp());
+			out.writeInt(moduleDatabase.getInitialModuleStartLevel());
+
+			List<Module> modules = new ArrayList<>(changed.size());
+			for (Long id : changed) {
+				Module module = moduleDatabase.getModule(id);
+				if (module != null) {
+					modules.add(module);
+				}
+			}
+			out.writeInt(modules.size());
+			for (Module module : modules) {
+				out.writeLong(module.getId());
+				EnumSet<Settings> settings = moduleDatabase.moduleSettings.get(module.getId());
+				out.writeInt(settings == null ? 0 : settings.size());
+				if (settings != null) {
+					for (Settings setting : settings) {
+						out.writeUTF(setting.name());
+					}
+				}
+				out.writeInt(module.getStartLevel());
+			}
+			out.flush();
+		}
+
+		public static void loadSettingsChanges(ModuleDatabase moduleDatabase, DataInputStream in) throws IOException {
+			int version = in.readInt();
+			if (version > VERSION || VERSION / 1000 != version / 1000)
+				throw new IllegalArgumentException("The version of the persistent framework data is not compatible: " + version + " expecting: " + VERSION); //$NON-NLS-1$ //$NON-NLS-2$
+			long revisionsTimeStamp = in.readLong();
+			if (revisionsTimeStamp != moduleDatabase.revisionsTimeStamp.get())
+				throw new IllegalArgumentException("The settings changes are for a different revisions timestamp: " + revisionsTimeStamp + " expecting: " + moduleDatabase.revisionsTimeStamp.get()); //$NON-NLS-1$ //$NON-NLS-2$
+			long allTimeStamp = in.readLong();
+			moduleDatabase.initialModuleStartLevel = in.readInt();
+
+			int numModules = in.readInt();
+			for (int i = 0; i < numModules; i++) {
+				long id = in.readLong();
+				EnumSet<Settings> settings = null;
+				int numSettings = in.readInt();
+				if (numSettings > 0) {
+					settings = EnumSet.noneOf(Settings.class);
+					for (int j = 0; j < numSettings; j++) {
+						settings.add(Settings.valueOf(in.readUTF()));
+					}
+				}
+				int startlevel = in.readInt();
+				Module module = moduleDatabase.modulesById.get(id);
+				if (module == null) {
+					continue;
+				}
+				if (settings == null) {
+					moduleDatabase.moduleSettings.remove(id);
+				} else {
+					moduleDatabase.moduleSettings.put(id, settings);
+				}
+				module.loadSettings(settings, startlevel);
+			}
+
+			moduleDatabase.allTimeStamp.set(allTimeStamp);
+		}
+
 		private static void writeModule(Module module, ModuleDatabase moduleDatabase, DataOutputStream out, Map<Object, Integer> objectTable) throws IOException {
 			ModuleRevision current = module.getCurrentRevision();
 			if (current == null)
@@ -1215,7 +1551,7 @@ public class ModuleDatabase {
 			out.writeLong(module.getLastModified());
 		}
 
-		private static void readModule(ModuleDatabase moduleDatabase, DataInputStream in, Map<Integer, Object> objectTable, int version) throws IOException {
+		private static void readModule(ModuleDatabase moduleDatabase, DataInputStream in, List<Object> objectTable, int version) throws IOException {
 			ModuleRevisionBuilder builder = new ModuleRevisionBuilder();
 			int moduleIndex = in.readInt();
 			String location = readString(in, objectTable);
@@ -1288,7 +1624,7 @@ public class ModuleDatabase {
 			out.writeInt(requirer);
 		}
 
-		private static void readWire(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static void readWire(DataInputStream in, List<Object> objectTable) throws IOException {
 			int wireIndex = in.readInt();
 
 			ModuleCapability capability = (ModuleCapability) objectTable.get(in.readInt());
@@ -1353,7 +1689,7 @@ public class ModuleDatabase {
 			}
 		}
 
-		private static ModuleWiring readWiring(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static ModuleWiring readWiring(DataInputStream in, List<Object> objectTable) throws IOException {
 			ModuleRevision revision = (ModuleRevision) objectTable.get(in.readInt());
 			if (revision == null)
 				throw new NullPointerException("Could not find revision for wiring."); //$NON-NLS-1$
@@ -1403,7 +1739,7 @@ public class ModuleDatabase {
 		}
 
 		@SuppressWarnings("unchecked")
-		private static void readGenericInfo(boolean isCapability, DataInputStream in, ModuleRevisionBuilder builder, Map<Integer, Object> objectTable, int version) throws IOException {
+		private static void readGenericInfo(boolean isCapability, DataInputStream in, ModuleRevisionBuilder builder, List<Object> objectTable, int version) throws IOException {
 			String namespace = readString(in, objectTable);
 			Map<String, Object> attributes = version >= 2 ? (Map<String, Object>) objectTable.get(in.readInt()) : readMap(in, objectTable);
 			Map<String, ?> directives = version >= 2 ? (Map<String, ?>) objectTable.get(in.readInt()) : readMap(in, objectTable);
@@ -1453,12 +1789,12 @@ public class ModuleDatabase {
 			}
 		}
 
-		private static void readIndexedMap(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static void readIndexedMap(DataInputStream in, List<Object> objectTable) throws IOException {
 			Map<String, Object> result = readMap(in, objectTable);
 			addToReadTable(result, in.readInt(), objectTable);
 		}
 
-		private static Map<String, Object> readMap(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static Map<String, Object> readMap(DataInputStream in, List<Object> objectTable) throws IOException {
 			int count = in.readInt();
 			Map<String, Object> result;
 			if (count == 0) {
@@ -1476,12 +1812,12 @@ public class ModuleDatabase {
 					Object value = readMapValue(in, type, objectTable);
 					result.put(key, value);
 				}
-				result = Collections.unmodifiableMap(result);
 			}
-			return result;
+			// share with equal maps already created by builders
+			return CompactMap.canonicalize(result);
 		}
 
-		private static Object readMapValue(DataInputStream in, int type, Map<Integer, Object> objectTable) throws IOException {
+		private static Object readMapValue(DataInputStream in, int type, List<Object> objectTable) throws IOException {
 			switch (type) {
 				case VALUE_STRING :
 					return readString(in, objectTable);
@@ -1549,7 +1885,7 @@ public class ModuleDatabase {
 			return -2;
 		}
 
-		private static List<?> readList(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static List<?> readList(DataInputStream in, List<Object> objectTable) throws IOException {
 			int size = in.readInt();
 			if (size == 0)
 				return Collections.emptyList();
@@ -1564,7 +1900,7 @@ public class ModuleDatabase {
 			return Collections.unmodifiableList(list);
 		}
 
-		private static Object readListValue(byte listType, DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static Object readListValue(byte listType, DataInputStream in, List<Object> objectTable) throws IOException {
 			switch (listType) {
 				case VALUE_STRING :
 					return readString(in, objectTable);
@@ -1603,17 +1939,17 @@ public class ModuleDatabase {
 			writeString(string, out, objectTable);
 		}
 
-		private static Version readIndexedVersion(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static Version readIndexedVersion(DataInputStream in, List<Object> objectTable) throws IOException {
 			Version version = readVersion0(in, objectTable, false);
 			addToReadTable(version, in.readInt(), objectTable);
 			return version;
 		}
 
-		private static Version readVersion(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		private static Version readVersion(DataInputStream in, List<Object> objectTable) throws IOException {
 			return readVersion0(in, objectTable, true);
 		}
 
-		private static Version readVersion0(DataInputStream in, Map<Integer, Object> objectTable, boolean intern) throws IOException {
+		private static Version readVersion0(DataInputStream in, List<Object> objectTable, boolean intern) throws IOException {
 			byte type = in.readByte();
 			if (type == INDEX) {
 				int index = in.readInt();
@@ -1653,17 +1989,17 @@ public class ModuleDatabase {
 			}
 		}
 
-		static private String readIndexedString(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		static private String readIndexedString(DataInputStream in, List<Object> objectTable) throws IOException {
 			String string = readString0(in, objectTable, false);
 			addToReadTable(string, in.readInt(), objectTable);
 			return string;
 		}
 
-		static private String readString(DataInputStream in, Map<Integer, Object> objectTable) throws IOException {
+		static private String readString(DataInputStream in, List<Object> objectTable) throws IOException {
 			return readString0(in, objectTable, true);
 		}
 
-		static private String readString0(DataInputStream in, Map<Integer, Object> objectTable, boolean intern) throws IOException {
+		static private String readString0(DataInputStream in, List<Object> objectTable, boolean intern) throws IOException {
 			byte type = in.readByte();
 			if (type == INDEX) {
 				int index = in.readInt();
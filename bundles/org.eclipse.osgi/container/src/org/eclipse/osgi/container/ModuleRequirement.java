@@ -32,6 +32,11 @@ public class ModuleRequirement implements BundleRequirement {
 	private final Map<String, String> directives;
 	private final Map<String, Object> attributes;
 	private final ModuleRevision revision;
+	/* the parsed filter directive, NO_FILTER or INVALID_FILTER; lazily computed */
+	private volatile Object filter;
+
+	private static final Object NO_FILTER = new Object();
+	private static final Object INVALID_FILTER = new Object();
 
 	ModuleRequirement(String namespace, Map<String, String> directives, Map<String, ?> attributes, ModuleRevision revision) {
 		this.namespace = namespace;
@@ -49,19 +54,48 @@ public class ModuleRequirement implements BundleRequirement {
 	public boolean matches(BundleCapability capability) {
 		if (!namespace.equals(capability.getNamespace()))
 			return false;
-		String filterSpec = directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
-		FilterImpl f = null;
-		if (filterSpec != null) {
-			try {
-				f = FilterImpl.newInstance(filterSpec);
-			} catch (InvalidSyntaxException e) {
-				return false;
-			}
+		FilterImpl f;
+		try {
+			f = getFilter();
+		} catch (InvalidSyntaxException e) {
+			return false;
 		}
 		boolean matchMandatory = PackageNamespace.PACKAGE_NAMESPACE.equals(namespace) || BundleNamespace.BUNDLE_NAMESPACE.equals(namespace) || HostNamespace.HOST_NAMESPACE.equals(namespace);
 		return Capabilities.matches(f, capability, matchMandatory);
 	}
 
+	/**
+	 * Returns the parsed filter directive of this requirement.  The filter is
+	 * parsed once and then cached for the lifetime of this requirement.
+	 * @return the parsed filter or {@code null} if there is no filter directive
+	 * @throws InvalidSyntaxException if the filter directive is invalid
+	 */
+	FilterImpl getFilter() throws InvalidSyntaxException {
+		Object current = filter;
+		if (current == null) {
+			String filterSpec = directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+			if (filterSpec == null) {
+				current = NO_FILTER;
+			} else {
+				try {
+					current = FilterImpl.newInstance(filterSpec);
+				} catch (InvalidSyntaxException e) {
+					filter = INVALID_FILTER;
+					throw e;
+				}
+			}
+			filter = current;
+		}
+		if (current == NO_FILTER) {
+			return null;
+		}
+		if (current == INVALID_FILTER) {
+			// parse again to get the syntax error
+			return FilterImpl.newInstance(directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE));
+		}
+		return (FilterImpl) current;
+	}
+
 	@Override
 	public String getNamespace() {
 		return namespace;
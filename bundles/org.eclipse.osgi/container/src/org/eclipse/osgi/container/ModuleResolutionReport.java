@@ -29,6 +29,8 @@ class ModuleResolutionReport implements ResolutionReport {
 
 	static class Builder {
 		private final Map<Resource, List<Entry>> resourceToEntries = new HashMap<>();
+		private int candidateCacheHits = 0;
+		private int candidateCacheMisses = 0;
 
 		public void addEntry(Resource resource, Entry.Type type, Object data) {
 			List<Entry> entries = resourceToEntries.get(resource);
@@ -39,8 +41,16 @@ class ModuleResolutionReport implements ResolutionReport {
 			entries.add(new EntryImpl(type, data));
 		}
 
+		public void candidateCacheHit() {
+			candidateCacheHits++;
+		}
+
+		public void candidateCacheMiss() {
+			candidateCacheMisses++;
+		}
+
 		public ModuleResolutionReport build(Map<Resource, List<Wire>> resolutionResult, ResolutionException cause) {
-			return new ModuleResolutionReport(resolutionResult, resourceToEntries, cause);
+			return new ModuleResolutionReport(resolutionResult, resourceToEntries, cause, candidateCacheHits, candidateCacheMisses);
 		}
 	}
 
@@ -67,11 +77,19 @@ class ModuleResolutionReport implements ResolutionReport {
 	private final Map<Resource, List<Entry>> entries;
 	private final ResolutionException resolutionException;
 	private final Map<Resource, List<Wire>> resolutionResult;
+	private final int candidateCacheHits;
+	private final int candidateCacheMisses;
 
 	ModuleResolutionReport(Map<Resource, List<Wire>> resolutionResult, Map<Resource, List<Entry>> entries, ResolutionException cause) {
+		this(resolutionResult, entries, cause, 0, 0);
+	}
+
+	ModuleResolutionReport(Map<Resource, List<Wire>> resolutionResult, Map<Resource, List<Entry>> entries, ResolutionException cause, int candidateCacheHits, int candidateCacheMisses) {
 		this.entries = entries == null ? Collections.<Resource, List<Entry>> emptyMap() : Collections.unmodifiableMap(new HashMap<>(entries));
 		this.resolutionResult = resolutionResult == null ? Collections.<Resource, List<Wire>> emptyMap() : Collections.unmodifiableMap(resolutionResult);
 		this.resolutionException = cause;
+		this.candidateCacheHits = candidateCacheHits;
+		this.candidateCacheMisses = candidateCacheMisses;
 	}
 
 	@Override
@@ -88,6 +106,24 @@ class ModuleResolutionReport implements ResolutionReport {
 		return resolutionResult;
 	}
 
+	/**
+	 * Returns the number of requirements for which the provider chosen by a previous
+	 * resolve operation was found and offered to the resolver first.
+	 * @return the number of candidate cache hits
+	 */
+	int getCandidateCacheHits() {
+		return candidateCacheHits;
+	}
+
+	/**
+	 * Returns the number of requirements for which no provider chosen by a previous
+	 * resolve operation was found.  Always zero if the candidate cache is disabled.
+	 * @return the number of candidate cache misses
+	 */
+	int getCandidateCacheMisses() {
+		return candidateCacheMisses;
+	}
+
 	private static String getResolutionReport0(String prepend, ModuleRevision revision, Map<Resource, List<ResolutionReport.Entry>> reportEntries, Set<BundleRevision> visited) {
 		if (prepend == null) {
 			prepend = ""; //$NON-NLS-1$
@@ -35,6 +35,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import org.apache.felix.resolver.Logger;
 import org.apache.felix.resolver.ResolutionError;
+import org.apache.felix.resolver.ResolvedPackageSpaces;
 import org.apache.felix.resolver.ResolverImpl;
 import org.eclipse.osgi.container.ModuleRequirement.DynamicModuleRequirement;
 import org.eclipse.osgi.container.namespaces.EquinoxFragmentNamespace;
@@ -47,6 +48,7 @@ import org.eclipse.osgi.report.resolution.ResolutionReport;
 import org.eclipse.osgi.report.resolution.ResolutionReport.Entry;
 import org.eclipse.osgi.report.resolution.ResolutionReport.Entry.Type;
 import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.util.ManifestElement;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Version;
 import org.osgi.framework.hooks.resolver.ResolverHook;
@@ -97,6 +99,7 @@ final class ModuleResolver {
 	private static final int DEFAULT_BATCH_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(2);
 	final int resolverRevisionBatchSize;
 	final int resolverBatchTimeout;
+	final ResolvedPackageSpaces resolvedPackageSpaces;
 
 	void setDebugOptions() {
 		DebugOptions options = adaptor.getDebugOptions();
@@ -133,7 +136,7 @@ final class ModuleResolver {
 		this.resolverRevisionBatchSize = parseInteger(batchSizeConfig, DEFAULT_BATCH_SIZE, 1);
 		String batchTimeoutConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_BATCH_TIMEOUT);
 		this.resolverBatchTimeout = parseInteger(batchTimeoutConfig, DEFAULT_BATCH_TIMEOUT, BATCH_MIN_TIMEOUT);
-
+		this.resolvedPackageSpaces = Boolean.parseBoolean(this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_INCREMENTAL)) ? new ResolvedPackageSpaces() : null;
 	}
 
 	private static int parseInteger(String sInteger, int defaultValue, int minValue) {
@@ -507,10 +510,253 @@ final class ModuleResolver {
 		return version instanceof Version ? (Version) version : Version.emptyVersion;
 	}
 
+	static int compareProviders(Capability c1, Capability c2, Set<? extends Resource> previouslyResolved) {
+		// TODO Ideally this policy should be handled by the ModuleDatabase.
+		// To do that the wirings would have to be provided since the wirings may
+		// be a subset of the current wirings provided by the ModuleDatabase
+		boolean resolved1 = previouslyResolved.contains(c1.getResource());
+		boolean resolved2 = previouslyResolved.contains(c2.getResource());
+		if (resolved1 != resolved2)
+			return resolved1 ? -1 : 1;
+
+		Version v1 = getVersion(c1);
+		Version v2 = getVersion(c2);
+		int versionCompare = -(v1.compareTo(v2));
+		if (versionCompare != 0)
+			return versionCompare;
+
+		ModuleRevision m1 = getModuleRevision(c1);
+		ModuleRevision m2 = getModuleRevision(c2);
+		Long id1 = m1.getRevisions().getModule().getId();
+		Long id2 = m2.getRevisions().getModule().getId();
+
+		if (id1.equals(id2) && !m1.equals(m2)) {
+			// sort based on revision ordering
+			List<ModuleRevision> revisions = m1.getRevisions().getModuleRevisions();
+			int index1 = revisions.indexOf(m1);
+			int index2 = revisions.indexOf(m2);
+			// we want to sort the indexes from highest to lowest
+			return index2 - index1;
+		}
+		return id1.compareTo(id2);
+	}
+
+	static ModuleRevision getModuleRevision(Capability c) {
+		// We assume all capabilities here either come from us and have ModuleRevision resources or
+		// they are HostedCapabilities which have ModuleRevision resources as the host revision
+		if (c instanceof HostedCapability) {
+			c = ((HostedCapability) c).getDeclaredCapability();
+		}
+		if (c instanceof ModuleCapability) {
+			return ((ModuleCapability) c).getRevision();
+		}
+		// TODO is there some bug in the resolver?
+		return null;
+	}
+
+	/**
+	 * Returns the providers of already resolved revisions for a dynamic package requirement
+	 * in the order a resolve process prefers them.  The providers are not filtered by permissions
+	 * or resolver hooks.  The providers are cached until the revisions or the wirings change.
+	 * <p>
+	 * The caller must hold the database read lock.
+	 * @param dynamicReq the dynamic package requirement
+	 * @param moduleDatabase the module database
+	 * @return the providers or {@code null} if the dynamic resolver cache is disabled
+	 */
+	List<ModuleCapability> getDynamicProviders(DynamicModuleRequirement dynamicReq, ModuleDatabase moduleDatabase) {
+		ModuleResolverDynamicCache dynamicCache = moduleDatabase.dynamicCache;
+		String filter = dynamicReq.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+		if (dynamicCache == null || filter == null) {
+			return null;
+		}
+		long timestamp = moduleDatabase.getRevisionsTimestamp();
+		List<ModuleCapability> providers = dynamicCache.getProviders(filter, timestamp);
+		if (providers == null) {
+			final Map<ModuleRevision, ModuleWiring> wirings = moduleDatabase.wirings;
+			providers = moduleDatabase.findCapabilities(dynamicReq);
+			removeNonEffectiveCapabilities(providers.listIterator());
+			for (Iterator<ModuleCapability> iProviders = providers.iterator(); iProviders.hasNext();) {
+				ModuleCapability provider = iProviders.next();
+				ModuleWiring wiring = wirings.get(provider.getRevision());
+				// unresolved providers are only used by a resolve process
+				if (wiring == null || wiring.isSubtituted(provider)) {
+					iProviders.remove();
+				}
+			}
+			Collections.sort(providers, new Comparator<Capability>() {
+				@Override
+				public int compare(Capability c1, Capability c2) {
+					return compareProviders(c1, c2, wirings.keySet());
+				}
+			});
+			providers = Collections.unmodifiableList(providers);
+			dynamicCache.putProviders(filter, providers, timestamp);
+		}
+		return providers;
+	}
+
+	/**
+	 * Returns the most preferred provider for a dynamic package requirement which is
+	 * not filtered by the resolver hooks.
+	 * <p>
+	 * The caller must not hold the database lock.
+	 * @param dynamicReq the dynamic package requirement
+	 * @param providers the providers returned by {@link #getDynamicProviders(DynamicModuleRequirement, ModuleDatabase)}
+	 * @return the provider or {@code null} if a resolve process must be used
+	 * @throws ResolutionException if the resolver hook factory rejects the resolve
+	 */
+	ModuleCapability filterDynamicProviders(DynamicModuleRequirement dynamicReq, List<ModuleCapability> providers) throws ResolutionException {
+		if (threadResolving()) {
+			// let the resolve process report the recursive resolve
+			return null;
+		}
+		threadResolving.set(Boolean.TRUE);
+		try {
+			ResolverHook hook;
+			try {
+				hook = adaptor.getResolverHookFactory().begin(InternalUtils.asListBundleRevision(Collections.singletonList(dynamicReq.getRevision())));
+			} catch (RuntimeException e) {
+				// fail like the resolve process; other hook failures are thrown to the caller
+				if (e.getCause() instanceof BundleException && ((BundleException) e.getCause()).getType() == BundleException.REJECTED_BY_HOOK) {
+					throw new ResolutionException(e.getCause());
+				}
+				throw e;
+			}
+			try {
+				List<ModuleCapability> candidates = new ArrayList<>(providers);
+				hook.filterMatches(dynamicReq.getOriginal(), InternalUtils.asListBundleCapability(candidates));
+				return candidates.isEmpty() ? null : candidates.get(0);
+			} finally {
+				hook.end();
+			}
+		} finally {
+			threadResolving.set(Boolean.FALSE);
+		}
+	}
+
+	/**
+	 * Returns a delta which wires a dynamic package requirement to a provider of an already
+	 * resolved revision without a resolve process.  This is only possible if the new wire
+	 * cannot violate the uses constraints of the package space of the requiring revision;
+	 * the provider must not use other packages and the package must not be in the package
+	 * space of the requiring revision yet.
+	 * <p>
+	 * The caller must hold the database read lock.
+	 * @param dynamicReq the dynamic package requirement
+	 * @param provider the provider returned by {@link #filterDynamicProviders(DynamicModuleRequirement, List)}
+	 * @param moduleDatabase the module database
+	 * @return the delta or {@code null} if a resolve process must be used
+	 */
+	Map<ModuleRevision, ModuleWiring> resolveDynamicProvider(DynamicModuleRequirement dynamicReq, ModuleCapability provider, ModuleDatabase moduleDatabase) {
+		ModuleRevision revision = dynamicReq.getRevision();
+		ModuleRevision providerRevision = provider.getRevision();
+		ModuleWiring wiring = moduleDatabase.wirings.get(revision);
+		ModuleWiring providerWiring = moduleDatabase.wirings.get(providerRevision);
+		if (wiring == null || providerWiring == null || revision.equals(providerRevision)) {
+			return null;
+		}
+		if ((providerRevision.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0) {
+			// the package is provided by the host; let the resolve process handle it
+			return null;
+		}
+		if (provider.getDirectives().containsKey(Namespace.CAPABILITY_USES_DIRECTIVE) || !providerWiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE).contains(provider)) {
+			return null;
+		}
+		if (isInPackageSpace((String) provider.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE), wiring)) {
+			return null;
+		}
+		ModuleWire wire = new ModuleWire(provider, providerRevision, dynamicReq.getOriginal(), revision);
+		Map<ModuleRevision, ModuleWiring> wiringCopy = new HashMap<>(4);
+		wiringCopy.put(revision, wiring);
+		wiringCopy.put(providerRevision, providerWiring);
+		return generateDelta(Collections.<Resource, List<Wire>> singletonMap(revision, Collections.<Wire> singletonList(wire)), wiringCopy);
+	}
+
+	/*
+	 * Returns true if the package may already be in the package space of the wiring,
+	 * either because the wiring is wired to the package or because a capability the
+	 * wiring is wired to uses the package directly or through the uses constraints of
+	 * other packages.  The packages of required bundles are followed regardless of
+	 * their visibility, so this errs on the side of returning true.
+	 */
+	private static boolean isInPackageSpace(String pkgName, ModuleWiring wiring) {
+		Map<ModuleCapability, ModuleWiring> providers = new HashMap<>();
+		LinkedList<ModuleCapability> toVisit = new LinkedList<>();
+		addPackageSources(wiring, null, providers, toVisit);
+		while (!toVisit.isEmpty()) {
+			ModuleCapability capability = toVisit.removeFirst();
+			if (PackageNamespace.PACKAGE_NAMESPACE.equals(capability.getNamespace()) && pkgName.equals(capability.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+				return true;
+			}
+			String uses = capability.getDirectives().get(Namespace.CAPABILITY_USES_DIRECTIVE);
+			if (uses == null) {
+				continue;
+			}
+			ModuleWiring provider = providers.get(capability);
+			if (provider == null) {
+				// cannot follow the uses constraints
+				return true;
+			}
+			for (String usedName : ManifestElement.getArrayFromList(uses, ",")) { //$NON-NLS-1$
+				if (pkgName.equals(usedName)) {
+					return true;
+				}
+				addPackageSources(provider, usedName, providers, toVisit);
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Adds the sources of a package in the package space of a wiring, or all the
+	 * capabilities the wiring is wired to if the package name is null.
+	 */
+	private static void addPackageSources(ModuleWiring wiring, String pkgName, Map<ModuleCapability, ModuleWiring> providers, List<ModuleCapability> toVisit) {
+		if (pkgName != null) {
+			addPackages(wiring, pkgName, providers, toVisit);
+		}
+		Set<ModuleWiring> requiredBundles = new HashSet<>();
+		for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+			String namespace = wire.getCapability().getNamespace();
+			if (BundleNamespace.BUNDLE_NAMESPACE.equals(namespace)) {
+				addRequiredBundle(wire.getProviderWiring(), pkgName, providers, toVisit, requiredBundles);
+			} else if (pkgName == null || (PackageNamespace.PACKAGE_NAMESPACE.equals(namespace) && pkgName.equals(wire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE)))) {
+				addPackageSource(wire.getCapability(), wire.getProviderWiring(), providers, toVisit);
+			}
+		}
+	}
+
+	private static void addRequiredBundle(ModuleWiring requiredWiring, String pkgName, Map<ModuleCapability, ModuleWiring> providers, List<ModuleCapability> toVisit, Set<ModuleWiring> requiredBundles) {
+		if (requiredWiring == null || !requiredBundles.add(requiredWiring)) {
+			return;
+		}
+		addPackages(requiredWiring, pkgName, providers, toVisit);
+		for (ModuleWire wire : requiredWiring.getRequiredModuleWires(BundleNamespace.BUNDLE_NAMESPACE)) {
+			addRequiredBundle(wire.getProviderWiring(), pkgName, providers, toVisit, requiredBundles);
+		}
+	}
+
+	private static void addPackages(ModuleWiring wiring, String pkgName, Map<ModuleCapability, ModuleWiring> providers, List<ModuleCapability> toVisit) {
+		for (ModuleCapability capability : wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE)) {
+			if (pkgName == null || pkgName.equals(capability.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+				addPackageSource(capability, wiring, providers, toVisit);
+			}
+		}
+	}
+
+	private static void addPackageSource(ModuleCapability capability, ModuleWiring provider, Map<ModuleCapability, ModuleWiring> providers, List<ModuleCapability> toVisit) {
+		if (!providers.containsKey(capability)) {
+			providers.put(capability, provider);
+			toVisit.add(capability);
+		}
+	}
+
 	class ResolveProcess extends ResolveContext implements Comparator<Capability>, Executor {
 
 		class ResolveLogger extends Logger {
 			private Map<Resource, ResolutionException> errors = null;
+			private int violationCount = 0;
 
 			public ResolveLogger() {
 				super(DEBUG_USES ? Logger.LOG_DEBUG : 0);
@@ -522,6 +768,7 @@ final class ModuleResolver {
 					errors = new HashMap<>();
 				}
 				errors.put(resource, error.toException());
+				violationCount++;
 				if (DEBUG_USES) {
 					Debug.println(new StringBuilder("RESOLVER: Uses constraint violation") //$NON-NLS-1$
 							.append(SEPARATOR).append(TAB) //
@@ -540,6 +787,10 @@ final class ModuleResolver {
 				return errors == null ? Collections.<Resource, ResolutionException> emptyMap() : errors;
 			}
 
+			int getUsesConstraintViolationCount() {
+				return violationCount;
+			}
+
 			@Override
 			public boolean isDebugEnabled() {
 				return DEBUG_USES;
@@ -594,6 +845,8 @@ final class ModuleResolver {
 		 * has occurred.
 		 */
 		private final Map<Resource, Map<Requirement, Set<Capability>>> unresolvedProviders = new HashMap<>();
+		// the resolver candidate cache keys of the revisions, requirements and capabilities looked at by this process
+		private ModuleResolverCandidates.Keys candidateKeys;
 
 		ResolveProcess(Collection<ModuleRevision> unresolved, Collection<ModuleRevision> triggers, boolean triggersMandatory, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
 			this.unresolved = unresolved;
@@ -647,6 +900,7 @@ final class ModuleResolver {
 			}
 			List<ModuleCapability> candidates = moduleDatabase.findCapabilities(lookupReq);
 			List<Capability> result = filterProviders(origReq, candidates);
+			preferChosenProvider(origReq, result);
 			if (DEBUG_PROVIDERS) {
 				StringBuilder builder = new StringBuilder("RESOLVER: Capabilities being returned to the resolver"); //$NON-NLS-1$
 				int i = 0;
@@ -664,6 +918,36 @@ final class ModuleResolver {
 			return result;
 		}
 
+		/*
+		 * Moves the provider chosen for the requirement by a previous resolve operation
+		 * to the front of the candidates so the resolver tries the known solution first.
+		 */
+		private void preferChosenProvider(Requirement requirement, List<Capability> candidates) {
+			ModuleResolverCandidates resolverCandidates = moduleDatabase.resolverCandidates;
+			if (resolverCandidates == null || dynamicReq != null || candidates.isEmpty() || !(requirement instanceof ModuleRequirement)) {
+				return;
+			}
+			if (candidateKeys == null) {
+				candidateKeys = resolverCandidates.newKeys();
+			}
+			ModuleRequirement moduleRequirement = (ModuleRequirement) requirement;
+			Map<String, String> choices = resolverCandidates.getChoices(candidateKeys.getRevisionKey(moduleRequirement.getRevision()));
+			String chosen = choices == null ? null : choices.get(candidateKeys.getRequirementKey(moduleRequirement));
+			if (chosen != null) {
+				for (int i = 0; i < candidates.size(); i++) {
+					ModuleCapability candidate = (ModuleCapability) candidates.get(i);
+					if (chosen.equals(candidateKeys.getProviderKey(candidate))) {
+						if (i > 0) {
+							candidates.add(0, candidates.remove(i));
+						}
+						reportBuilder.candidateCacheHit();
+						return;
+					}
+				}
+			}
+			reportBuilder.candidateCacheMiss();
+		}
+
 		private List<Capability> filterProviders(Requirement requirement, List<ModuleCapability> candidates) {
 			return filterProviders(requirement, candidates, true);
 		}
@@ -998,6 +1282,9 @@ final class ModuleResolver {
 						printWirings(result);
 					}
 					report = reportBuilder.build(result, re);
+					if (DEBUG_REPORT && moduleDatabase.resolverCandidates != null) {
+						Debug.println("RESOLVER: Candidate cache hits: " + report.getCandidateCacheHits() + " misses: " + report.getCandidateCacheMisses()); //$NON-NLS-1$ //$NON-NLS-2$
+					}
 					if (DEBUG_REPORT) {
 						if (report.getResolutionException() != null) {
 							Debug.printStackTrace(report.getResolutionException());
@@ -1112,7 +1399,7 @@ final class ModuleResolver {
 			Map<Resource, List<Wire>> interimResults = null;
 			try {
 				transitivelyResolveFailures.addAll(revisions);
-				interimResults = new ResolverImpl(logger, this).resolve(this);
+				interimResults = resolve(logger);
 				applyInterimResultToWiringCopy(interimResults);
 				if (DEBUG_ROOTS) {
 					Debug.println("Resolver: resolved " + interimResults.size() + " bundles."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -1153,6 +1440,31 @@ final class ModuleResolver {
 			}
 		}
 
+		private Map<Resource, List<Wire>> resolve(ResolveLogger logger) throws ResolutionException {
+			if (resolvedPackageSpaces == null) {
+				return new ResolverImpl(logger, this).resolve(this);
+			}
+			// forget the package spaces of revisions which are no longer resolved
+			resolvedPackageSpaces.retainAll(wirings.keySet());
+			int violationCount = logger.getUsesConstraintViolationCount();
+			try {
+				Map<Resource, List<Wire>> result = new ResolverImpl(logger, this, resolvedPackageSpaces).resolve(this);
+				if (logger.getUsesConstraintViolationCount() == violationCount) {
+					return result;
+				}
+			} catch (ResolutionException e) {
+				if (e.getCause() instanceof CancellationException || logger.getUsesConstraintViolationCount() == violationCount) {
+					throw e;
+				}
+			}
+			// A uses constraint violation was found while reusing the package spaces of
+			// resolved revisions; resolve again calculating all the package spaces.
+			if (DEBUG_ROOTS) {
+				Debug.println("Resolver: resolving again without the resolved package spaces."); //$NON-NLS-1$
+			}
+			return new ResolverImpl(logger, this).resolve(this);
+		}
+
 		private void applyInterimResultToWiringCopy(Map<Resource, List<Wire>> interimResult) {
 			if (!interimResult.isEmpty()) {
 				// update the copy of wirings to include interim results
@@ -1583,47 +1895,7 @@ final class ModuleResolver {
 
 		@Override
 		public int compare(Capability c1, Capability c2) {
-			// TODO Ideally this policy should be handled by the ModuleDatabase.
-			// To do that the wirings would have to be provided since the wirings may
-			// be a subset of the current wirings provided by the ModuleDatabase
-			boolean resolved1 = previouslyResolved.contains(c1.getResource());
-			boolean resolved2 = previouslyResolved.contains(c2.getResource());
-			if (resolved1 != resolved2)
-				return resolved1 ? -1 : 1;
-
-			Version v1 = getVersion(c1);
-			Version v2 = getVersion(c2);
-			int versionCompare = -(v1.compareTo(v2));
-			if (versionCompare != 0)
-				return versionCompare;
-
-			ModuleRevision m1 = getModuleRevision(c1);
-			ModuleRevision m2 = getModuleRevision(c2);
-			Long id1 = m1.getRevisions().getModule().getId();
-			Long id2 = m2.getRevisions().getModule().getId();
-
-			if (id1.equals(id2) && !m1.equals(m2)) {
-				// sort based on revision ordering
-				List<ModuleRevision> revisions = m1.getRevisions().getModuleRevisions();
-				int index1 = revisions.indexOf(m1);
-				int index2 = revisions.indexOf(m2);
-				// we want to sort the indexes from highest to lowest
-				return index2 - index1;
-			}
-			return id1.compareTo(id2);
-		}
-
-		ModuleRevision getModuleRevision(Capability c) {
-			// We assume all capabilities here either come from us and have ModuleRevision resources or
-			// they are HostedCapabilities which have ModuleRevision resources as the host revision
-			if (c instanceof HostedCapability) {
-				c = ((HostedCapability) c).getDeclaredCapability();
-			}
-			if (c instanceof ModuleCapability) {
-				return ((ModuleCapability) c).getRevision();
-			}
-			// TODO is there some bug in the resolver?
-			return null;
+			return compareProviders(c1, c2, previouslyResolved);
 		}
 
 		@Override
@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.container;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Remembers the providers chosen for the requirements of resolved revisions so
+ * that the resolver can try the same providers first when the revisions are
+ * resolved again, for example after they were refreshed or the framework was
+ * restarted.
+ * <p>
+ * Revisions are identified by their location, symbolic name, version and content
+ * timestamp so that the choices survive a restart and are forgotten when the content
+ * of a revision changes.  A requirement is identified by its namespace and its index
+ * in the requirements of that namespace; a capability likewise.  The choices are only
+ * hints used to order the candidates found for a requirement; a chosen provider that
+ * no longer matches the requirement is never returned.
+ * <p>
+ * This class is thread safe.
+ */
+final class ModuleResolverCandidates {
+	private static final int VERSION = 1;
+	private static final char SEPARATOR = '\u0000';
+
+	// revision key -> requirement key -> provider key
+	private final Map<String, Map<String, String>> choices = new HashMap<>();
+	private final ModuleContainerAdaptor adaptor;
+
+	ModuleResolverCandidates(ModuleContainerAdaptor adaptor) {
+		this.adaptor = adaptor;
+	}
+
+	String getKey(ModuleRevision revision) {
+		Module module = revision.getRevisions().getModule();
+		return new StringBuilder(module.getLocation()).append(SEPARATOR) //
+				.append(revision.getSymbolicName()).append(SEPARATOR) //
+				.append(revision.getVersion()).append(SEPARATOR) //
+				.append(adaptor.getContentTimestamp(revision)).toString();
+	}
+
+	/**
+	 * Returns new keys for one resolve process or one recording of wirings.
+	 * @return the keys
+	 */
+	Keys newKeys() {
+		return new Keys();
+	}
+
+	/**
+	 * Computes the keys of the revisions, requirements and capabilities looked at
+	 * by one resolve process.  The index of each requirement and capability in the
+	 * list of its namespace is computed once for all the requirements or capabilities
+	 * of the same revision and namespace instead of searching the list every time.
+	 * <p>
+	 * This class is not thread safe.
+	 */
+	final class Keys {
+		private final Map<ModuleRevision, String> revisionKeys = new HashMap<>();
+		private final Map<Object, Integer> indexes = new HashMap<>();
+
+		private Keys() {
+			// use newKeys()
+		}
+
+		String getRevisionKey(ModuleRevision revision) {
+			String key = revisionKeys.get(revision);
+			if (key == null) {
+				key = getKey(revision);
+				revisionKeys.put(revision, key);
+			}
+			return key;
+		}
+
+		String getRequirementKey(ModuleRequirement requirement) {
+			String namespace = requirement.getNamespace();
+			return namespace + SEPARATOR + getIndex(requirement, requirement.getRevision().getModuleRequirements(namespace));
+		}
+
+		String getProviderKey(ModuleCapability capability) {
+			ModuleRevision revision = capability.getRevision();
+			return getRevisionKey(revision) + SEPARATOR + getIndex(capability, revision.getModuleCapabilities(capability.getNamespace()));
+		}
+
+		private int getIndex(Object element, List<?> elements) {
+			Integer index = indexes.get(element);
+			if (index == null) {
+				for (int i = 0; i < elements.size(); i++) {
+					Object current = elements.get(i);
+					// keep the first index like List.indexOf
+					if (!indexes.containsKey(current)) {
+						indexes.put(current, Integer.valueOf(i));
+					}
+				}
+				index = indexes.get(element);
+			}
+			return index == null ? -1 : index.intValue();
+		}
+	}
+
+	/**
+	 * Returns the chosen providers of the requirements of a revision.
+	 * @param revisionKey the key of the revision
+	 * @return the provider keys by requirement key, or {@code null} if
+	 * nothing is known about the revision
+	 */
+	Map<String, String> getChoices(String revisionKey) {
+		synchronized (choices) {
+			return choices.get(revisionKey);
+		}
+	}
+
+	/**
+	 * Records the providers chosen for the requirements of newly resolved wirings.
+	 * Only the first provider of each requirement is recorded.
+	 * @param wirings the new wirings
+	 */
+	void record(Map<ModuleRevision, ModuleWiring> wirings) {
+		Keys keys = newKeys();
+		Map<String, Map<String, String>> recorded = new HashMap<>();
+		for (ModuleWiring wiring : wirings.values()) {
+			for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+				ModuleRequirement requirement = wire.getRequirement();
+				ModuleCapability capability = wire.getCapability();
+				String revisionKey = keys.getRevisionKey(requirement.getRevision());
+				Map<String, String> revisionChoices = recorded.get(revisionKey);
+				if (revisionChoices == null) {
+					revisionChoices = new HashMap<>();
+					recorded.put(revisionKey, revisionChoices);
+				}
+				String requirementKey = keys.getRequirementKey(requirement);
+				if (!revisionChoices.containsKey(requirementKey)) {
+					revisionChoices.put(requirementKey, keys.getProviderKey(capability));
+				}
+			}
+		}
+		synchronized (choices) {
+			choices.putAll(recorded);
+		}
+	}
+
+	/**
+	 * Writes the choices of the specified revisions.  The choices of revisions which
+	 * are no longer installed are dropped.
+	 * @param out the output stream
+	 * @param revisions the installed revisions
+	 * @throws IOException if an error occurs writing to the output stream
+	 */
+	void store(DataOutputStream out, Collection<ModuleRevision> revisions) throws IOException {
+		Map<String, Map<String, String>> current = new HashMap<>();
+		synchronized (choices) {
+			for (ModuleRevision revision : revisions) {
+				String key = getKey(revision);
+				Map<String, String> revisionChoices = choices.get(key);
+				if (revisionChoices != null) {
+					current.put(key, revisionChoices);
+				}
+			}
+			choices.keySet().retainAll(current.keySet());
+		}
+		out.writeInt(VERSION);
+		out.writeInt(current.size());
+		for (Map.Entry<String, Map<String, String>> revisionChoices : current.entrySet()) {
+			out.writeUTF(revisionChoices.getKey());
+			out.writeInt(revisionChoices.getValue().size());
+			for (Map.Entry<String, String> choice : revisionChoices.getValue().entrySet()) {
+				out.writeUTF(choice.getKey());
+				out.writeUTF(choice.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Reads the choices written by {@link #store(DataOutputStream, Collection)} and
+	 * adds them to the choices already known.
+	 * @param in the input stream
+	 * @throws IOException if an error occurs reading from the input stream
+	 */
+	void load(DataInputStream in) throws IOException {
+		if (in.readInt() != VERSION) {
+			// choices from a different version are ignored
+			return;
+		}
+		// share the strings of the provider keys
+		Map<String, String> providerKeys = new HashMap<>();
+		Map<String, Map<String, String>> loaded = new HashMap<>();
+		int numRevisions = in.readInt();
+		for (int i = 0; i < numRevisions; i++) {
+			String revisionKey = in.readUTF();
+			int numChoices = in.readInt();
+			Map<String, String> revisionChoices = new HashMap<>(numChoices * 4 / 3 + 1);
+			for (int j = 0; j < numChoices; j++) {
+				String requirementKey = in.readUTF();
+				String providerKey = in.readUTF();
+				String existing = providerKeys.get(providerKey);
+				if (existing == null) {
+					providerKeys.put(providerKey, providerKey);
+				} else {
+					providerKey = existing;
+				}
+				revisionChoices.put(requirementKey, providerKey);
+			}
+			loaded.put(revisionKey, revisionChoices);
+		}
+		synchronized (choices) {
+			for (Map.Entry<String, Map<String, String>> revisionChoices : loaded.entrySet()) {
+				if (!choices.containsKey(revisionChoices.getKey())) {
+					choices.put(revisionChoices.getKey(), revisionChoices.getValue());
+				}
+			}
+		}
+	}
+}
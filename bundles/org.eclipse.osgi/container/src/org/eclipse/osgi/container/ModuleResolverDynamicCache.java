@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.container;
+
+import java.util.*;
+
+/**
+ * Remembers the providers found for dynamic package requirements so that
+ * other revisions dynamically importing the same packages do not need to
+ * search and sort the providers again.
+ * <p>
+ * The providers are keyed by the filter of the dynamic requirement and are
+ * sorted in the order a resolve process prefers them.  The order depends on
+ * the installed revisions and which of them are resolved, so the providers are
+ * only valid for the {@link ModuleDatabase#getRevisionsTimestamp() revisions
+ * timestamp} they were found with.  Merging wirings which only add wires to
+ * already resolved revisions, as dynamic imports do, keeps the providers valid.
+ * <p>
+ * This class is thread safe.
+ */
+final class ModuleResolverDynamicCache {
+	// the revisions timestamp the providers are valid for
+	private long timestamp = -1;
+	private final Map<String, List<ModuleCapability>> providers = new HashMap<>();
+
+	/**
+	 * Returns the providers for a dynamic requirement filter.
+	 * @param filter the filter of the dynamic requirement
+	 * @param revisionsTimestamp the current revisions timestamp of the database
+	 * @return the sorted providers or {@code null} if they are not known
+	 * for the current revisions timestamp
+	 */
+	synchronized List<ModuleCapability> getProviders(String filter, long revisionsTimestamp) {
+		return timestamp == revisionsTimestamp ? providers.get(filter) : null;
+	}
+
+	/**
+	 * Adds the providers found for a dynamic requirement filter.
+	 * @param filter the filter of the dynamic requirement
+	 * @param sortedProviders the sorted providers
+	 * @param revisionsTimestamp the revisions timestamp of the database the
+	 * providers were found with
+	 */
+	synchronized void putProviders(String filter, List<ModuleCapability> sortedProviders, long revisionsTimestamp) {
+		if (revisionsTimestamp != timestamp) {
+			// the providers found with other timestamps are no longer valid
+			providers.clear();
+			timestamp = revisionsTimestamp;
+		}
+		providers.put(filter, sortedProviders);
+	}
+
+	/**
+	 * Called when wirings are merged into the database while holding the write lock.
+	 * @param oldTimestamp the revisions timestamp before the merge
+	 * @param newTimestamp the revisions timestamp after the merge
+	 * @param wiresOnly true if the merge only added wires to already resolved revisions
+	 */
+	synchronized void wiringsMerged(long oldTimestamp, long newTimestamp, boolean wiresOnly) {
+		if (wiresOnly && timestamp == oldTimestamp) {
+			timestamp = newTimestamp;
+		}
+	}
+}
@@ -12,6 +12,7 @@ package org.eclipse.osgi.container;
 
 import java.security.AllPermission;
 import java.util.*;
+import org.eclipse.osgi.internal.container.CompactMap;
 import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.osgi.framework.*;
 import org.osgi.framework.namespace.HostNamespace;
@@ -274,19 +275,8 @@ public final class ModuleRevisionBuilder {
 		if (infos == null) {
 			infos = new ArrayList<>();
 		}
-		infos.add(new GenericInfo(namespace, copyUnmodifiableMap(directives), copyUnmodifiableMap(attributes)));
-	}
-
-	private static <K, V> Map<K, V> copyUnmodifiableMap(Map<K, V> map) {
-		int size = map.size();
-		if (size == 0) {
-			return Collections.emptyMap();
-		}
-		if (size == 1) {
-			Map.Entry<K, V> entry = map.entrySet().iterator().next();
-			return Collections.singletonMap(entry.getKey(), entry.getValue());
-		}
-		return Collections.unmodifiableMap(new HashMap<>(map));
+		// identical directives and attributes are common across revisions; share a canonical copy
+		infos.add(new GenericInfo(namespace, CompactMap.canonicalize(directives), CompactMap.<Object> canonicalize(attributes)));
 	}
 
 	void basicAddCapability(String namespace, Map<String, String> directives, Map<String, Object> attributes) {
@@ -310,6 +300,9 @@ public final class ModuleRevisionBuilder {
 		if (size == 0) {
 			return Collections.emptyMap();
 		}
+		if (map instanceof CompactMap) {
+			return (Map<K, V>) map;
+		}
 		if (size == 1) {
 			if (map.getClass() != SINGLETON_MAP_CLASS) {
 				Map.Entry<? extends K, ? extends V> entry = map.entrySet().iterator().next();
@@ -109,24 +109,15 @@ public class Capabilities {
 			}
 		}
 
-		List<ModuleCapability> findCapabilities(Requirement requirement) {
+		List<ModuleCapability> findCapabilities(Requirement requirement, FilterImpl f) {
 			if (!name.equals(requirement.getNamespace())) {
 				throw new IllegalArgumentException("Invalid namespace: " + requirement.getNamespace() + ": expecting: " + name); //$NON-NLS-1$//$NON-NLS-2$
 			}
-			FilterImpl f = null;
-			String filterSpec = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
-			if (filterSpec != null) {
-				try {
-					f = FilterImpl.newInstance(filterSpec);
-				} catch (InvalidSyntaxException e) {
-					return Collections.emptyList();
-				}
-			}
 			Object syntheticAttr = requirement.getAttributes().get(SYNTHETIC_REQUIREMENT);
 			boolean synthetic = syntheticAttr instanceof Boolean ? ((Boolean) syntheticAttr).booleanValue() : false;
 
 			List<ModuleCapability> result;
-			if (filterSpec == null) {
+			if (f == null) {
 				result = match(null, all, synthetic);
 			} else {
 				String indexKey = f.getPrimaryKeyValue(name);
@@ -179,6 +170,9 @@ public class Capabilities {
 			if (f == null) {
 				return false;
 			}
+			if (f instanceof FilterImpl) {
+				return allMandatoryPresent(mandatory, ((FilterImpl) f).getComparedAttributes());
+			}
 			Matcher matcher = MANDATORY_ATTR.matcher(f.toString());
 			String[] mandatoryAttrs = ManifestElement.getArrayFromList(mandatory, ","); //$NON-NLS-1$
 			boolean allPresent = true;
@@ -200,6 +194,44 @@ public class Capabilities {
 		return true;
 	}
 
+	/**
+	 * Checks that each attribute listed in the mandatory directive value is one
+	 * of the compared attributes without splitting the directive value.
+	 */
+	private static boolean allMandatoryPresent(String mandatory, Set<String> comparedAttributes) {
+		int length = mandatory.length();
+		int start = 0;
+		while (start < length) {
+			int end = mandatory.indexOf(',', start);
+			if (end < 0) {
+				end = length;
+			}
+			int tokenStart = start;
+			int tokenEnd = end;
+			while (tokenStart < tokenEnd && Character.isWhitespace(mandatory.charAt(tokenStart))) {
+				tokenStart++;
+			}
+			while (tokenEnd > tokenStart && Character.isWhitespace(mandatory.charAt(tokenEnd - 1))) {
+				tokenEnd--;
+			}
+			int tokenLength = tokenEnd - tokenStart;
+			if (tokenLength > 0) {
+				boolean found = false;
+				for (String attr : comparedAttributes) {
+					if (attr.length() == tokenLength && mandatory.regionMatches(tokenStart, attr, 0, tokenLength)) {
+						found = true;
+						break;
+					}
+				}
+				if (!found) {
+					return false;
+				}
+			}
+			start = end + 1;
+		}
+		return true;
+	}
+
 	Map<String, NamespaceSet> namespaceSets = new HashMap<>();
 
 	/**
@@ -257,10 +289,32 @@ public class Capabilities {
 	 * @return the candidates for the requirement
 	 */
 	public List<ModuleCapability> findCapabilities(Requirement requirement) {
+		FilterImpl f = null;
+		String filterSpec = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+		if (filterSpec != null) {
+			try {
+				f = FilterImpl.newInstance(filterSpec);
+			} catch (InvalidSyntaxException e) {
+				return Collections.emptyList();
+			}
+		}
+		return findCapabilities(requirement, f);
+	}
+
+	/**
+	 * Returns a mutable snapshot of capabilities that are candidates for 
+	 * satisfying the specified requirement using the already parsed
+	 * filter of the requirement.
+	 * @param requirement the requirement
+	 * @param f the parsed filter directive of the requirement or {@code null}
+	 * if the requirement has no filter
+	 * @return the candidates for the requirement
+	 */
+	public List<ModuleCapability> findCapabilities(Requirement requirement, FilterImpl f) {
 		NamespaceSet namespaceSet = namespaceSets.get(requirement.getNamespace());
 		if (namespaceSet == null) {
 			return Collections.emptyList();
 		}
-		return namespaceSet.findCapabilities(requirement);
+		return namespaceSet.findCapabilities(requirement, f);
 	}
 }
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.container;
+
+import java.util.*;
+import org.eclipse.osgi.framework.util.ObjectPool;
+
+/**
+ * An immutable map with String keys backed by a sorted key array and
+ * a value array.  This is used for the attributes and directives of
+ * capabilities and requirements which are typically small and often
+ * identical across many revisions.  Maps created with {@link #canonicalize(Map)}
+ * are interned so that equal maps share a single instance.
+ *
+ * @param <V> the type of the values
+ */
+public final class CompactMap<V> extends AbstractMap<String, V> {
+	private final String[] keys;
+	private final Object[] values;
+	private final int hashCode;
+	private transient Set<Map.Entry<String, V>> entrySet;
+
+	private CompactMap(String[] keys, Object[] values) {
+		this.keys = keys;
+		this.values = values;
+		int h = 0;
+		for (int i = 0; i < keys.length; i++) {
+			// same as the hash code specified by Map.Entry
+			h += keys[i].hashCode() ^ (values[i] == null ? 0 : values[i].hashCode());
+		}
+		this.hashCode = h;
+	}
+
+	/**
+	 * Returns an immutable map with the same mappings as the specified map.
+	 * Equal maps will return the same instance as long as the returned map is
+	 * strongly reachable.
+	 * @param map the map to copy
+	 * @return an immutable canonical copy of the map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <V> Map<String, V> canonicalize(Map<String, ? extends V> map) {
+		int size = map.size();
+		if (size == 0) {
+			return Collections.emptyMap();
+		}
+		if (map instanceof CompactMap) {
+			return ObjectPool.intern((Map<String, V>) map);
+		}
+		if (size == 1) {
+			Map.Entry<String, ? extends V> entry = map.entrySet().iterator().next();
+			return ObjectPool.intern(Collections.<String, V> singletonMap(entry.getKey(), entry.getValue()));
+		}
+		String[] keys = new String[size];
+		int i = 0;
+		for (String key : map.keySet()) {
+			if (key == null || i == size) {
+				// not supported; use a plain copy
+				return Collections.unmodifiableMap(new HashMap<String, V>(map));
+			}
+			keys[i++] = key;
+		}
+		Arrays.sort(keys);
+		Object[] values = new Object[size];
+		for (i = 0; i < size; i++) {
+			values[i] = map.get(keys[i]);
+		}
+		return ObjectPool.intern((Map<String, V>) new CompactMap<V>(keys, values));
+	}
+
+	@Override
+	public int size() {
+		return keys.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return keys.length == 0;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public V get(Object key) {
+		int index = indexOf(key);
+		return index < 0 ? null : (V) values[index];
+	}
+
+	private int indexOf(Object key) {
+		if (!(key instanceof String)) {
+			return -1;
+		}
+		return Arrays.binarySearch(keys, key);
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		Set<Map.Entry<String, V>> result = entrySet;
+		if (result == null) {
+			entrySet = result = new AbstractSet<Map.Entry<String, V>>() {
+				@Override
+				public Iterator<Map.Entry<String, V>> iterator() {
+					return new Iterator<Map.Entry<String, V>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext() {
+							return index < keys.length;
+						}
+
+						@SuppressWarnings("unchecked")
+						@Override
+						public Map.Entry<String, V> next() {
+							if (index >= keys.length) {
+								throw new NoSuchElementException();
+							}
+							Map.Entry<String, V> entry = new AbstractMap.SimpleImmutableEntry<>(keys[index], (V) values[index]);
+							index++;
+							return entry;
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return keys.length;
+				}
+			};
+		}
+		return result;
+	}
+
+	@Override
+	public int hashCode() {
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == this) {
+			return true;
+		}
+		if (o instanceof CompactMap) {
+			CompactMap<?> other = (CompactMap<?>) o;
+			return hashCode == other.hashCode && Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+		}
+		return super.equals(o);
+	}
+}
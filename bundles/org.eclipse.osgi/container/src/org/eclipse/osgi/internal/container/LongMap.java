@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.container;
+
+import java.util.Arrays;
+
+/**
+ * A map with primitive <code>long</code> keys which uses open addressing with
+ * linear probing.  This avoids boxing the keys and allocating an entry
+ * object for each mapping.  The hashing and sizing follows the same scheme
+ * as the fastutil based <code>org.apache.felix.resolver.util.OpenHashMap</code>.
+ * <p>
+ * This map is not thread safe.  Null values are not supported.
+ *
+ * @param <V> the type of the values
+ */
+public final class LongMap<V> {
+	private static final float LOAD_FACTOR = 0.75f;
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private long[] keys;
+	private Object[] values;
+	private int mask;
+	private int maxFill;
+	private int size;
+	// the zero key is used to mark free slots so its value is stored separately
+	private boolean containsZeroKey;
+	private Object zeroValue;
+
+	/**
+	 * Creates an empty map.
+	 */
+	public LongMap() {
+		this(16);
+	}
+
+	/**
+	 * Creates an empty map which can hold the expected number of
+	 * mappings without rehashing.
+	 * @param expected the expected number of mappings
+	 */
+	public LongMap(int expected) {
+		if (expected < 0) {
+			throw new IllegalArgumentException("The expected number of elements must be nonnegative: " + expected); //$NON-NLS-1$
+		}
+		allocate(arraySize(expected));
+	}
+
+	/**
+	 * Returns the value mapped to the key.
+	 * @param key the key
+	 * @return the value or <code>null</code> if there is no mapping for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		if (key == 0) {
+			return (V) zeroValue;
+		}
+		long[] k = keys;
+		int pos = mix(key) & mask;
+		long current;
+		while ((current = k[pos]) != 0) {
+			if (current == key) {
+				return (V) values[pos];
+			}
+			pos = (pos + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if the map contains a mapping for the key.
+	 * @param key the key
+	 * @return true if the map contains a mapping for the key
+	 */
+	public boolean containsKey(long key) {
+		if (key == 0) {
+			return containsZeroKey;
+		}
+		long[] k = keys;
+		int pos = mix(key) & mask;
+		long current;
+		while ((current = k[pos]) != 0) {
+			if (current == key) {
+				return true;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Maps the key to the value.
+	 * @param key the key
+	 * @param value the value, must not be <code>null</code>
+	 * @return the previous value mapped to the key or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new NullPointerException("Null values are not supported."); //$NON-NLS-1$
+		}
+		if (key == 0) {
+			Object previous = zeroValue;
+			if (!containsZeroKey) {
+				containsZeroKey = true;
+				size++;
+			}
+			zeroValue = value;
+			return (V) previous;
+		}
+		long[] k = keys;
+		int pos = mix(key) & mask;
+		long current;
+		while ((current = k[pos]) != 0) {
+			if (current == key) {
+				Object previous = values[pos];
+				values[pos] = value;
+				return (V) previous;
+			}
+			pos = (pos + 1) & mask;
+		}
+		k[pos] = key;
+		values[pos] = value;
+		if (++size >= maxFill) {
+			rehash(arraySize(size + 1));
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping for the key.
+	 * @param key the key
+	 * @return the value which was mapped to the key or <code>null</code>
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key) {
+		if (key == 0) {
+			if (!containsZeroKey) {
+				return null;
+			}
+			Object previous = zeroValue;
+			containsZeroKey = false;
+			zeroValue = null;
+			size--;
+			return (V) previous;
+		}
+		long[] k = keys;
+		int pos = mix(key) & mask;
+		long current;
+		while ((current = k[pos]) != 0) {
+			if (current == key) {
+				Object previous = values[pos];
+				size--;
+				shiftKeys(pos);
+				return (V) previous;
+			}
+			pos = (pos + 1) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the number of mappings in this map.
+	 * @return the number of mappings in this map
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if this map contains no mappings.
+	 * @return true if this map contains no mappings
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all the mappings from this map.
+	 */
+	public void clear() {
+		if (size == 0) {
+			return;
+		}
+		size = 0;
+		containsZeroKey = false;
+		zeroValue = null;
+		Arrays.fill(keys, 0);
+		Arrays.fill(values, null);
+	}
+
+	/**
+	 * Closes the gap left at the specified position by moving back
+	 * the following entries of the same probe sequence.
+	 */
+	private void shiftKeys(int pos) {
+		long[] k = keys;
+		for (;;) {
+			int last = pos;
+			pos = (last + 1) & mask;
+			long current;
+			for (;;) {
+				if ((current = k[pos]) == 0) {
+					k[last] = 0;
+					values[last] = null;
+					return;
+				}
+				int slot = mix(current) & mask;
+				if (last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos)) {
+					break;
+				}
+				pos = (pos + 1) & mask;
+			}
+			k[last] = current;
+			values[last] = values[pos];
+		}
+	}
+
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(newCapacity);
+		long[] k = keys;
+		for (int i = 0; i < oldKeys.length; i++) {
+			long current = oldKeys[i];
+			if (current != 0) {
+				int pos = mix(current) & mask;
+				while (k[pos] != 0) {
+					pos = (pos + 1) & mask;
+				}
+				k[pos] = current;
+				values[pos] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		maxFill = Math.min((int) Math.ceil(capacity * LOAD_FACTOR), capacity - 1);
+	}
+
+	private static int arraySize(int expected) {
+		long needed = (long) Math.ceil(expected / LOAD_FACTOR);
+		if (needed > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Too large (" + expected + " expected elements with load factor " + LOAD_FACTOR + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+		int capacity = 2;
+		while (capacity < needed) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int mix(long key) {
+		int h = (int) (key ^ (key >>> 32)) * -1640531527;
+		return h ^ (h >>> 16);
+	}
+}
@@ -974,7 +974,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 	public Filter createFilter(String filter) throws InvalidSyntaxException {
 		checkValid();
 
-		return FilterImpl.newInstance(filter, container.getConfiguration().getDebug().DEBUG_FILTER);
+		return container.getFilterCache().getFilter(filter, container.getConfiguration().getDebug().DEBUG_FILTER);
 	}
 
 	/**
@@ -133,6 +133,11 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public final boolean CLASS_CERTIFICATE;
 	public final boolean PARALLEL_CAPABLE;
+	public final int CLASS_LOADER_NEGATIVE_CACHE_SIZE;
+	public final boolean CLASS_BYTES_CACHE;
+	public final boolean CLASS_LOADER_PROFILE;
+	public final int CLASS_LOADER_PROFILE_START_LEVEL;
+	public final boolean ZIP_MAPPED_READER;
 
 	private final Map<Throwable, Integer> exceptions = new LinkedHashMap<>(0);
 
@@ -198,10 +203,16 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public static final String PROP_EQUINOX_SECURITY = "eclipse.security"; //$NON-NLS-1$
 	public static final String PROP_FILE_LIMIT = "osgi.bundlefile.limit"; //$NON-NLS-1$
+	public static final String PROP_ZIP_MAPPED_READER = "equinox.bundlefile.zip.mapped"; //$NON-NLS-1$
 
 	public final static String PROP_CLASS_CERTIFICATE_SUPPORT = "osgi.support.class.certificate"; //$NON-NLS-1$
 	public final static String PROP_CLASS_LOADER_TYPE = "osgi.classloader.type"; //$NON-NLS-1$
 	public final static String CLASS_LOADER_TYPE_PARALLEL = "parallel"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE = "equinox.classloader.negative.cache.size"; //$NON-NLS-1$
+	public static final String DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE = "0"; //$NON-NLS-1$
+	public static final String PROP_CLASS_BYTES_CACHE = "equinox.classloader.class.bytes.cache"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE = "equinox.classloader.profile"; //$NON-NLS-1$
+	public static final String PROP_CLASS_LOADER_PROFILE_START_LEVEL = "equinox.classloader.profile.startlevel"; //$NON-NLS-1$
 
 	public static final String PROP_FORCED_RESTART = "osgi.forcedRestart"; //$NON-NLS-1$
 	public static final String PROP_IGNORE_USER_CONFIGURATION = "eclipse.ignoreUserConfiguration"; //$NON-NLS-1$
@@ -213,6 +224,8 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public static final String DEFAULT_STATE_SAVE_DELAY_INTERVAL = "30000"; //$NON-NLS-1$
 	public static final String PROP_STATE_SAVE_DELAY_INTERVAL = "eclipse.stateSaveDelayInterval"; //$NON-NLS-1$
+	public static final String DEFAULT_STATE_SAVE_JOURNAL_THRESHOLD = "256"; //$NON-NLS-1$
+	public static final String PROP_STATE_SAVE_JOURNAL_THRESHOLD = "equinox.stateSaveJournalThreshold"; //$NON-NLS-1$
 
 	public static final String PROP_MODULE_LOCK_TIMEOUT = "osgi.module.lock.timeout"; //$NON-NLS-1$
 	public static final String PROP_MODULE_AUTO_START_ON_RESOLVE = "osgi.module.auto.start.on.resolve"; //$NON-NLS-1$
@@ -222,6 +235,15 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 	public static final String PROP_RESOLVER_THREAD_COUNT = "equinox.resolver.thead.count"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_REVISION_BATCH_SIZE = "equinox.resolver.revision.batch.size"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_BATCH_TIMEOUT = "equinox.resolver.batch.timeout"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_INCREMENTAL = "equinox.resolver.incremental"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_CANDIDATE_CACHE = "equinox.resolver.candidate.cache"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_DYNAMIC_CACHE = "equinox.resolver.dynamic.cache"; //$NON-NLS-1$
+
+	public static final String PROP_EQUINOX_START_LEVEL_THREAD_COUNT = "equinox.start.level.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EQUINOX_START_LEVEL_STOP_TIMEOUT = "equinox.start.level.stop.timeout"; //$NON-NLS-1$
+
+	public static final String PROP_SERVICE_REGISTRY_INDEX_KEYS = "equinox.serviceregistry.index.keys"; //$NON-NLS-1$
+	public static final String SERVICE_REGISTRY_INDEX_KEYS_DEFAULT = "service.pid,component.name"; //$NON-NLS-1$
 
 	public static final String PROP_SYSTEM_PROVIDE_HEADER = "equinox.system.provide.header"; //$NON-NLS-1$
 	public static final String SYSTEM_PROVIDE_HEADER_ORIGINAL = "original"; //$NON-NLS-1$
@@ -600,6 +622,25 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 		CLASS_CERTIFICATE = Boolean.valueOf(getConfiguration(PROP_CLASS_CERTIFICATE_SUPPORT, "true")).booleanValue(); //$NON-NLS-1$
 		PARALLEL_CAPABLE = CLASS_LOADER_TYPE_PARALLEL.equals(getConfiguration(PROP_CLASS_LOADER_TYPE));
+		int negativeCacheSize;
+		try {
+			negativeCacheSize = Integer.parseInt(getConfiguration(PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE));
+		} catch (NumberFormatException e) {
+			negativeCacheSize = Integer.parseInt(DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE);
+		}
+		CLASS_LOADER_NEGATIVE_CACHE_SIZE = negativeCacheSize;
+		CLASS_BYTES_CACHE = "true".equals(getConfiguration(PROP_CLASS_BYTES_CACHE)); //$NON-NLS-1$
+		CLASS_LOADER_PROFILE = "true".equals(getConfiguration(PROP_CLASS_LOADER_PROFILE)); //$NON-NLS-1$
+		ZIP_MAPPED_READER = "true".equals(getConfiguration(PROP_ZIP_MAPPED_READER)); //$NON-NLS-1$
+		int profileStartLevel;
+		try {
+			String profileStartLevelProp = getConfiguration(PROP_CLASS_LOADER_PROFILE_START_LEVEL);
+			// record the whole framework launch by default
+			profileStartLevel = profileStartLevelProp == null ? Integer.MAX_VALUE : Integer.parseInt(profileStartLevelProp);
+		} catch (NumberFormatException e) {
+			profileStartLevel = Integer.MAX_VALUE;
+		}
+		CLASS_LOADER_PROFILE_START_LEVEL = profileStartLevel;
 
 		// A specified osgi.dev property but unspecified osgi.checkConfiguration
 		// property implies osgi.checkConfiguration = true.
@@ -49,6 +49,7 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 	private final boolean bootDelegateAll;
 	private final boolean isProcessClassRecursionSupportedByAll;
 	private final EquinoxEventPublisher eventPublisher;
+	private final FilterCache filterCache = new FilterCache();
 
 	private final Object monitor = new Object();
 
@@ -215,6 +216,10 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 
 	}
 
+	public FilterCache getFilterCache() {
+		return filterCache;
+	}
+
 	public EquinoxEventPublisher getEventPublisher() {
 		synchronized (this.monitor) {
 			return eventPublisher;
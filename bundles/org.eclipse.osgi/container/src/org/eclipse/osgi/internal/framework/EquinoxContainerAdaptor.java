@@ -14,14 +14,14 @@ import java.lang.reflect.Method;
 import java.security.ProtectionDomain;
 import java.util.EnumSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -37,7 +37,9 @@ import org.eclipse.osgi.container.ModuleRevisionBuilder;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.SystemModule;
 import org.eclipse.osgi.internal.container.AtomicLazyInitializer;
+import org.eclipse.osgi.internal.container.LongMap;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
+import org.eclipse.osgi.internal.hooks.ClassLoadingProfileHook;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.loader.FragmentLoader;
 import org.eclipse.osgi.internal.loader.SystemBundleLoader;
@@ -68,15 +70,20 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 	private final EquinoxContainer container;
 	private final Storage storage;
 	private final OSGiFrameworkHooks hooks;
-	private final Map<Long, Generation> initial;
+	private final LongMap<Generation> initial;
 	// The ClassLoader parent to use when creating ModuleClassLoaders.
 	private final ClassLoader moduleClassLoaderParent;
 	private final AtomicLong lastSecurityAdminFlush;
+	private final AtomicLong databaseUpdates = new AtomicLong();
+	private final AtomicLong exportUpdates = new AtomicLong();
+	private final ClassLoadingProfileHook classLoadingProfileHook;
 
 	final AtomicLazyInitializer<Executor> executor = new AtomicLazyInitializer<>();
 	final Callable<Executor> lazyExecutorCreator;
+	final AtomicLazyInitializer<Executor> startLevelExecutor = new AtomicLazyInitializer<>();
+	final Callable<Executor> lazyStartLevelExecutorCreator;
 
-	public EquinoxContainerAdaptor(EquinoxContainer container, Storage storage, Map<Long, Generation> initial) {
+	public EquinoxContainerAdaptor(EquinoxContainer container, Storage storage, LongMap<Generation> initial) {
 		this.container = container;
 		this.storage = storage;
 		this.hooks = new OSGiFrameworkHooks(container, storage);
@@ -84,6 +91,17 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		this.moduleClassLoaderParent = getModuleClassLoaderParent(container.getConfiguration());
 		this.lastSecurityAdminFlush = new AtomicLong();
 		this.lazyExecutorCreator = createLazyExecutorCreator(container.getConfiguration());
+		this.lazyStartLevelExecutorCreator = createLazyStartLevelExecutorCreator(container.getConfiguration());
+		this.classLoadingProfileHook = getClassLoadingProfileHook(container.getConfiguration());
+	}
+
+	private static ClassLoadingProfileHook getClassLoadingProfileHook(EquinoxConfiguration configuration) {
+		for (ClassLoaderHook hook : configuration.getHookRegistry().getClassLoaderHooks()) {
+			if (hook instanceof ClassLoadingProfileHook) {
+				return (ClassLoadingProfileHook) hook;
+			}
+		}
+		return null;
 	}
 
 	private Callable<Executor> createLazyExecutorCreator(EquinoxConfiguration config) {
@@ -94,8 +112,8 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		} catch (NumberFormatException e) {
 			threadCntTmp = -1;
 		}
-		// use the number of processors - 1 because we use the current thread when rejected
-		final int maxThreads = threadCntTmp <= 0 ? Math.max(Runtime.getRuntime().availableProcessors() - 1, 1) : threadCntTmp;
+		// the resolving thread only waits for the tasks so use all the processors
+		final int maxThreads = threadCntTmp <= 0 ? Runtime.getRuntime().availableProcessors() : threadCntTmp;
 		return new Callable<Executor>() {
 			@Override
 			public Executor call() throws Exception {
@@ -107,29 +125,61 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 						}
 					};
 				}
-				// Always want to go to zero threads when idle
-				int coreThreads = 0;
-				// idle timeout; make it short to get rid of threads quickly after resolve
-				int idleTimeout = 10;
-				// use sync queue to force thread creation
-				BlockingQueue<Runnable> queue = new SynchronousQueue<>();
-				// try to name the threads with useful name
-				ThreadFactory threadFactory = new ThreadFactory() {
+				// use a work stealing pool; the resolver submits many small tasks
+				// which are balanced between the threads.  Idle threads are
+				// terminated by the pool after a while.
+				ForkJoinWorkerThreadFactory threadFactory = new ForkJoinWorkerThreadFactory() {
 					@Override
-					public Thread newThread(Runnable r) {
-						Thread t = new Thread(r, "Resolver thread - " + EquinoxContainerAdaptor.this.toString()); //$NON-NLS-1$
+					public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+						// try to name the threads with useful name
+						ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {
+							// nothing to override
+						};
+						t.setName("Resolver thread - " + EquinoxContainerAdaptor.this.toString() + " - " + t.getPoolIndex()); //$NON-NLS-1$ //$NON-NLS-2$
 						t.setDaemon(true);
 						return t;
 					}
 				};
-				// use a rejection policy that simply runs the task in the current thread once the max threads is reached
-				RejectedExecutionHandler rejectHandler = new RejectedExecutionHandler() {
+				// use async mode; the tasks are never joined
+				return new ForkJoinPool(maxThreads, threadFactory, null, true);
+			}
+		};
+	}
+
+	private Callable<Executor> createLazyStartLevelExecutorCreator(EquinoxConfiguration config) {
+		String threadCntProp = config.getConfiguration(EquinoxConfiguration.PROP_EQUINOX_START_LEVEL_THREAD_COUNT);
+		if (threadCntProp == null) {
+			// start modules serially by default
+			return null;
+		}
+		int threadCntTmp;
+		try {
+			threadCntTmp = Integer.parseInt(threadCntProp);
+		} catch (NumberFormatException e) {
+			threadCntTmp = 1;
+		}
+		if (threadCntTmp == 1) {
+			return null;
+		}
+		final int maxThreads = threadCntTmp <= 0 ? Runtime.getRuntime().availableProcessors() : threadCntTmp;
+		return new Callable<Executor>() {
+			@Override
+			public Executor call() throws Exception {
+				// try to name the threads with useful name
+				ThreadFactory threadFactory = new ThreadFactory() {
 					@Override
-					public void rejectedExecution(Runnable r, ThreadPoolExecutor exe) {
-						r.run();
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Start Level Worker - " + EquinoxContainerAdaptor.this.toString()); //$NON-NLS-1$
+						t.setDaemon(true);
+						return t;
 					}
 				};
-				return new ThreadPoolExecutor(coreThreads, maxThreads, idleTimeout, TimeUnit.SECONDS, queue, threadFactory, rejectHandler);
+				// idle timeout; make it short to get rid of threads quickly after start level changes
+				int idleTimeout = 10;
+				ThreadPoolExecutor result = new ThreadPoolExecutor(maxThreads, maxThreads, idleTimeout, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+				// Always want to go to zero threads when idle
+				result.allowCoreThreadTimeOut(true);
+				return result;
 			}
 		};
 	}
@@ -178,6 +228,9 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 
 	@Override
 	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
+		if (type == ContainerEvent.STARTED && classLoadingProfileHook != null) {
+			classLoadingProfileHook.startupComplete();
+		}
 		EquinoxEventPublisher publisher = container.getEventPublisher();
 		if (publisher != null) {
 			publisher.publishFrameworkEvent(getType(type), module.getBundle(), error, listeners);
@@ -334,8 +387,36 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		return container.toString();
 	}
 
+	/**
+	 * Returns the number of times the module database has been updated.
+	 * This changes any time the wirings of the framework change and may
+	 * be used to validate cached class loading results.
+	 * @return the number of module database updates
+	 */
+	public long getDatabaseUpdates() {
+		return databaseUpdates.get();
+	}
+
+	/**
+	 * Returns the number of times packages have been added to existing
+	 * wirings by attaching fragments.  This may be used to validate cached
+	 * package sources which are computed from the exports of other wirings.
+	 * @return the number of export updates
+	 */
+	public long getExportUpdates() {
+		return exportUpdates.get();
+	}
+
+	/**
+	 * Records that packages have been added to an existing wiring.
+	 */
+	public void updatedExports() {
+		exportUpdates.incrementAndGet();
+	}
+
 	@Override
 	public void updatedDatabase() {
+		databaseUpdates.incrementAndGet();
 		StorageSaver saver = container.getStorageSaver();
 		if (saver == null)
 			return;
@@ -350,6 +431,9 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 	@Override
 	public void initEnd() {
 		hooks.initEnd();
+		if (classLoadingProfileHook != null) {
+			classLoadingProfileHook.preload();
+		}
 	}
 
 	@Override
@@ -374,6 +458,31 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		}
 	}
 
+	@Override
+	public long getContentTimestamp(ModuleRevision revision) {
+		Object revisionInfo = revision.getRevisionInfo();
+		if (revisionInfo instanceof Generation) {
+			// unlike the module last modified this does not change when the same content is refreshed
+			return ((Generation) revisionInfo).getLastModified();
+		}
+		return super.getContentTimestamp(revision);
+	}
+
+	@Override
+	public Executor getStartLevelExecutor() {
+		if (lazyStartLevelExecutorCreator == null) {
+			return null;
+		}
+		return startLevelExecutor.getInitialized(lazyStartLevelExecutorCreator);
+	}
+
+	public void shutdownStartLevelExecutor() {
+		Executor current = startLevelExecutor.getAndClear();
+		if (current instanceof ExecutorService) {
+			((ExecutorService) current).shutdown();
+		}
+	}
+
 	@Override
 	public ModuleRevisionBuilder adaptModuleRevisionBuilder(ModuleEvent operation, Module origin, ModuleRevisionBuilder builder, Object revisionInfo) {
 		Generation generation = (Generation) revisionInfo;
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.framework;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Holds the recently used filters of a framework by filter string.
+ * Filters are immutable so a parsed filter can be shared by all the bundles
+ * of the framework.
+ * <p>
+ * Looking up a filter takes no lock; it only marks the filter as used.  When
+ * the cache grows above its maximum size one thread removes filters until a
+ * quarter of the cache is free.  Filters which were not used since the last
+ * removal are removed first.
+ * <p>
+ * This class is thread safe.
+ */
+public final class FilterCache {
+	/** maximum number of filters held by the cache */
+	private static final int MAX_SIZE = 1024;
+	/** number of filters held by the cache after filters were removed */
+	private static final int TRIM_SIZE = MAX_SIZE - MAX_SIZE / 4;
+
+	private static final class Entry {
+		final FilterImpl filter;
+		volatile boolean used;
+
+		Entry(FilterImpl filter) {
+			this.filter = filter;
+		}
+	}
+
+	private final Map<String, Entry> filters = new ConcurrentHashMap<>();
+	private final AtomicBoolean trimming = new AtomicBoolean();
+
+	/**
+	 * Returns the filter for a filter string.
+	 * @param filterString the filter string
+	 * @param debug true if the filter must print debug information
+	 * @return the filter
+	 * @throws InvalidSyntaxException if the filter string cannot be parsed
+	 * @see FilterImpl#newInstance(String, boolean)
+	 */
+	public FilterImpl getFilter(String filterString, boolean debug) throws InvalidSyntaxException {
+		if (debug || filterString == null) {
+			return FilterImpl.newInstance(filterString, debug);
+		}
+		Entry entry = filters.get(filterString);
+		if (entry == null) {
+			// another thread may add the same filter
+			entry = new Entry(FilterImpl.newInstance(filterString, false));
+			filters.put(filterString, entry);
+			if (filters.size() > MAX_SIZE) {
+				trim();
+			}
+		} else if (!entry.used) {
+			// avoid writing to the entry on every lookup
+			entry.used = true;
+		}
+		return entry.filter;
+	}
+
+	private void trim() {
+		if (!trimming.compareAndSet(false, true)) {
+			// another thread is removing filters
+			return;
+		}
+		try {
+			// the first pass keeps the filters used since the last removal
+			for (int pass = 0; pass < 2 && filters.size() > TRIM_SIZE; pass++) {
+				for (Iterator<Entry> iEntries = filters.values().iterator(); iEntries.hasNext() && filters.size() > TRIM_SIZE;) {
+					Entry entry = iEntries.next();
+					if (pass == 0 && entry.used) {
+						entry.used = false;
+					} else {
+						iEntries.remove();
+					}
+				}
+			}
+		} finally {
+			trimming.set(false);
+		}
+	}
+}
@@ -11,6 +11,7 @@
 
 package org.eclipse.osgi.internal.framework;
 
+import java.lang.ref.WeakReference;
 import java.lang.reflect.*;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
@@ -416,7 +417,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			case APPROX : {
 				sb.append(attr);
 				sb.append("~="); //$NON-NLS-1$
-				sb.append(encodeValue(approxString((String) value)));
+				sb.append(encodeValue(approxValue));
 
 				break;
 			}
@@ -483,19 +484,144 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 	private final String attr;
 	/** filter operands */
 	private final Object value;
+	/** filter operand prepared for APPROX comparisons or null if operation is not APPROX */
+	private final String approxValue;
 	/** debug mode */
 	private final boolean debug;
 
 	/* normalized filter string for topLevel Filter object */
 	private transient volatile String filterString;
 
+	/* names of the attributes compared by this filter, lazily computed */
+	private transient volatile Set<String> comparedAttributes;
+
+	/* the filter operand coerced to the types of the most recently compared property values */
+	private transient volatile CoercedValue[] coercedValues;
+
+	/** maximum number of types the operand of a filter keeps coerced values for */
+	private static final int MAX_COERCED_TYPES = 4;
+
+	/** marker for an operand which cannot be coerced to the type of a property value */
+	private static final Object INVALID_VALUE = new Object();
+
 	FilterImpl(int operation, String attr, Object value, boolean debug) {
 		this.op = operation;
 		this.attr = attr;
 		this.value = value;
+		this.approxValue = (operation == APPROX) ? approxString((String) value) : null;
 		this.debug = debug;
 	}
 
+	/**
+	 * Returns the operand of this filter coerced to the specified type. The result
+	 * is cached per type so that repeated comparisons against property values of
+	 * the same types do not have to parse the operand or call the valueOf method
+	 * or constructor of the type again.  The cache holds the most recently used
+	 * {@link #MAX_COERCED_TYPES} types.  Filters may be shared by many bundles, so
+	 * types which are not loaded by the boot or framework class loader and their
+	 * coerced values are only weakly referenced.
+	 * 
+	 * @param type the type of the property value being compared
+	 * @return the coerced operand or {@link #INVALID_VALUE} if the operand
+	 * cannot be coerced to the type.
+	 */
+	private Object coerceValue(Class<?> type) {
+		CoercedValue[] current = coercedValues;
+		if (current != null) {
+			for (CoercedValue coerced : current) {
+				if (coerced.getType() == type) {
+					Object result = coerced.getValue();
+					if (result != null) {
+						return result;
+					}
+				}
+			}
+		}
+		Object result = coerceValue(type, (String) value);
+		// copy the entries which are still valid; concurrent updates may be lost
+		List<CoercedValue> updated = new ArrayList<>(MAX_COERCED_TYPES);
+		updated.add(new CoercedValue(type, result));
+		if (current != null) {
+			for (int i = 0; i < current.length && updated.size() < MAX_COERCED_TYPES; i++) {
+				Class<?> coercedType = current[i].getType();
+				if (coercedType != null && coercedType != type && current[i].getValue() != null) {
+					updated.add(current[i]);
+				}
+			}
+		}
+		coercedValues = updated.toArray(new CoercedValue[updated.size()]);
+		return result;
+	}
+
+	private static Object coerceValue(Class<?> type, String value2) {
+		try {
+			if (type == Integer.class) {
+				return Integer.valueOf(value2.trim());
+			}
+			if (type == Long.class) {
+				return Long.valueOf(value2.trim());
+			}
+			if (type == Byte.class) {
+				return Byte.valueOf(value2.trim());
+			}
+			if (type == Short.class) {
+				return Short.valueOf(value2.trim());
+			}
+			if (type == Float.class) {
+				return Float.valueOf(value2.trim());
+			}
+			if (type == Double.class) {
+				return Double.valueOf(value2.trim());
+			}
+			if (type == Boolean.class) {
+				return Boolean.valueOf(value2.trim());
+			}
+			if (type == Version.class) {
+				return Version.valueOf(value2.trim());
+			}
+		} catch (IllegalArgumentException e) {
+			return INVALID_VALUE;
+		}
+		Object result = valueOf(type, value2);
+		return result == null ? INVALID_VALUE : result;
+	}
+
+	/*
+	 * The operand coerced to one type.  A type which is not loaded by the boot or
+	 * framework class loader and its value are weakly referenced; the value
+	 * references its type so it must not keep the type reachable either.
+	 */
+	private static final class CoercedValue {
+		private static final ClassLoader FRAMEWORK_LOADER = FilterImpl.class.getClassLoader();
+		/* null if the type is weakly referenced */
+		private final Class<?> frameworkType;
+		private final WeakReference<Class<?>> type;
+		/* null if the value is weakly referenced */
+		private final Object strongValue;
+		private final WeakReference<Object> value;
+
+		CoercedValue(Class<?> type, Object value) {
+			ClassLoader loader = type.getClassLoader();
+			boolean framework = loader == null || loader == FRAMEWORK_LOADER;
+			this.frameworkType = framework ? type : null;
+			this.type = framework ? null : new WeakReference<Class<?>>(type);
+			// INVALID_VALUE does not reference the type
+			boolean strong = framework || value == INVALID_VALUE;
+			this.strongValue = strong ? value : null;
+			this.value = strong ? null : new WeakReference<>(value);
+		}
+
+		/* returns null if the type was collected */
+		Class<?> getType() {
+			return frameworkType != null ? frameworkType : type.get();
+		}
+
+		/* returns null if the value was collected */
+		Object getValue() {
+			return strongValue != null ? strongValue : value.get();
+		}
+	}
+
 	/**
 	 * Encode the value string such that '(', '*', ')'
 	 * and '\' are escaped.
@@ -784,7 +910,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 				}
 
 				string = approxString(string);
-				String string2 = approxString((String) value2);
+				String string2 = (approxValue != null) ? approxValue : approxString((String) value2);
 
 				return string.equalsIgnoreCase(string2);
 			}
@@ -813,12 +939,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		int intval2;
-		try {
-			intval2 = Integer.parseInt(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Integer.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		int intval2 = ((Integer) coerced).intValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -857,12 +982,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		long longval2;
-		try {
-			longval2 = Long.parseLong(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Long.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		long longval2 = ((Long) coerced).longValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -901,12 +1025,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		byte byteval2;
-		try {
-			byteval2 = Byte.parseByte(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Byte.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		byte byteval2 = ((Byte) coerced).byteValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -945,12 +1068,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		short shortval2;
-		try {
-			shortval2 = Short.parseShort(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Short.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		short shortval2 = ((Short) coerced).shortValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1033,7 +1155,7 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		boolean boolval2 = Boolean.valueOf(((String) value2).trim()).booleanValue();
+		boolean boolval2 = ((Boolean) coerceValue(Boolean.class)).booleanValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1072,12 +1194,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		float floatval2;
-		try {
-			floatval2 = Float.parseFloat(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Float.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		float floatval2 = ((Float) coerced).floatValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1116,12 +1237,11 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			return false;
 		}
 
-		double doubleval2;
-		try {
-			doubleval2 = Double.parseDouble(((String) value2).trim());
-		} catch (IllegalArgumentException e) {
+		Object coerced = coerceValue(Double.class);
+		if (coerced == INVALID_VALUE) {
 			return false;
 		}
+		double doubleval2 = ((Double) coerced).doubleValue();
 		switch (operation) {
 			case EQUAL : {
 				if (debug) {
@@ -1207,8 +1327,12 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
+		Object coerced = coerceValue(Version.class);
+		if (coerced == INVALID_VALUE) {
+			return false;
+		}
 		try {
-			Version version = Version.valueOf(((String) value2).trim());
+			Version version = (Version) coerced;
 
 			switch (operation) {
 				case EQUAL : {
@@ -1250,8 +1374,8 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
-		if (value2 == null) {
+		value2 = coerceValue(value1.getClass());
+		if (value2 == INVALID_VALUE) {
 			return false;
 		}
 
@@ -1296,8 +1420,8 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 			}
 			return false;
 		}
-		value2 = valueOf(value1.getClass(), (String) value2);
-		if (value2 == null) {
+		value2 = coerceValue(value1.getClass());
+		if (value2 == INVALID_VALUE) {
 			return false;
 		}
 
@@ -1410,6 +1534,37 @@ public class FilterImpl implements Filter /* since Framework 1.1 */ {
 		return Collections.emptyList();
 	}
 
+	/**
+	 * Returns the names of the attributes this filter compares against, including
+	 * attributes within a NOT operation but not including APPROX operations.
+	 * This is used to check the mandatory directive of a capability and
+	 * is computed once for the filter.
+	 * @return the unmodifiable set of compared attribute names
+	 */
+	public Set<String> getComparedAttributes() {
+		Set<String> result = comparedAttributes;
+		if (result == null) {
+			result = new HashSet<>();
+			getComparedAttributesInternal(result);
+			result = Collections.unmodifiableSet(result);
+			comparedAttributes = result;
+		}
+		return result;
+	}
+
+	private void getComparedAttributesInternal(Set<String> results) {
+		if (value instanceof FilterImpl[]) {
+			for (FilterImpl child : (FilterImpl[]) value)
+				child.getComparedAttributesInternal(results);
+			return;
+		} else if (value instanceof FilterImpl) {
+			((FilterImpl) value).getComparedAttributesInternal(results);
+			return;
+		}
+		if (attr != null && op != APPROX)
+			results.add(attr);
+	}
+
 	/**
 	 * Returns all the attributes contained within this filter
 	 * @return all the attributes contained within this filter
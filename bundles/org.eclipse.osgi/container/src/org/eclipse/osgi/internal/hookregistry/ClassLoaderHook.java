@@ -270,7 +270,8 @@ public abstract class ClassLoaderHook {
 	 * a class loading stat hook to record data about a class definition. 
 	 * @param name the name of the class that got defined
 	 * @param clazz the class object that got defined or null if an error occurred while defining a class
-	 * @param classbytes the class bytes used to define the class
+	 * @param classbytes the class bytes used to define the class or null if no hook
+	 * {@link #isClassBytesRequired() requires} the class bytes
 	 * @param classpathEntry the ClasspathEntry where the class bytes got read from
 	 * @param entry the BundleEntyr source of the class bytes
 	 * @param manager the classpath manager used to define the class
@@ -305,4 +306,20 @@ public abstract class ClassLoaderHook {
 		return false;
 	}
 
+	/**
+	 * Returns true if this hook requires the bytes of a class that is about to be defined.
+	 * This is the case for hooks which may transform the class bytes with
+	 * {@link ClassLoaderHook#processClass(String, byte[], ClasspathEntry, BundleEntry, ClasspathManager) processClass}
+	 * or which use the class bytes passed to
+	 * {@link ClassLoaderHook#recordClassDefine(String, Class, byte[], ClasspathEntry, BundleEntry, ClasspathManager) recordClassDefine}.
+	 * If no hook requires the class bytes then a classpath manager may define the class directly
+	 * from a byte buffer without calling the processClass methods of the hooks.
+	 * <p>
+	 * This method is called each time a class is about to be defined.
+	 * @return true if the class bytes are required by this hook
+	 */
+	public boolean isClassBytesRequired() {
+		return true;
+	}
+
 }
@@ -18,6 +18,7 @@ import java.util.*;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.hooks.ClassLoadingProfileHook;
 import org.eclipse.osgi.internal.hooks.DevClassLoadingHook;
 import org.eclipse.osgi.internal.hooks.EclipseLazyStarter;
 import org.eclipse.osgi.internal.signedcontent.SignedBundleHook;
@@ -102,6 +103,9 @@ public final class HookRegistry {
 			addClassLoaderHook(new DevClassLoadingHook(container.getConfiguration()));
 			addClassLoaderHook(new EclipseLazyStarter(container));
 			addClassLoaderHook(new WeavingHookConfigurator(container));
+			if (container.getConfiguration().CLASS_LOADER_PROFILE) {
+				addClassLoaderHook(new ClassLoadingProfileHook(container));
+			}
 			configurators.add(SignedBundleHook.class.getName());
 			loadConfigurators(configurators, errors);
 			// set to read-only
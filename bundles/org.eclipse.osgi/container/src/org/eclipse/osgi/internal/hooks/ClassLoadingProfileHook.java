@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.hooks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.eclipse.osgi.container.*;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
+import org.eclipse.osgi.internal.loader.BundleLoader;
+import org.eclipse.osgi.internal.loader.classpath.ClasspathManager;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage;
+import org.eclipse.osgi.storage.Storage.StorageException;
+import org.eclipse.osgi.storage.StorageFile;
+import org.osgi.framework.Constants;
+
+/**
+ * Records the classes loaded from bundles while the framework is starting
+ * and defines the same classes ahead of time on the next start.
+ * <p>
+ * A class is recorded the first time it is found by a bundle class loader
+ * as long as the framework has not finished starting and the framework start
+ * level is not above {@link EquinoxConfiguration#CLASS_LOADER_PROFILE_START_LEVEL}.
+ * The profile is stored when the framework has started.  On the next start
+ * the recorded classes are defined by a small pool of background threads, one
+ * bundle at a time in the order the classes of the bundle were recorded.  A class
+ * is skipped if its bundle has been updated since the profile was recorded.  The
+ * entries of bundles which have not been updated are kept in the new profile
+ * because the first use of a class defined ahead of time does not find it again.
+ * <p>
+ * Preloading a class does not trigger the lazy activation of its bundle, see
+ * {@link ClasspathManager#preloadLocalClass(String)}.  Classes of lazy bundles
+ * which are not active are not preloaded, and a class is not preloaded if defining
+ * it loads a class which triggers the lazy activation of another bundle, see
+ * {@link PreloadAbortedException}.
+ */
+public class ClassLoadingProfileHook extends ClassLoaderHook {
+	private static final int VERSION = 1;
+	private static final String PROFILE_FILE = ".classLoadingProfile"; //$NON-NLS-1$
+	private static final ThreadLocal<Boolean> preloading = new ThreadLocal<>();
+
+	/**
+	 * Thrown by a class loader hook while a class is preloaded to stop defining
+	 * the class ahead of its first use.  Classes loaded while defining a
+	 * preloaded class are not loaded again on the first use of the class, so a
+	 * lazy activation trigger for one of them would be lost.
+	 */
+	public static final class PreloadAbortedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		public PreloadAbortedException(String message) {
+			super(message);
+		}
+	}
+
+	private static final class ProfileEntry {
+		final long bundleId;
+		final long generationId;
+		final String className;
+
+		ProfileEntry(long bundleId, long generationId, String className) {
+			this.bundleId = bundleId;
+			this.generationId = generationId;
+			this.className = className;
+		}
+	}
+
+	private final EquinoxContainer container;
+	private final Debug debug;
+	private final int maxStartLevel;
+	private final Queue<ProfileEntry> recorded = new ConcurrentLinkedQueue<>();
+	private final Set<String> recordedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final AtomicBoolean preloaded = new AtomicBoolean();
+	private volatile boolean recording = true;
+
+	public ClassLoadingProfileHook(EquinoxContainer container) {
+		this.container = container;
+		this.debug = container.getConfiguration().getDebug();
+		this.maxStartLevel = container.getConfiguration().CLASS_LOADER_PROFILE_START_LEVEL;
+	}
+
+	/**
+	 * Returns true if the current thread is defining classes from the profile.
+	 * @return true if the current thread is defining classes from the profile
+	 */
+	public static boolean isPreloading() {
+		return preloading.get() != null;
+	}
+
+	@Override
+	public void postFindLocalClass(String name, Class<?> clazz, ClasspathManager manager) {
+		if (!recording || clazz == null || isPreloading()) {
+			return;
+		}
+		Generation generation = manager.getGeneration();
+		long bundleId = generation.getBundleInfo().getBundleId();
+		if (bundleId == Constants.SYSTEM_BUNDLE_ID) {
+			return;
+		}
+		if (container.getStorage().getModuleContainer().getFrameworkStartLevel().getStartLevel() > maxStartLevel) {
+			return;
+		}
+		record(new ProfileEntry(bundleId, generation.getGenerationId(), name));
+	}
+
+	private void record(ProfileEntry entry) {
+		if (recordedKeys.add(entry.bundleId + ":" + entry.className)) { //$NON-NLS-1$
+			recorded.add(entry);
+		}
+	}
+
+	@Override
+	public boolean isClassBytesRequired() {
+		return false;
+	}
+
+	/**
+	 * Defines the classes of the stored profile in the background.  Only the
+	 * first call has an effect.
+	 */
+	public void preload() {
+		if (!preloaded.compareAndSet(false, true)) {
+			return;
+		}
+		File profileFile = getProfileFile();
+		if (profileFile == null) {
+			return;
+		}
+		List<List<ProfileEntry>> tasks = load(profileFile);
+		if (tasks.isEmpty()) {
+			return;
+		}
+		for (List<ProfileEntry> task : tasks) {
+			for (ProfileEntry entry : task) {
+				if (getCurrentRevision(entry) != null) {
+					record(entry);
+				}
+			}
+		}
+		int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Equinox Class Preloader"); //$NON-NLS-1$
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		try {
+			for (final List<ProfileEntry> task : tasks) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						preloading.set(Boolean.TRUE);
+						try {
+							for (ProfileEntry entry : task) {
+								preload(entry);
+							}
+						} finally {
+							preloading.remove();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Stops recording and stores the recorded profile.
+	 */
+	public void startupComplete() {
+		if (!recording) {
+			return;
+		}
+		recording = false;
+		Storage storage = container.getStorage();
+		File profileFile = getProfileFile();
+		if (profileFile == null || storage.isReadOnly()) {
+			return;
+		}
+		final List<ProfileEntry> entries = new ArrayList<>(recorded);
+		recorded.clear();
+		recordedKeys.clear();
+		StorageFile.write(profileFile, new StorageFile.Writer() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (ProfileEntry entry : entries) {
+					out.writeLong(entry.bundleId);
+					out.writeLong(entry.generationId);
+					out.writeUTF(entry.className);
+				}
+			}
+		}, debug.DEBUG_LOADER);
+	}
+
+	private void preload(ProfileEntry entry) {
+		try {
+			ModuleRevision revision = getCurrentRevision(entry);
+			if (revision == null) {
+				return;
+			}
+			if (revision.hasLazyActivatePolicy() && !Module.State.ACTIVE.equals(revision.getRevisions().getModule().getState())) {
+				// leave the class to its first use which activates the bundle
+				return;
+			}
+			ModuleWiring wiring = revision.getWiring();
+			if (wiring == null || !(wiring.getModuleLoader() instanceof BundleLoader)) {
+				return;
+			}
+			BundleLoader loader = (BundleLoader) wiring.getModuleLoader();
+			loader.getModuleClassLoader().getClasspathManager().preloadLocalClass(entry.className);
+		} catch (Throwable t) {
+			// preloading is only an optimization; the class is loaded normally on first use
+			if (debug.DEBUG_LOADER) {
+				Debug.println("Unable to preload class " + entry.className + " from bundle " + entry.bundleId + ": " + t.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			}
+		}
+	}
+
+	/*
+	 * Returns the current revision of the bundle of an entry or null if the
+	 * bundle was updated or uninstalled since the profile was recorded.
+	 */
+	private ModuleRevision getCurrentRevision(ProfileEntry entry) {
+		Module module = container.getStorage().getModuleContainer().getModule(entry.bundleId);
+		ModuleRevision revision = module == null ? null : module.getCurrentRevision();
+		if (revision == null || ((Generation) revision.getRevisionInfo()).getGenerationId() != entry.generationId) {
+			return null;
+		}
+		return revision;
+	}
+
+	/*
+	 * Groups the entries of each bundle so that each task defines the classes
+	 * of one bundle in the recorded order.
+	 */
+	private List<List<ProfileEntry>> load(File profileFile) {
+		List<List<ProfileEntry>> result = StorageFile.read(profileFile, new StorageFile.Reader<List<List<ProfileEntry>>>() {
+			@Override
+			public List<List<ProfileEntry>> read(DataInputStream in) throws IOException {
+				if (in.readInt() != VERSION) {
+					return null;
+				}
+				int numEntries = in.readInt();
+				Map<Long, List<ProfileEntry>> tasks = new LinkedHashMap<>();
+				for (int i = 0; i < numEntries; i++) {
+					ProfileEntry entry = new ProfileEntry(in.readLong(), in.readLong(), in.readUTF());
+					List<ProfileEntry> task = tasks.get(entry.bundleId);
+					if (task == null) {
+						task = new ArrayList<>();
+						tasks.put(entry.bundleId, task);
+					}
+					task.add(entry);
+				}
+				return new ArrayList<>(tasks.values());
+			}
+		}, debug.DEBUG_LOADER);
+		return result == null ? Collections.<List<ProfileEntry>> emptyList() : result;
+	}
+
+	private File getProfileFile() {
+		try {
+			return container.getStorage().getFile(PROFILE_FILE, false);
+		} catch (StorageException e) {
+			return null;
+		}
+	}
+}
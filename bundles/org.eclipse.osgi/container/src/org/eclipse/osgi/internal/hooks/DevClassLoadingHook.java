@@ -115,4 +115,8 @@ public class DevClassLoadingHook extends ClassLoaderHook implements KeyedElement
 		return true;
 	}
 
+	@Override
+	public boolean isClassBytesRequired() {
+		return false;
+	}
 }
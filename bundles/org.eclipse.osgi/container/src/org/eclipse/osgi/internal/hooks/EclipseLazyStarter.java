@@ -58,11 +58,15 @@ public class EclipseLazyStarter extends ClassLoaderHook {
 
 	@Override
 	public void preFindLocalClass(String name, ClasspathManager manager) throws ClassNotFoundException {
+		ModuleRevision revision = manager.getGeneration().getRevision();
+		Module module = revision.getRevisions().getModule();
+		if (ClassLoadingProfileHook.isPreloading() && !alreadyActive.contains(module.getState()) && isLazyStartable(name, revision)) {
+			// the class being preloaded depends on a lazy bundle; only its first use may activate the bundle
+			throw new ClassLoadingProfileHook.PreloadAbortedException(name);
+		}
 		if (initiatingClassName.get() == null) {
 			initiatingClassName.set(name);
 		}
-		ModuleRevision revision = manager.getGeneration().getRevision();
-		Module module = revision.getRevisions().getModule();
 		// If the bundle is active, uninstalled or stopping then the bundle has already
 		// been initialized (though it may have been destroyed) so just return the class.
 		if (alreadyActive.contains(module.getState()))
@@ -190,4 +194,8 @@ public class EclipseLazyStarter extends ClassLoaderHook {
 		return true;
 	}
 
+	@Override
+	public boolean isClassBytesRequired() {
+		return false;
+	}
 }
@@ -39,15 +39,13 @@ import org.eclipse.osgi.container.ModuleWire;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
-import org.eclipse.osgi.framework.util.KeyedElement;
-import org.eclipse.osgi.framework.util.KeyedHashSet;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.framework.EquinoxContainerAdaptor;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
 import org.eclipse.osgi.internal.loader.buddy.PolicyHandler;
 import org.eclipse.osgi.internal.loader.sources.MultiSourcePackage;
-import org.eclipse.osgi.internal.loader.sources.NullPackageSource;
 import org.eclipse.osgi.internal.loader.sources.PackageSource;
 import org.eclipse.osgi.internal.loader.sources.SingleSourcePackage;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
@@ -101,20 +99,19 @@ public class BundleLoader extends ModuleLoader {
 	private final Collection<String> exportedPackages;
 	private final BundleLoaderSources exportSources;
 
-	/* cache of required package sources. Key is packagename, value is PackageSource */
-	private final KeyedHashSet requiredSources = new KeyedHashSet(false);
-	/* cache of imported packages. Key is packagename, Value is PackageSource */
-	private final KeyedHashSet importedSources = new KeyedHashSet(false);
+	/* cache of required package sources; replaced, never modified, when the exports of the framework change */
+	private volatile RequiredSources requiredSources;
+	/* cache of imported packages. Key is packagename, Value is PackageSource; replaced, never modified, once initialized */
+	private volatile Map<String, PackageSource> importedSources;
+	private final Object importsMonitor = new Object();
 	private final List<ModuleWire> requiredBundleWires;
 
-	/* @GuardedBy("importedSources") */
-	private boolean importsInitialized = false;
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("importsMonitor") */
 	private boolean dynamicAllPackages;
 	/* If not null, list of package stems to import dynamically. */
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("importsMonitor") */
 	private String[] dynamicImportPackageStems;
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("importsMonitor") */
 	/* If not null, list of package names to import dynamically. */
 	private String[] dynamicImportPackages;
 
@@ -125,6 +122,27 @@ public class BundleLoader extends ModuleLoader {
 	private final ClassLoader parent;
 	private final AtomicBoolean triggerClassLoaded = new AtomicBoolean(false);
 
+	/* names which could not be found by the delegation chain; null if the cache is disabled */
+	private final NegativeLookupCache missingClasses;
+	private final NegativeLookupCache missingResources;
+	/* set when a fragment with directory content is attached after the negative cache was created */
+	private volatile boolean negativeCacheBypassed;
+
+	/**
+	 * The package sources of all the packages available from the required
+	 * bundles of a wiring, including the packages reexported by the required
+	 * bundles of the required bundles.
+	 */
+	private static final class RequiredSources {
+		final Map<String, PackageSource> sources;
+		final long exportUpdates;
+
+		RequiredSources(Map<String, PackageSource> sources, long exportUpdates) {
+			this.sources = sources;
+			this.exportUpdates = exportUpdates;
+		}
+	}
+
 	/**
 	 * Returns the package name from the specified class name.
 	 * The returned package is dot seperated.
@@ -191,6 +209,28 @@ public class BundleLoader extends ModuleLoader {
 			Bundle systemBundle = systemModule.getBundle();
 			policy.open(systemBundle.getBundleContext());
 		}
+
+		// buddy policies search bundles which are not wired to this bundle and the
+		// content of directories may change at any time without a database update
+		int negativeCacheSize = container.getConfiguration().CLASS_LOADER_NEGATIVE_CACHE_SIZE;
+		if (policy != null || container.getConfiguration().inDevelopmentMode() || hasDirectoryContent(wiring.getRevision())) {
+			negativeCacheSize = 0;
+		}
+		List<ModuleWire> hostWires = wiring.getProvidedModuleWires(HostNamespace.HOST_NAMESPACE);
+		if (hostWires != null) {
+			for (ModuleWire fragmentWire : hostWires) {
+				if (hasDirectoryContent(fragmentWire.getRequirer())) {
+					negativeCacheSize = 0;
+				}
+			}
+		}
+		missingClasses = negativeCacheSize > 0 ? new NegativeLookupCache(negativeCacheSize) : null;
+		missingResources = negativeCacheSize > 0 ? new NegativeLookupCache(negativeCacheSize) : null;
+	}
+
+	private static boolean hasDirectoryContent(ModuleRevision revision) {
+		Object info = revision.getRevisionInfo();
+		return info instanceof Generation && ((Generation) info).isDirectory();
 	}
 
 	public ModuleWiring getWiring() {
@@ -303,8 +343,16 @@ public class BundleLoader extends ModuleLoader {
 	@Override
 	protected void loadFragments(Collection<ModuleRevision> fragments) {
 		addFragmentExports(wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE));
+		// the required sources of other wirings may include the new exports
+		getAdaptor().updatedExports();
 		loadClassLoaderFragments(fragments);
 		clearManifestLocalizationCache();
+		for (ModuleRevision fragment : fragments) {
+			if (hasDirectoryContent(fragment)) {
+				negativeCacheBypassed = true;
+			}
+		}
+		clearNegativeCache();
 	}
 
 	protected void clearManifestLocalizationCache() {
@@ -444,6 +492,25 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
+		// the negative cache is not used for boot delegation packages which depend on the parent
+		boolean useNegativeCache = missingClasses != null && !negativeCacheBypassed && !bootDelegation;
+		long updateCount = useNegativeCache ? getDatabaseUpdates() : 0;
+		if (useNegativeCache && missingClasses.contains(name, updateCount)) {
+			if (debug.DEBUG_LOADER) {
+				Debug.println("BundleLoader[" + this + "] known missing class: " + name); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// only the delegation chain is skipped; the hooks may find the class at any time
+			try {
+				result = (Class<?>) searchHooks(name, POST_CLASS);
+			} catch (ClassNotFoundException e) {
+				throw e;
+			} catch (FileNotFoundException e) {
+				// will not happen
+			}
+			if (result != null)
+				return result;
+			return findParentClass(name, checkParent, bootDelegation);
+		}
 		// 3) search the imported packages
 		PackageSource source = findImportedSource(pkgName, null);
 		if (source != null) {
@@ -495,6 +562,13 @@ public class BundleLoader extends ModuleLoader {
 			result = policy.doBuddyClassLoading(name);
 		if (result != null)
 			return result;
+		if (useNegativeCache) {
+			missingClasses.add(name, updateCount);
+		}
+		return findParentClass(name, checkParent, bootDelegation);
+	}
+
+	private Class<?> findParentClass(String name, boolean checkParent, boolean bootDelegation) throws ClassNotFoundException {
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parent != null && !bootDelegation && ((checkParent && container.getConfiguration().compatibilityBootDelegation) || isRequestFromVM())) {
@@ -618,7 +692,6 @@ public class BundleLoader extends ModuleLoader {
 				bootDelegation = true;
 			}
 		}
-
 		URL result = null;
 		try {
 			result = (URL) searchHooks(name, PRE_RESOURCE);
@@ -629,6 +702,25 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
+		// the negative cache is not used for boot delegation packages which depend on the parent
+		boolean useNegativeCache = missingResources != null && !negativeCacheBypassed && !bootDelegation;
+		long updateCount = useNegativeCache ? getDatabaseUpdates() : 0;
+		if (useNegativeCache && missingResources.contains(name, updateCount)) {
+			if (debug.DEBUG_LOADER) {
+				Debug.println("BundleLoader[" + this + "] known missing resource: " + name); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// only the delegation chain is skipped; the hooks may find the resource at any time
+			try {
+				result = (URL) searchHooks(name, POST_RESOURCE);
+			} catch (FileNotFoundException e) {
+				return null;
+			} catch (ClassNotFoundException e) {
+				// will not happen
+			}
+			if (result != null)
+				return result;
+			return findParentResource(name, bootDelegation);
+		}
 		// 3) search the imported packages
 		PackageSource source = findImportedSource(pkgName, null);
 		if (source != null) {
@@ -673,12 +765,52 @@ public class BundleLoader extends ModuleLoader {
 			result = policy.doBuddyResourceLoading(name);
 		if (result != null)
 			return result;
+		if (useNegativeCache) {
+			missingResources.add(name, updateCount);
+		}
+		return findParentResource(name, bootDelegation);
+	}
+
+	private URL findParentResource(String name, boolean bootDelegation) {
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM()))
 			// we don't need to continue if the resource is not found here
 			return parent.getResource(name);
-		return result;
+		return null;
+	}
+
+	private long getDatabaseUpdates() {
+		return getAdaptor().getDatabaseUpdates();
+	}
+
+	private EquinoxContainerAdaptor getAdaptor() {
+		return (EquinoxContainerAdaptor) container.getStorage().getAdaptor();
+	}
+
+	private void clearNegativeCache() {
+		if (missingClasses != null) {
+			missingClasses.clear();
+			missingResources.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of class and resource lookups which were answered by the
+	 * negative lookup cache of this loader without searching the delegation chain.
+	 * @return the number of negative lookup cache hits
+	 */
+	public long getNegativeCacheHits() {
+		return missingClasses == null ? 0 : missingClasses.getHits() + missingResources.getHits();
+	}
+
+	/**
+	 * Returns the number of class and resource lookups which were not answered by
+	 * the negative lookup cache of this loader and searched the delegation chain.
+	 * @return the number of negative lookup cache misses
+	 */
+	public long getNegativeCacheMisses() {
+		return missingClasses == null ? 0 : missingClasses.getMisses() + missingResources.getMisses();
 	}
 
 	/**
@@ -781,13 +913,8 @@ public class BundleLoader extends ModuleLoader {
 		boolean subPackages = (options & BundleWiring.LISTRESOURCES_RECURSE) != 0;
 		List<String> packages = new ArrayList<>();
 		// search imported package names
-		KeyedHashSet importSources = getImportedSources(null);
-		KeyedElement[] imports;
-		synchronized (importSources) {
-			imports = importSources.elements();
-		}
-		for (KeyedElement keyedElement : imports) {
-			String id = ((PackageSource) keyedElement).getId();
+		for (PackageSource importSource : getImportedSources(null).values()) {
+			String id = importSource.getId();
 			if (id.equals(pkgName) || (subPackages && isSubPackage(pkgName, id)))
 				packages.add(id);
 		}
@@ -910,7 +1037,7 @@ public class BundleLoader extends ModuleLoader {
 		if (pkgname.startsWith("java.")) //$NON-NLS-1$
 			return true;
 
-		synchronized (importedSources) {
+		synchronized (importsMonitor) {
 			/* "*" shortcut */
 			if (dynamicAllPackages)
 				return true;
@@ -959,7 +1086,7 @@ public class BundleLoader extends ModuleLoader {
 			result.add(local);
 	}
 
-	final void addProvidedPackageNames(String packageName, List<String> result, boolean subPackages, Collection<BundleLoader> visited) {
+	final void addProvidedPackageNames(String packageName, Collection<String> result, boolean subPackages, Collection<BundleLoader> visited) {
 		if (visited.contains(this))
 			return;
 		visited.add(this);
@@ -1026,7 +1153,7 @@ public class BundleLoader extends ModuleLoader {
 		if (packages == null)
 			return;
 
-		synchronized (importedSources) {
+		synchronized (importsMonitor) {
 			int size = packages.length;
 			List<String> stems;
 			if (dynamicImportPackageStems == null) {
@@ -1097,6 +1224,7 @@ public class BundleLoader extends ModuleLoader {
 
 		if (dynamicImports.size() > 0) {
 			addDynamicImportPackage(dynamicImports.toArray(new String[dynamicImports.size()]));
+			clearNegativeCache();
 
 			Map<String, String> dynamicImportMap = new HashMap<>();
 			dynamicImportMap.put(Constants.DYNAMICIMPORT_PACKAGE, importSpec.toString());
@@ -1126,28 +1254,32 @@ public class BundleLoader extends ModuleLoader {
 	}
 
 	private PackageSource findImportedSource(String pkgName, Collection<BundleLoader> visited) {
-		KeyedHashSet imports = getImportedSources(visited);
-		synchronized (imports) {
-			return (PackageSource) imports.getByKey(pkgName);
-		}
+		return getImportedSources(visited).get(pkgName);
 	}
 
-	private KeyedHashSet getImportedSources(Collection<BundleLoader> visited) {
-		synchronized (importedSources) {
-			if (importsInitialized) {
+	private Map<String, PackageSource> getImportedSources(Collection<BundleLoader> visited) {
+		Map<String, PackageSource> result = importedSources;
+		if (result != null) {
+			return result;
+		}
+		synchronized (importsMonitor) {
+			if (importedSources != null) {
 				return importedSources;
 			}
 			List<ModuleWire> importWires = wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
-			if (importWires != null) {
+			if (importWires == null || importWires.isEmpty()) {
+				result = Collections.emptyMap();
+			} else {
+				result = new HashMap<>(importWires.size() * 4 / 3 + 1);
 				for (ModuleWire importWire : importWires) {
 					PackageSource source = createExportPackageSource(importWire, visited);
-					if (source != null) {
-						importedSources.add(source);
+					if (source != null && !result.containsKey(source.getId())) {
+						result.put(source.getId(), source);
 					}
 				}
 			}
-			importsInitialized = true;
-			return importedSources;
+			importedSources = result;
+			return result;
 		}
 	}
 
@@ -1163,8 +1295,14 @@ public class BundleLoader extends ModuleLoader {
 				if (debug.DEBUG_LOADER) {
 					Debug.println("BundleLoader[" + this + "] using dynamic import source: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 				}
-				synchronized (importedSources) {
-					importedSources.add(source);
+				synchronized (importsMonitor) {
+					Map<String, PackageSource> current = getImportedSources(null);
+					if (!current.containsKey(source.getId())) {
+						// copy on write so that lookups never need to lock
+						Map<String, PackageSource> updated = new HashMap<>(current);
+						updated.put(source.getId(), source);
+						importedSources = updated;
+					}
 				}
 				return source;
 			}
@@ -1173,13 +1311,47 @@ public class BundleLoader extends ModuleLoader {
 	}
 
 	private PackageSource findRequiredSource(String pkgName, Collection<BundleLoader> visited) {
-		synchronized (requiredSources) {
-			PackageSource result = (PackageSource) requiredSources.getByKey(pkgName);
-			if (result != null)
-				return result.isNullSource() ? null : result;
+		if (visited != null) {
+			// searching on behalf of another loader; must not recurse back to the visited loaders
+			return createRequiredSource(pkgName, visited);
+		}
+		if (requiredBundleWires.isEmpty()) {
+			return null;
+		}
+		RequiredSources current = requiredSources;
+		long exportUpdates = getAdaptor().getExportUpdates();
+		if (current == null || current.exportUpdates != exportUpdates) {
+			current = new RequiredSources(createRequiredSources(), exportUpdates);
+			requiredSources = current;
+		}
+		return current.sources.get(pkgName);
+	}
+
+	/*
+	 * Computes the sources of all packages provided by the required bundles
+	 * so that later lookups are a single map lookup.
+	 */
+	private Map<String, PackageSource> createRequiredSources() {
+		Collection<String> packageNames = new LinkedHashSet<>();
+		Collection<BundleLoader> visited = new ArrayList<>();
+		visited.add(this); // always add ourselves so we do not recurse back to ourselves
+		for (ModuleWire bundleWire : requiredBundleWires) {
+			BundleLoader loader = (BundleLoader) bundleWire.getProviderWiring().getModuleLoader();
+			if (loader != null) {
+				loader.addProvidedPackageNames(DEFAULT_PACKAGE, packageNames, true, visited);
+			}
+		}
+		Map<String, PackageSource> result = new HashMap<>(packageNames.size() * 4 / 3 + 1);
+		for (String packageName : packageNames) {
+			PackageSource source = createRequiredSource(packageName, new ArrayList<BundleLoader>());
+			if (source != null) {
+				result.put(packageName, source);
+			}
 		}
-		if (visited == null)
-			visited = new ArrayList<>();
+		return result;
+	}
+
+	private PackageSource createRequiredSource(String pkgName, Collection<BundleLoader> visited) {
 		if (!visited.contains(this))
 			visited.add(this); // always add ourselves so we do not recurse back to ourselves
 		List<PackageSource> result = new ArrayList<>(3);
@@ -1189,24 +1361,15 @@ public class BundleLoader extends ModuleLoader {
 				loader.addExportedProvidersFor(pkgName, result, visited);
 			}
 		}
-		// found some so cache the result for next time and return
-		PackageSource source;
 		if (result.size() == 0) {
-			// did not find it in our required bundles lets record the failure
-			// so we do not have to do the search again for this package.
-			source = NullPackageSource.getNullPackageSource(pkgName);
+			return null;
 		} else if (result.size() == 1) {
 			// if there is just one source, remember just the single source 
-			source = result.get(0);
-		} else {
-			// if there was more than one source, build a multisource and cache that.
-			PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
-			source = createMultiSource(pkgName, srcs);
-		}
-		synchronized (requiredSources) {
-			requiredSources.add(source);
+			return result.get(0);
 		}
-		return source.isNullSource() ? null : source;
+		// if there was more than one source, build a multisource
+		PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
+		return createMultiSource(pkgName, srcs);
 	}
 
 	/*
@@ -15,9 +15,12 @@ import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.cert.Certificate;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
@@ -80,7 +83,22 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 		}
 	}
 
-	private final Map<String, Thread> classNameLocks = new HashMap<>(5);
+	/**
+	 * A lock held by a thread while defining a class name.  Threads waiting
+	 * for the class name wait on the lock object itself so that only the
+	 * threads waiting for the same class name are notified when it is released.
+	 */
+	private static final class ClassNameLock {
+		final Thread owner;
+		/* @GuardedBy("this") */
+		boolean released;
+
+		ClassNameLock(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
+	private final ConcurrentMap<String, ClassNameLock> classNameLocks = new ConcurrentHashMap<>();
 	private final Object pkgLock = new Object();
 
 	/**
@@ -261,6 +279,10 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 	}
 
 	public DefineClassResult defineClass(String name, byte[] classbytes, ClasspathEntry classpathEntry) {
+		return defineClass(name, ByteBuffer.wrap(classbytes), classpathEntry);
+	}
+
+	public DefineClassResult defineClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry) {
 		// Note that we must check findLoadedClass again here since no locks are held between
 		// calling findLoadedClass the first time and defineClass.
 		// This is to allow weavers to get called while holding no locks.
@@ -273,7 +295,7 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 			try {
 				result = findLoadedClass(name);
 				if (result == null) {
-					result = defineClass(name, classbytes, 0, classbytes.length, classpathEntry.getDomain());
+					result = defineClass(name, classbytes, classpathEntry.getDomain());
 					defined = true;
 				}
 			} finally {
@@ -286,7 +308,7 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 			synchronized (this) {
 				result = findLoadedClass(name);
 				if (result == null) {
-					result = defineClass(name, classbytes, 0, classbytes.length, classpathEntry.getDomain());
+					result = defineClass(name, classbytes, classpathEntry.getDomain());
 					defined = true;
 				}
 			}
@@ -400,39 +422,45 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 	}
 
 	private boolean lockClassName(String classname) {
-		synchronized (classNameLocks) {
-			Object lockingThread = classNameLocks.get(classname);
-			Thread current = Thread.currentThread();
-			if (lockingThread == current)
-				return false;
-			boolean previousInterruption = Thread.interrupted();
-			try {
-				while (true) {
-					if (lockingThread == null) {
-						classNameLocks.put(classname, current);
-						return true;
+		Thread current = Thread.currentThread();
+		ClassNameLock lock = new ClassNameLock(current);
+		ClassNameLock lockingThread = classNameLocks.putIfAbsent(classname, lock);
+		if (lockingThread == null)
+			return true;
+		if (lockingThread.owner == current)
+			return false;
+		boolean previousInterruption = Thread.interrupted();
+		try {
+			while (true) {
+				synchronized (lockingThread) {
+					while (!lockingThread.released) {
+						lockingThread.wait();
 					}
-
-					classNameLocks.wait();
-					lockingThread = classNameLocks.get(classname);
 				}
-			} catch (InterruptedException e) {
-				previousInterruption = true;
-				// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
-				// to fail to load the class (see bug 490902)
-				throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
-			} finally {
-				if (previousInterruption) {
-					current.interrupt();
+				lockingThread = classNameLocks.putIfAbsent(classname, lock);
+				if (lockingThread == null) {
+					return true;
 				}
 			}
+		} catch (InterruptedException e) {
+			previousInterruption = true;
+			// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
+			// to fail to load the class (see bug 490902)
+			throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
+		} finally {
+			if (previousInterruption) {
+				current.interrupt();
+			}
 		}
 	}
 
 	private void unlockClassName(String classname) {
-		synchronized (classNameLocks) {
-			classNameLocks.remove(classname);
-			classNameLocks.notifyAll();
+		ClassNameLock lock = classNameLocks.remove(classname);
+		if (lock != null) {
+			synchronized (lock) {
+				lock.released = true;
+				lock.notifyAll();
+			}
 		}
 	}
 
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of names which a {@link BundleLoader} failed to find
+ * after searching the complete delegation chain.
+ * <p>
+ * Each entry records the container update count at the time the search
+ * started.  An entry is only a hit if the container has not been updated
+ * since, so any change to the wirings of the framework invalidates the
+ * cache.  When the cache is full it is cleared instead of evicting
+ * individual entries.
+ */
+final class NegativeLookupCache {
+	private final int maxSize;
+	private final Map<String, Long> names = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	NegativeLookupCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns true if the name was not found by a search which
+	 * started at the specified update count.
+	 * @param name the class or resource name
+	 * @param updateCount the current container update count
+	 * @return true if the name is known to not exist
+	 */
+	boolean contains(String name, long updateCount) {
+		Long notFound = names.get(name);
+		if (notFound != null && notFound.longValue() == updateCount) {
+			hits.incrementAndGet();
+			return true;
+		}
+		misses.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Records a name which was not found by a search which
+	 * started at the specified update count.
+	 * @param name the class or resource name
+	 * @param updateCount the container update count when the search started
+	 */
+	void add(String name, long updateCount) {
+		if (names.size() >= maxSize) {
+			names.clear();
+		}
+		names.put(name, Long.valueOf(updateCount));
+	}
+
+	void clear() {
+		names.clear();
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+}
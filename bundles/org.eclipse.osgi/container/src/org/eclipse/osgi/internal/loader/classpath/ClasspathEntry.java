@@ -15,10 +15,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -30,9 +32,11 @@ import org.eclipse.osgi.framework.util.KeyedElement;
 import org.eclipse.osgi.framework.util.KeyedHashSet;
 import org.eclipse.osgi.storage.BundleInfo;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.ClassBytesCache;
 import org.eclipse.osgi.storage.Storage;
 import org.eclipse.osgi.storage.bundlefile.BundleEntry;
 import org.eclipse.osgi.storage.bundlefile.BundleFile;
+import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
 
 /**
  * A ClasspathEntry contains a single <code>BundleFile</code> which is used as 
@@ -57,6 +61,15 @@ public class ClasspathEntry {
 	private final ManifestPackageAttributes mainManifestPackageAttributes;
 	private final Map<String, ManifestPackageAttributes> perPackageManifestAttributes;
 	private final List<BundleFile> mrBundleFiles;
+	/* null if this is not a multi-release jar or the jar could not be indexed */
+	private final MultiReleaseIndex mrIndex;
+	private final Generation generation;
+	/* null if the classes of this entry are not kept in the class bytes cache */
+	private final String classBytesSource;
+	private final Object indexMonitor = new Object();
+	/* written before indexed is set */
+	private DirectoryIndex directoryIndex;
+	private volatile boolean indexed;
 	private KeyedHashSet userObjects = null;
 
 	// TODO Note that PDE has internal dependency on this field type/name (bug 267238)
@@ -71,6 +84,7 @@ public class ClasspathEntry {
 	public ClasspathEntry(BundleFile bundlefile, ProtectionDomain domain, Generation generation) {
 		this.bundlefile = bundlefile;
 		this.domain = domain;
+		this.generation = generation;
 		this.data = new PDEData(generation.getBundleFile().getBaseFile(), generation.getRevision().getSymbolicName());
 		final Manifest manifest = loadManifest(bundlefile, generation);
 		if (manifest != null && generation.getBundleInfo().getStorage().getConfiguration().DEFINE_PACKAGE_ATTRIBUTES) {
@@ -88,27 +102,39 @@ public class ClasspathEntry {
 		} else {
 			isMRJar = manifest != null ? Boolean.parseBoolean(manifest.getMainAttributes().getValue(BundleInfo.MULTI_RELEASE_HEADER)) : false;
 		}
-		if (isMRJar) {
-			mrBundleFiles = getMRBundleFiles(bundlefile, generation);
+		Map<Integer, BundleFile> versionedFiles = isMRJar ? getMRBundleFiles(bundlefile, generation) : Collections.<Integer, BundleFile> emptyMap();
+		mrBundleFiles = versionedFiles.isEmpty() ? Collections.<BundleFile> emptyList() : Collections.unmodifiableList(new ArrayList<>(versionedFiles.values()));
+		if (!versionedFiles.isEmpty() && bundlefile instanceof ZipBundleFile) {
+			Storage storage = generation.getBundleInfo().getStorage();
+			mrIndex = MultiReleaseIndex.getIndex(bundlefile, versionedFiles, storage.getRuntimeVersion().getMajor(), generation, storage.getConfiguration().getDebug());
 		} else {
-			mrBundleFiles = Collections.emptyList();
+			mrIndex = null;
+		}
+		if (mrBundleFiles.isEmpty() && bundlefile instanceof ZipBundleFile && bundlefile.getBaseFile() != null && generation.getBundleInfo().getStorage().getConfiguration().CLASS_BYTES_CACHE) {
+			classBytesSource = ClassBytesCache.getSourcePath(bundlefile.getBaseFile());
+		} else {
+			classBytesSource = null;
 		}
 	}
 
-	private static List<BundleFile> getMRBundleFiles(BundleFile bundlefile, Generation generation) {
+	/*
+	 * Returns the versioned bundle files keyed by Java version, ordered from
+	 * the highest to the lowest version.
+	 */
+	private static Map<Integer, BundleFile> getMRBundleFiles(BundleFile bundlefile, Generation generation) {
 		Storage storage = generation.getBundleInfo().getStorage();
 		if (storage.getRuntimeVersion().getMajor() < 9) {
-			return Collections.emptyList();
+			return Collections.emptyMap();
 		}
-		List<BundleFile> mrBundleFiles = new ArrayList<>();
+		Map<Integer, BundleFile> mrBundleFiles = new LinkedHashMap<>();
 		for (int i = storage.getRuntimeVersion().getMajor(); i > 8; i--) {
 			String versionPath = BundleInfo.MULTI_RELEASE_VERSIONS + i + '/';
 			BundleEntry versionEntry = bundlefile.getEntry(versionPath);
 			if (versionEntry != null) {
-				mrBundleFiles.add(storage.createNestedBundleFile(versionPath, bundlefile, generation, BundleInfo.MULTI_RELEASE_FILTER_PREFIXES));
+				mrBundleFiles.put(Integer.valueOf(i), storage.createNestedBundleFile(versionPath, bundlefile, generation, BundleInfo.MULTI_RELEASE_FILTER_PREFIXES));
 			}
 		}
-		return Collections.unmodifiableList(mrBundleFiles);
+		return mrBundleFiles;
 	}
 
 	private static ManifestPackageAttributes manifestPackageAttributesFor(Attributes attributes, ManifestPackageAttributes defaultAttributes) {
@@ -182,15 +208,77 @@ public class ClasspathEntry {
 	 * @return the entry with the specified path.
 	 */
 	public BundleEntry findEntry(String path) {
+		if (mrIndex != null) {
+			BundleFile mrFile = mrIndex.getBundleFile(path);
+			if (mrFile != null) {
+				return mrFile.getEntry(path);
+			}
+			return mayContain(path) ? bundlefile.getEntry(path) : null;
+		}
 		for (BundleFile mrFile : mrBundleFiles) {
 			BundleEntry mrEntry = mrFile.getEntry(path);
 			if (mrEntry != null) {
 				return mrEntry;
 			}
 		}
+		if (!mayContain(path)) {
+			return null;
+		}
 		return bundlefile.getEntry(path);
 	}
 
+	/**
+	 * Returns the bytes of a class entry found with {@link #findEntry(String)}.
+	 * The bytes of classes from jar bundle files are read from and added to
+	 * the class bytes cache of the generation if the cache is enabled.
+	 * @param path the path of the class entry
+	 * @param entry the class entry
+	 * @return the class bytes
+	 * @throws IOException if an error occurs reading the class bytes
+	 */
+	byte[] getClassBytes(String path, BundleEntry entry) throws IOException {
+		ClassBytesCache cache = getClassBytesCache();
+		if (cache == null) {
+			return entry.getBytes();
+		}
+		byte[] result = cache.getBytes(classBytesSource, path);
+		if (result == null) {
+			result = entry.getBytes();
+			cache.putBytes(bundlefile.getBaseFile(), classBytesSource, path, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the bytes of a class entry found with {@link #findEntry(String)}
+	 * as a byte buffer.  Classes in the class bytes cache are returned as a
+	 * buffer which shares the memory mapped cache file.
+	 * @param path the path of the class entry
+	 * @param entry the class entry
+	 * @return the class bytes
+	 * @throws IOException if an error occurs reading the class bytes
+	 */
+	ByteBuffer getClassByteBuffer(String path, BundleEntry entry) throws IOException {
+		ClassBytesCache cache = getClassBytesCache();
+		if (cache == null) {
+			return entry.getByteBuffer();
+		}
+		ByteBuffer result = cache.getByteBuffer(classBytesSource, path);
+		if (result == null) {
+			byte[] bytes = entry.getBytes();
+			cache.putBytes(bundlefile.getBaseFile(), classBytesSource, path, bytes);
+			result = ByteBuffer.wrap(bytes);
+		}
+		return result;
+	}
+
+	private ClassBytesCache getClassBytesCache() {
+		if (classBytesSource == null) {
+			return null;
+		}
+		return generation.getClassBytesCache();
+	}
+
 	/**
 	 * Finds the resource wiht the specified name.
 	 * This handles Multi-Release searching also.
@@ -200,15 +288,47 @@ public class ClasspathEntry {
 	 * @return the resource URL or {@code null} if the resource does not exist.
 	 */
 	public URL findResource(String name, Module m, int index) {
+		if (mrIndex != null) {
+			BundleFile mrFile = mrIndex.getBundleFile(name);
+			if (mrFile != null) {
+				return mrFile.getResourceURL(name, m, index);
+			}
+			return mayContain(name) ? bundlefile.getResourceURL(name, m, index) : null;
+		}
 		for (BundleFile mrFile : mrBundleFiles) {
 			URL mrURL = mrFile.getResourceURL(name, m, index);
 			if (mrURL != null) {
 				return mrURL;
 			}
 		}
+		if (!mayContain(name)) {
+			return null;
+		}
 		return bundlefile.getResourceURL(name, m, index);
 	}
 
+	/**
+	 * Returns false if the bundle file of this classpath entry cannot contain the
+	 * specified path.  Only jar bundle files are indexed because the content of
+	 * a directory bundle file may change.
+	 * @param path the path to check
+	 * @return false if the path cannot exist in the bundle file
+	 */
+	private boolean mayContain(String path) {
+		if (!indexed) {
+			synchronized (indexMonitor) {
+				if (!indexed) {
+					if (bundlefile instanceof ZipBundleFile) {
+						directoryIndex = DirectoryIndex.getIndex(bundlefile, generation, generation.getBundleInfo().getStorage().getConfiguration().getDebug());
+					}
+					indexed = true;
+				}
+			}
+		}
+		DirectoryIndex index = directoryIndex;
+		return index == null || index.mayContain(path);
+	}
+
 	/**
 	 * Adds the BundleFile objects for this classpath in the proper order
 	 * for searching for resources. This handles Multi-Release ordering also.
@@ -15,6 +15,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -507,6 +508,28 @@ public class ClasspathManager {
 		}
 	}
 
+	/**
+	 * Defines a local class ahead of the first request for it.  Unlike
+	 * {@link #findLocalClass(String)} the class loader hook
+	 * {@link ClassLoaderHook#preFindLocalClass(String, ClasspathManager)} and
+	 * {@link ClassLoaderHook#postFindLocalClass(String, Class, ClasspathManager)} methods
+	 * are not called for the class, so a lazy activation trigger is only fired once
+	 * the class is requested with {@link #findLocalClass(String)}.
+	 * @param classname the requested class name.
+	 * @return the requested class or <code>null</code> if the class does not exist
+	 */
+	public Class<?> preloadLocalClass(String classname) {
+		Class<?> result = classloader.publicFindLoaded(classname);
+		if (result != null) {
+			return result;
+		}
+		try {
+			return findLocalClassImpl(classname, hookRegistry.getClassLoaderHooks());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
 	private Class<?> findLocalClassImpl(String classname, List<ClassLoaderHook> hooks) throws ClassNotFoundException {
 		Class<?> result = null;
 		for (int i = 0; i < entries.length; i++) {
@@ -538,9 +561,13 @@ public class ClasspathManager {
 		if (entry == null)
 			return null;
 
+		if (!isClassBytesRequired(hooks)) {
+			return findClassImpl(name, filename, classpathEntry, entry, hooks);
+		}
+
 		byte[] classbytes;
 		try {
-			classbytes = entry.getBytes();
+			classbytes = classpathEntry.getClassBytes(filename, entry);
 		} catch (IOException e) {
 			if (debug.DEBUG_LOADER)
 				Debug.println("  IOException reading " + filename + " from " + classpathEntry.getBundleFile()); //$NON-NLS-1$ //$NON-NLS-2$
@@ -560,6 +587,38 @@ public class ClasspathManager {
 		}
 	}
 
+	private Class<?> findClassImpl(String name, String filename, ClasspathEntry classpathEntry, BundleEntry entry, List<ClassLoaderHook> hooks) {
+		ByteBuffer classbytes;
+		try {
+			classbytes = classpathEntry.getClassByteBuffer(filename, entry);
+		} catch (IOException e) {
+			if (debug.DEBUG_LOADER)
+				Debug.println("  IOException reading " + filename + " from " + classpathEntry.getBundleFile()); //$NON-NLS-1$ //$NON-NLS-2$
+			throw (LinkageError) new LinkageError("Error reading class bytes: " + name).initCause(e); //$NON-NLS-1$
+		}
+		if (debug.DEBUG_LOADER) {
+			Debug.println("  read " + classbytes.remaining() + " bytes from " + classpathEntry.getBundleFile() + "!/" + filename); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			Debug.println("  defining class " + name); //$NON-NLS-1$
+		}
+
+		try {
+			return defineClass(name, classbytes, classpathEntry, entry, hooks);
+		} catch (Error e) {
+			if (debug.DEBUG_LOADER)
+				Debug.println("  error defining class " + name); //$NON-NLS-1$
+			throw e;
+		}
+	}
+
+	private static boolean isClassBytesRequired(List<ClassLoaderHook> hooks) {
+		for (ClassLoaderHook hook : hooks) {
+			if (hook.isClassBytesRequired()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	static class DefineContext {
 		Collection<String> currentlyProcessing = new ArrayList<>(5);
 		Collection<String> currentlyDefining = new ArrayList<>(5);
@@ -647,6 +706,49 @@ public class ClasspathManager {
 		return result == null ? null : result.clazz;
 	}
 
+	/**
+	 * Defines the specified class from a byte buffer.  This method is only used if none of the
+	 * class loader hooks require the class bytes, so the hook
+	 * {@link ClassLoaderHook#processClass(String, byte[], ClasspathEntry, BundleEntry, ClasspathManager)}
+	 * methods are not called and the hook
+	 * {@link ClassLoaderHook#recordClassDefine(String, Class, byte[], ClasspathEntry, BundleEntry, ClasspathManager)}
+	 * methods are called with <code>null</code> class bytes.
+	 * @param name the name of the class to define
+	 * @param classbytes the class bytes
+	 * @param classpathEntry the classpath entry used to load the class bytes
+	 * @param entry the BundleEntry used to load the class bytes
+	 * @param hooks the class loader hooks
+	 * @return the defined class
+	 */
+	private Class<?> defineClass(String name, ByteBuffer classbytes, ClasspathEntry classpathEntry, BundleEntry entry, List<ClassLoaderHook> hooks) {
+		DefineClassResult result = null;
+		try {
+			definePackage(name, classpathEntry);
+			DefineContext context = currentDefineContext.get();
+			if (context == null) {
+				context = new DefineContext();
+				currentDefineContext.set(context);
+			}
+			if (context.currentlyDefining.contains(name)) {
+				return null; // avoid recursive defines (bug 345500)
+			}
+			context.currentlyDefining.add(name);
+			try {
+				result = classloader.defineClass(name, classbytes, classpathEntry);
+			} finally {
+				context.currentlyDefining.remove(name);
+			}
+		} finally {
+			// only pass the newly defined class to the hook
+			Class<?> defined = result != null && result.defined ? result.clazz : null;
+			for (ClassLoaderHook hook : hooks) {
+				hook.recordClassDefine(name, defined, null, classpathEntry, entry, this);
+			}
+		}
+		// return either the pre-loaded class or the newly defined class
+		return result == null ? null : result.clazz;
+	}
+
 	private byte[] processClass(ClassLoaderHook hook, String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, ClasspathManager classpathManager, List<ClassLoaderHook> hooks) {
 		byte[] modifiedBytes = hook.processClass(name, classbytes, classpathEntry, entry, this);
 		if (modifiedBytes != null) {
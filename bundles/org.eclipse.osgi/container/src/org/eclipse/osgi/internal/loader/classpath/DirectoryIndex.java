@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader.classpath;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage.StorageException;
+import org.eclipse.osgi.storage.StorageFile;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+
+/**
+ * A sorted set of all the directories of a jar bundle file.  A directory
+ * is included if it contains at least one entry, either a file or another
+ * directory.  An entry can only exist in a bundle file if its parent
+ * directory is in the index, which allows a {@link ClasspathEntry} to skip
+ * bundle files that cannot contain the requested path.
+ * <p>
+ * The index is built from the central directory of the jar and is stored
+ * with the generation so that it does not need to be built again on restart.
+ */
+final class DirectoryIndex {
+	private static final int VERSION = 1;
+	private static final String INDEX_DIR = ".idx"; //$NON-NLS-1$
+
+	private final String[] directories;
+
+	private DirectoryIndex(String[] directories) {
+		this.directories = directories;
+	}
+
+	/**
+	 * Returns true if the specified path may exist in the indexed bundle file.
+	 * @param path the path of an entry or directory
+	 * @return false if the path cannot exist in the indexed bundle file
+	 */
+	boolean mayContain(String path) {
+		int begin = path.length() > 0 && path.charAt(0) == '/' ? 1 : 0;
+		// the parent of a directory path is found before its trailing slash
+		int slash = path.lastIndexOf('/', path.length() - 2);
+		String parent = slash < begin ? "" : path.substring(begin, slash + 1); //$NON-NLS-1$
+		return Arrays.binarySearch(directories, parent) >= 0;
+	}
+
+	int size() {
+		return directories.length;
+	}
+
+	/**
+	 * Loads the stored index for the bundle file or builds a new one and stores it.
+	 * @param bundleFile the jar bundle file to index
+	 * @param generation the generation the bundle file belongs to
+	 * @param debug the debug options
+	 * @return the directory index or <code>null</code> if the bundle file could not be indexed
+	 */
+	static DirectoryIndex getIndex(BundleFile bundleFile, Generation generation, Debug debug) {
+		File baseFile = bundleFile.getBaseFile();
+		File indexFile = getIndexFile(baseFile, generation);
+		DirectoryIndex result = indexFile == null ? null : load(indexFile, baseFile, debug);
+		if (result != null) {
+			return result;
+		}
+		result = build(bundleFile);
+		if (result == null) {
+			return null;
+		}
+		if (indexFile != null && !generation.getBundleInfo().getStorage().isReadOnly()) {
+			store(result, indexFile, baseFile, debug);
+		}
+		return result;
+	}
+
+	private static DirectoryIndex build(BundleFile bundleFile) {
+		// recursive entry paths include every parent directory
+		Enumeration<String> paths = bundleFile.getEntryPaths("", true); //$NON-NLS-1$
+		if (paths == null) {
+			// the bundle file is empty or could not be opened
+			return null;
+		}
+		Set<String> result = new HashSet<>();
+		result.add(""); //$NON-NLS-1$
+		while (paths.hasMoreElements()) {
+			String path = paths.nextElement();
+			if (path.length() > 0 && path.charAt(path.length() - 1) == '/') {
+				result.add(path);
+			}
+		}
+		String[] directories = result.toArray(new String[result.size()]);
+		Arrays.sort(directories);
+		return new DirectoryIndex(directories);
+	}
+
+	private static File getIndexFile(File baseFile, Generation generation) {
+		if (baseFile == null) {
+			return null;
+		}
+		try {
+			return generation.getExtractFile(INDEX_DIR, Integer.toHexString(baseFile.getAbsolutePath().hashCode()));
+		} catch (StorageException e) {
+			return null;
+		}
+	}
+
+	private static DirectoryIndex load(File indexFile, final File baseFile, Debug debug) {
+		return StorageFile.read(indexFile, new StorageFile.Reader<DirectoryIndex>() {
+			@Override
+			public DirectoryIndex read(DataInputStream in) throws IOException {
+				// the index is only valid for the same content
+				if (in.readInt() != VERSION || !StorageFile.readStamp(in, baseFile)) {
+					return null;
+				}
+				int numDirectories = in.readInt();
+				String[] directories = new String[numDirectories];
+				for (int i = 0; i < numDirectories; i++) {
+					directories[i] = in.readUTF();
+				}
+				return new DirectoryIndex(directories);
+			}
+		}, debug.DEBUG_LOADER);
+	}
+
+	private static void store(final DirectoryIndex index, File indexFile, final File baseFile, Debug debug) {
+		StorageFile.write(indexFile, new StorageFile.Writer() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				out.writeInt(VERSION);
+				StorageFile.writeStamp(out, baseFile);
+				out.writeInt(index.directories.length);
+				for (String directory : index.directories) {
+					out.writeUTF(directory);
+				}
+			}
+		}, debug.DEBUG_LOADER);
+	}
+}
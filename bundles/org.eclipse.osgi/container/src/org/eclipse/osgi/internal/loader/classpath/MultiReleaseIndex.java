@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader.classpath;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.storage.BundleInfo;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage.StorageException;
+import org.eclipse.osgi.storage.StorageFile;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+
+/**
+ * Maps the paths of a multi-release jar bundle file to the versioned bundle
+ * file which provides each path for the running Java version.  Only paths
+ * which are overridden by a versioned directory are included; all other
+ * paths are provided by the base bundle file.  This allows a {@link ClasspathEntry}
+ * to find an entry with a single lookup instead of probing each versioned
+ * directory.
+ * <p>
+ * The index is built from the central directory of the jar and is stored
+ * with the generation so that it does not need to be built again on restart.
+ */
+final class MultiReleaseIndex {
+	private static final int VERSION = 1;
+	private static final String INDEX_DIR = ".idx"; //$NON-NLS-1$
+	private static final String INDEX_SUFFIX = ".mr"; //$NON-NLS-1$
+
+	private final Map<String, BundleFile> versionedFiles;
+
+	private MultiReleaseIndex(Map<String, BundleFile> versionedFiles) {
+		this.versionedFiles = versionedFiles;
+	}
+
+	/**
+	 * Returns the versioned bundle file which provides the specified path.
+	 * @param path the path of an entry
+	 * @return the versioned bundle file or <code>null</code> if the path is
+	 * provided by the base bundle file
+	 */
+	BundleFile getBundleFile(String path) {
+		if (path.length() > 0 && path.charAt(0) == '/') {
+			path = path.substring(1);
+		}
+		return versionedFiles.get(path);
+	}
+
+	int size() {
+		return versionedFiles.size();
+	}
+
+	/**
+	 * Loads the stored index for the bundle file or builds a new one and stores it.
+	 * @param bundleFile the multi-release jar bundle file to index
+	 * @param mrBundleFiles the versioned bundle files keyed by Java version
+	 * @param runtimeVersion the major version of the running Java
+	 * @param generation the generation the bundle file belongs to
+	 * @param debug the debug options
+	 * @return the multi-release index or <code>null</code> if the bundle file could not be indexed
+	 */
+	static MultiReleaseIndex getIndex(BundleFile bundleFile, Map<Integer, BundleFile> mrBundleFiles, int runtimeVersion, Generation generation, Debug debug) {
+		File baseFile = bundleFile.getBaseFile();
+		File indexFile = getIndexFile(baseFile, generation);
+		Map<String, Integer> versions = indexFile == null ? null : load(indexFile, baseFile, runtimeVersion, debug);
+		if (versions == null) {
+			versions = build(bundleFile, mrBundleFiles);
+			if (versions == null) {
+				return null;
+			}
+			if (indexFile != null && !generation.getBundleInfo().getStorage().isReadOnly()) {
+				store(versions, indexFile, baseFile, runtimeVersion, debug);
+			}
+		}
+		Map<String, BundleFile> versionedFiles = new HashMap<>(versions.size() * 4 / 3 + 1);
+		for (Map.Entry<String, Integer> version : versions.entrySet()) {
+			BundleFile versionedFile = mrBundleFiles.get(version.getValue());
+			if (versionedFile == null) {
+				// the stored index does not match the versioned directories
+				return null;
+			}
+			versionedFiles.put(version.getKey(), versionedFile);
+		}
+		return new MultiReleaseIndex(versionedFiles);
+	}
+
+	private static Map<String, Integer> build(BundleFile bundleFile, Map<Integer, BundleFile> mrBundleFiles) {
+		Map<String, Integer> result = new HashMap<>();
+		// recursive entry paths include every parent directory
+		Enumeration<String> paths = bundleFile.getEntryPaths(BundleInfo.MULTI_RELEASE_VERSIONS, true);
+		if (paths == null) {
+			// the bundle file could not be opened
+			return null;
+		}
+		int prefixLength = BundleInfo.MULTI_RELEASE_VERSIONS.length();
+		while (paths.hasMoreElements()) {
+			String path = paths.nextElement();
+			int slash = path.indexOf('/', prefixLength);
+			if (slash < 0 || slash == path.length() - 1) {
+				continue;
+			}
+			Integer version;
+			try {
+				version = Integer.valueOf(path.substring(prefixLength, slash));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (!mrBundleFiles.containsKey(version)) {
+				// not a version which applies to the running Java
+				continue;
+			}
+			String logicalPath = path.substring(slash + 1);
+			if (isFiltered(logicalPath)) {
+				continue;
+			}
+			Integer current = result.get(logicalPath);
+			if (current == null || current.intValue() < version.intValue()) {
+				result.put(logicalPath, version);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isFiltered(String path) {
+		for (String prefix : BundleInfo.MULTI_RELEASE_FILTER_PREFIXES) {
+			if (path.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static File getIndexFile(File baseFile, Generation generation) {
+		if (baseFile == null) {
+			return null;
+		}
+		try {
+			return generation.getExtractFile(INDEX_DIR, Integer.toHexString(baseFile.getAbsolutePath().hashCode()) + INDEX_SUFFIX);
+		} catch (StorageException e) {
+			return null;
+		}
+	}
+
+	private static Map<String, Integer> load(File indexFile, final File baseFile, final int runtimeVersion, Debug debug) {
+		return StorageFile.read(indexFile, new StorageFile.Reader<Map<String, Integer>>() {
+			@Override
+			public Map<String, Integer> read(DataInputStream in) throws IOException {
+				// the index is only valid for the same content and Java version
+				if (in.readInt() != VERSION || !StorageFile.readStamp(in, baseFile) || runtimeVersion != in.readInt()) {
+					return null;
+				}
+				int numPaths = in.readInt();
+				Map<String, Integer> result = new HashMap<>(numPaths * 4 / 3 + 1);
+				for (int i = 0; i < numPaths; i++) {
+					String path = in.readUTF();
+					result.put(path, Integer.valueOf(in.readInt()));
+				}
+				return result;
+			}
+		}, debug.DEBUG_LOADER);
+	}
+
+	private static void store(final Map<String, Integer> versions, File indexFile, final File baseFile, final int runtimeVersion, Debug debug) {
+		StorageFile.write(indexFile, new StorageFile.Writer() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				out.writeInt(VERSION);
+				StorageFile.writeStamp(out, baseFile);
+				out.writeInt(runtimeVersion);
+				out.writeInt(versions.size());
+				for (Map.Entry<String, Integer> version : versions.entrySet()) {
+					out.writeUTF(version.getKey());
+					out.writeInt(version.getValue().intValue());
+				}
+			}
+		}, debug.DEBUG_LOADER);
+	}
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A hash index of published services on the values of a single service
+ * property key. The index is partitioned by class name and only holds
+ * registrations whose property value is a String, a String array or a
+ * Collection of Strings since only those values can be matched by an
+ * equality filter using String equality.
+ * Registrations with other value types are counted as unindexed in which
+ * case the index cannot be used for that class name.
+ *
+ * @ThreadSafe
+ */
+class ServicePropertyIndex {
+	/** The property key this index is for. */
+	private final String key;
+
+	/** Published services by class name and then by property value.
+	 * The {@literal List<ServiceRegistrationImpl<?>>}s are immutable snapshots
+	 * sorted in the natural order of ServiceRegistrationImpl.
+	 */
+	/* @GuardedBy("registry") for writes */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>>> servicesByClass;
+
+	/** Number of published services by class name that have an unindexable value. */
+	/* @GuardedBy("registry") for writes */
+	private final ConcurrentHashMap<String, Integer> unindexedByClass;
+
+	ServicePropertyIndex(String key) {
+		this.key = key;
+		this.servicesByClass = new ConcurrentHashMap<>();
+		this.unindexedByClass = new ConcurrentHashMap<>();
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Add the registration to the index using the specified properties.
+	 * @param registration the registration to add
+	 * @param properties the properties of the registration
+	 */
+	/* @GuardedBy("registry") */
+	void add(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return; // cannot match an equality filter on this key
+		}
+		Collection<String> values = getIndexValues(value);
+		for (String clazz : registration.getClasses()) {
+			if (values == null) {
+				Integer count = unindexedByClass.get(clazz);
+				unindexedByClass.put(clazz, count == null ? 1 : count + 1);
+				continue;
+			}
+			ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>> servicesByValue = servicesByClass.get(clazz);
+			if (servicesByValue == null) {
+				servicesByValue = new ConcurrentHashMap<>();
+				servicesByClass.put(clazz, servicesByValue);
+			}
+			for (String v : values) {
+				servicesByValue.put(v, ServiceRegistry.insertRegistration(servicesByValue.get(v), registration));
+			}
+		}
+	}
+
+	/**
+	 * Remove the registration from the index using the specified properties.
+	 * The properties must be the same properties used to add the registration.
+	 * @param registration the registration to remove
+	 * @param properties the properties used to add the registration
+	 */
+	/* @GuardedBy("registry") */
+	void remove(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Collection<String> values = getIndexValues(value);
+		for (String clazz : registration.getClasses()) {
+			if (values == null) {
+				Integer count = unindexedByClass.get(clazz);
+				if (count != null) {
+					if (count > 1) {
+						unindexedByClass.put(clazz, count - 1);
+					} else {
+						unindexedByClass.remove(clazz);
+					}
+				}
+				continue;
+			}
+			ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>> servicesByValue = servicesByClass.get(clazz);
+			if (servicesByValue == null) {
+				continue;
+			}
+			for (String v : values) {
+				List<ServiceRegistrationImpl<?>> services = servicesByValue.get(v);
+				if (services == null) {
+					continue;
+				}
+				services = ServiceRegistry.removeRegistration(services, registration);
+				if (services.isEmpty()) {
+					servicesByValue.remove(v);
+				} else {
+					servicesByValue.put(v, services);
+				}
+			}
+			if (servicesByValue.isEmpty()) {
+				servicesByClass.remove(clazz);
+			}
+		}
+	}
+
+	/**
+	 * Returns the sorted snapshot of registrations published under the class name
+	 * which have the specified value for the key of this index, or <code>null</code>
+	 * if the index cannot be used for the class name.
+	 * @param clazz the class name
+	 * @param value the required value
+	 * @return the registrations or <code>null</code>.
+	 */
+	List<ServiceRegistrationImpl<?>> lookup(String clazz, String value) {
+		if (unindexedByClass.containsKey(clazz)) {
+			return null;
+		}
+		ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>> servicesByValue = servicesByClass.get(clazz);
+		if (servicesByValue == null) {
+			return Collections.emptyList();
+		}
+		List<ServiceRegistrationImpl<?>> result = servicesByValue.get(value);
+		return result == null ? Collections.<ServiceRegistrationImpl<?>> emptyList() : result;
+	}
+
+	/**
+	 * Returns the String values to index for a property value or <code>null</code>
+	 * if the value cannot be indexed.
+	 */
+	private static Collection<String> getIndexValues(Object value) {
+		if (value instanceof String) {
+			return Collections.singleton((String) value);
+		}
+		Collection<?> values;
+		if (value instanceof Object[]) {
+			values = Arrays.asList((Object[]) value);
+		} else if (value instanceof Collection) {
+			values = (Collection<?>) value;
+		} else {
+			return null;
+		}
+		Set<String> result = new HashSet<>(values.size());
+		for (Object v : values) {
+			if (!(v instanceof String)) {
+				return null;
+			}
+			result.add((String) v);
+		}
+		return result;
+	}
+}
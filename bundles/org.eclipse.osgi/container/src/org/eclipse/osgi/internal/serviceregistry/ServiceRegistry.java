@@ -13,14 +13,18 @@ package org.eclipse.osgi.internal.serviceregistry;
 
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.framework.eventmgr.*;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.framework.FilterImpl;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.*;
 import org.osgi.framework.hooks.service.*;
@@ -45,16 +49,29 @@ public class ServiceRegistry {
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted 
 	 * in the natural order of ServiceRegistrationImpl and also are sets in that
 	 * there must be no two entries in a List which are equal.
+	 * The Lists are immutable snapshots which are replaced on each change so
+	 * that lookups can read them without holding the registry lock.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* @GuardedBy("this") for writes */
+	private final ConcurrentHashMap<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
 
 	/** All published services. 
 	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
 	 * set in that there must be no two entries in the List which are equal.
+	 * The List is an immutable snapshot which is replaced on each change.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* @GuardedBy("this") for writes */
+	private volatile List<ServiceRegistrationImpl<?>> allPublishedServices;
+
+	/** The service property keys which may be indexed. */
+	private final String[] indexKeys;
+
+	/** Service property indexes by property key.
+	 * An index is created on demand the first time a filter
+	 * requires a value for one of the {@link #indexKeys}.
+	 */
+	/* @GuardedBy("this") for writes */
+	private final ConcurrentHashMap<String, ServicePropertyIndex> propertyIndexes;
 
 	/** Published services by BundleContextImpl.  
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted 
@@ -64,6 +81,12 @@ public class ServiceRegistry {
 	/* @GuardedBy("this") */
 	private final Map<BundleContextImpl, List<ServiceRegistrationImpl<?>>> publishedServicesByContext;
 
+	/** Published services by service id.
+	 * Lookups by service id read this map without holding the registry lock.
+	 */
+	/* @GuardedBy("this") for writes */
+	private final ConcurrentHashMap<Long, ServiceRegistrationImpl<?>> publishedServicesById;
+
 	/** next free service id. */
 	/* @GuardedBy("this") */
 	private long serviceid;
@@ -91,10 +114,13 @@ public class ServiceRegistry {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<>(initialCapacity);
+		publishedServicesByClass = new ConcurrentHashMap<>(initialCapacity);
 		publishedServicesByContext = new HashMap<>(initialCapacity);
-		allPublishedServices = new ArrayList<>(initialCapacity);
+		publishedServicesById = new ConcurrentHashMap<>(initialCapacity);
+		allPublishedServices = Collections.emptyList();
 		serviceEventListeners = new HashMap<>(initialCapacity);
+		indexKeys = ManifestElement.getArrayFromList(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_SERVICE_REGISTRY_INDEX_KEYS, EquinoxConfiguration.SERVICE_REGISTRY_INDEX_KEYS_DEFAULT), ","); //$NON-NLS-1$
+		propertyIndexes = new ConcurrentHashMap<>();
 		Module systemModule = container.getStorage().getModuleContainer().getModule(0);
 		systemBundleContext = (BundleContextImpl) systemModule.getBundle().getBundleContext();
 		systemBundleContext.provisionServicesInUseMap();
@@ -903,24 +929,24 @@ public class ServiceRegistry {
 		contextServices.add(registration);
 
 		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
 			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-
-			if (services == null) {
-				services = new ArrayList<>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
-			}
-
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(services, registration));
 		}
 
+		// Add the ServiceRegistrationImpl to the table of Services published by id.
+		publishedServicesById.put(registration.getId(), registration);
+
 		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(allPublishedServices, registration);
+
+		// Add the ServiceRegistrationImpl to the property indexes.
+		if (!propertyIndexes.isEmpty()) {
+			Map<String, Object> properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes.values()) {
+				index.add(registration, properties);
+			}
+		}
 	}
 
 	/**
@@ -928,30 +954,34 @@ public class ServiceRegistry {
 	 * 
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousProperties The properties of the registration before it was modified.
 	 */
 	/* @GuardedBy("this") */
-	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration) {
+	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration, Map<String, Object> previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name
 		// and then add at the correct index.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
 			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, insertRegistration(removeRegistration(services, registration), registration));
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services
 		// and then add at the correct index.
-		allPublishedServices.remove(registration);
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = insertRegistration(removeRegistration(allPublishedServices, registration), registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes using the
+		// previous properties and then add it using the new properties.
+		if (!propertyIndexes.isEmpty()) {
+			Map<String, Object> properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes.values()) {
+				index.remove(registration, previousProperties);
+				index.add(registration, properties);
+			}
+		}
 	}
 
 	/**
@@ -972,14 +1002,94 @@ public class ServiceRegistry {
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
 		for (String clazz : registration.getClasses()) {
 			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
+			if (services == null) {
+				continue; // duplicate class name already removed
+			}
+			services = removeRegistration(services, registration);
 			if (services.isEmpty()) { // remove empty list
 				publishedServicesByClass.remove(clazz);
+			} else {
+				publishedServicesByClass.put(clazz, services);
 			}
 		}
 
+		// Remove the ServiceRegistrationImpl from the table of Services published by id.
+		publishedServicesById.remove(registration.getId());
+
 		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+		allPublishedServices = removeRegistration(allPublishedServices, registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes.
+		if (!propertyIndexes.isEmpty()) {
+			Map<String, Object> properties = registration.getProperties();
+			for (ServicePropertyIndex index : propertyIndexes.values()) {
+				index.remove(registration, properties);
+			}
+		}
+	}
+
+	/**
+	 * Create a new snapshot list containing the registration inserted at its
+	 * sorted position.
+	 * 
+	 * @param services The current snapshot, may be <code>null</code>.
+	 * @param registration The ServiceRegistration to insert.
+	 * @return A new immutable sorted snapshot.
+	 */
+	static List<ServiceRegistrationImpl<?>> insertRegistration(List<ServiceRegistrationImpl<?>> services, ServiceRegistrationImpl<?> registration) {
+		if (services == null) {
+			return Collections.<ServiceRegistrationImpl<?>> singletonList(registration);
+		}
+		// The list is sorted, so we must find the proper location to insert
+		int insertIndex = -Collections.binarySearch(services, registration) - 1;
+		if (insertIndex < 0) {
+			return services; // already present; duplicate class name
+		}
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[services.size() + 1];
+		int i = 0;
+		for (ServiceRegistrationImpl<?> service : services) {
+			if (i == insertIndex) {
+				result[i++] = registration;
+			}
+			result[i++] = service;
+		}
+		if (i == insertIndex) {
+			result[i] = registration;
+		}
+		return Collections.unmodifiableList(Arrays.asList(result));
+	}
+
+	/**
+	 * Create a new snapshot list with the registration removed.
+	 * The registration is located by identity since its ranking may
+	 * already have been modified.
+	 * 
+	 * @param services The current snapshot.
+	 * @param registration The ServiceRegistration to remove.
+	 * @return A new immutable sorted snapshot.
+	 */
+	static List<ServiceRegistrationImpl<?>> removeRegistration(List<ServiceRegistrationImpl<?>> services, ServiceRegistrationImpl<?> registration) {
+		int size = services.size();
+		int removeIndex = -1;
+		for (int i = 0; i < size; i++) {
+			if (services.get(i) == registration) {
+				removeIndex = i;
+				break;
+			}
+		}
+		if (removeIndex < 0) {
+			return services;
+		}
+		if (size == 1) {
+			return Collections.emptyList();
+		}
+		ServiceRegistrationImpl<?>[] result = new ServiceRegistrationImpl<?>[size - 1];
+		for (int i = 0, j = 0; i < size; i++) {
+			if (i != removeIndex) {
+				result[j++] = services.get(i);
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(result));
 	}
 
 	/**
@@ -988,46 +1098,151 @@ public class ServiceRegistry {
 	 * @param clazz The class name with which the service was registered or
 	 *        <code>null</code> for all services.
 	 * @param filter The filter criteria.
-	 * @return List<ServiceRegistrationImpl>
+	 * @return List<ServiceRegistrationImpl> which must not be modified
 	 */
 	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
-		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
-			}
-
-			if ((result == null) || result.isEmpty()) {
-				List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
-				return empty;
-			}
+		FilterImpl filterImpl = (filter instanceof FilterImpl) ? (FilterImpl) filter : null;
+		if ((clazz == null) && (filterImpl != null)) {
+			/* a filter which requires an objectClass value can only match services registered under that class name */
+			clazz = filterImpl.getRequiredObjectClass();
+		}
+		/* the snapshots are immutable so no lock is needed to read them */
+		List<ServiceRegistrationImpl<?>> snapshot;
+		if (clazz == null) { /* all services */
+			snapshot = allPublishedServices;
+		} else {
+			/* services registered under the class name */
+			snapshot = publishedServicesByClass.get(clazz);
+		}
 
-			result = new LinkedList<>(result); /* make a new list since we don't want to change the real list */
+		if ((snapshot == null) || snapshot.isEmpty()) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
 		}
 
 		if (filter == null) {
-			return result;
+			return snapshot;
+		}
+
+		if (filterImpl != null) {
+			List<ServiceRegistrationImpl<?>> byId = lookupServiceRegistrationById(clazz, filterImpl);
+			if (byId != null) {
+				if (byId.isEmpty()) {
+					return byId;
+				}
+				snapshot = byId;
+			}
 		}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+		if ((clazz != null) && (filterImpl != null) && (indexKeys.length > 0) && (snapshot.size() > 1)) {
+			List<ServiceRegistrationImpl<?>> indexed = lookupIndexedServiceRegistrations(clazz, filterImpl);
+			if (indexed != null) {
+				if (indexed.isEmpty()) {
+					return indexed;
+				}
+				snapshot = indexed;
+			}
+		}
+
+		List<ServiceRegistrationImpl<?>> result = null;
+		for (ServiceRegistrationImpl<?> registration : snapshot) {
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the snapshot was taken */
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+			if (filter.match(reference)) {
+				if (result == null) {
+					result = new ArrayList<>(snapshot.size());
+				}
+				result.add(registration);
 			}
 		}
+		if (result == null) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
+		}
 		return result;
 	}
 
+	/**
+	 * Lookup the candidate Service Registration for a filter which requires a
+	 * {@link Constants#SERVICE_ID service.id} value.  The candidate must still
+	 * be matched against the filter.
+	 * 
+	 * @param clazz The class name with which the service was registered or
+	 *        <code>null</code> for all services.
+	 * @param filter The filter criteria.
+	 * @return The candidate Service Registration or <code>null</code>
+	 * if the filter does not require a service id.
+	 */
+	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrationById(String clazz, FilterImpl filter) {
+		String value = filter.getPrimaryKeyValue(Constants.SERVICE_ID);
+		if (value == null) {
+			return null;
+		}
+		long id;
+		try {
+			id = Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			return null; /* let the filter decide */
+		}
+		ServiceRegistrationImpl<?> registration = publishedServicesById.get(id);
+		if (registration == null) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
+		}
+		if ((clazz != null) && !Arrays.asList(registration.getClasses()).contains(clazz)) {
+			return Collections.<ServiceRegistrationImpl<?>> emptyList();
+		}
+		return Collections.<ServiceRegistrationImpl<?>> singletonList(registration);
+	}
+
+	/**
+	 * Lookup the candidate Service Registrations for a filter using a property index.
+	 * The candidates must still be matched against the filter.
+	 * 
+	 * @param clazz The class name with which the service was registered.
+	 * @param filter The filter criteria.
+	 * @return The sorted candidate Service Registrations or <code>null</code>
+	 * if no property index can be used for the filter.
+	 */
+	private List<ServiceRegistrationImpl<?>> lookupIndexedServiceRegistrations(String clazz, FilterImpl filter) {
+		for (String key : indexKeys) {
+			String value = filter.getPrimaryKeyValue(key);
+			if (value != null) {
+				List<ServiceRegistrationImpl<?>> result = getPropertyIndex(key).lookup(clazz, value);
+				if (result != null) {
+					return result;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the property index for the key, building it from the
+	 * published services the first time it is requested.
+	 * 
+	 * @param key The service property key.
+	 * @return The property index.
+	 */
+	private ServicePropertyIndex getPropertyIndex(String key) {
+		ServicePropertyIndex index = propertyIndexes.get(key);
+		if (index != null) {
+			return index;
+		}
+		synchronized (this) {
+			index = propertyIndexes.get(key);
+			if (index == null) {
+				index = new ServicePropertyIndex(key);
+				for (ServiceRegistrationImpl<?> registration : allPublishedServices) {
+					index.add(registration, registration.getProperties());
+				}
+				propertyIndexes.put(key, index);
+			}
+			return index;
+		}
+	}
+
 	/**
 	 * Lookup Service Registrations in the data structure by BundleContext.
 	 * 
@@ -1264,6 +1479,16 @@ public class ServiceRegistry {
 		});
 	}
 
+	/**
+	 * Returns true if any hook services of the specified type are registered.
+	 * 
+	 * @param hookClassName The class name of the hook type.
+	 * @return true if any hook services of the specified type are registered.
+	 */
+	public boolean hasHooks(String hookClassName) {
+		return !lookupServiceRegistrations(hookClassName, null).isEmpty();
+	}
+
 	/**
 	 * Calls all hook services of the type specified by the hook context.
 	 * 
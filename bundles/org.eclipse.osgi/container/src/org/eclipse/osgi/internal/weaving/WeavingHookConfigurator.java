@@ -20,6 +20,7 @@ import org.eclipse.osgi.internal.loader.classpath.ClasspathManager;
 import org.eclipse.osgi.internal.serviceregistry.ServiceRegistry;
 import org.eclipse.osgi.storage.bundlefile.BundleEntry;
 import org.osgi.framework.*;
+import org.osgi.framework.hooks.weaving.WeavingHook;
 
 public class WeavingHookConfigurator extends ClassLoaderHook {
 	static class WovenClassContext {
@@ -85,6 +86,9 @@ public class WeavingHookConfigurator extends ClassLoaderHook {
 		WovenClassContext context = wovenClassContext.get();
 		if (context == null || context.wovenClassStack.size() == 0)
 			return;
+		// the weaving hooks are not called for classes defined without the class bytes
+		if (!name.equals(context.wovenClassStack.get(context.wovenClassStack.size() - 1).getClassName()))
+			return;
 		WovenClassImpl wovenClass = context.wovenClassStack.remove(context.wovenClassStack.size() - 1);
 		// inform the woven class about the class that was defined.
 		wovenClass.setWeavingCompleted(clazz);
@@ -94,4 +98,10 @@ public class WeavingHookConfigurator extends ClassLoaderHook {
 	public boolean isProcessClassRecursionSupported() {
 		return true;
 	}
+
+	@Override
+	public boolean isClassBytesRequired() {
+		ServiceRegistry registry = getRegistry();
+		return registry != null && registry.hasHooks(WeavingHook.class.getName());
+	}
 }
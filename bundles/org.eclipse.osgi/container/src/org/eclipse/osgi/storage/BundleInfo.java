@@ -56,6 +56,7 @@ public final class BundleInfo {
 	public static final String MULTI_RELEASE_HEADER = "Multi-Release"; //$NON-NLS-1$
 	public static final String MULTI_RELEASE_VERSIONS = "META-INF/versions/"; //$NON-NLS-1$
 	public static final Collection<String> MULTI_RELEASE_FILTER_PREFIXES = Collections.singleton("META-INF/"); //$NON-NLS-1$
+	private static final String CLASS_BYTES_CACHE_FILE = ".classes"; //$NON-NLS-1$
 
 	public final class Generation {
 		private final long generationId;
@@ -74,6 +75,7 @@ public final class BundleInfo {
 		private List<StorageHook<?, ?>> storageHooks;
 		private long lastModified;
 		private boolean isMRJar;
+		private volatile ClassBytesCache classBytesCache;
 
 		Generation(long generationId) {
 			this.generationId = generationId;
@@ -113,6 +115,9 @@ public final class BundleInfo {
 						// ignore
 					}
 				}
+				if (classBytesCache != null) {
+					classBytesCache.close();
+				}
 			}
 		}
 
@@ -302,6 +307,34 @@ public final class BundleInfo {
 			}
 		}
 
+		/**
+		 * Returns the cache of the uncompressed class bytes of this generation.
+		 * @return the class bytes cache or <code>null</code> if the cache is not enabled
+		 */
+		public ClassBytesCache getClassBytesCache() {
+			if (getBundleId() == 0 || !getStorage().getConfiguration().CLASS_BYTES_CACHE) {
+				return null;
+			}
+			// called for every class defined from a jar
+			ClassBytesCache result = classBytesCache;
+			if (result != null) {
+				return result;
+			}
+			synchronized (this.genMonitor) {
+				if (classBytesCache == null) {
+					File cacheFile;
+					try {
+						// never write to the parent configuration
+						cacheFile = getStorage().getFile(getBundleId() + "/" + getGenerationId(), CLASS_BYTES_CACHE_FILE, false); //$NON-NLS-1$
+					} catch (StorageException e) {
+						return null;
+					}
+					classBytesCache = new ClassBytesCache(cacheFile, getGenerationId(), getStorage().isReadOnly(), getStorage().getConfiguration().getDebug());
+				}
+				return classBytesCache;
+			}
+		}
+
 		/**
 		 * Gets called by BundleFile during {@link BundleFile#getFile(String, boolean)}.  This method 
 		 * will allocate a File object where content of the specified path may be 
@@ -385,6 +418,9 @@ public final class BundleInfo {
 						// ignore
 					}
 				}
+				if (classBytesCache != null) {
+					classBytesCache.close();
+				}
 			}
 			getBundleInfo().delete(this);
 		}
@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.osgi.internal.debug.Debug;
+
+/**
+ * A persistent cache of the uncompressed bytes of the classes loaded from
+ * the jar files of a generation.  All the classes of a generation are kept
+ * in a single file in the storage area of the generation, so the cache is
+ * discarded together with the generation when the bundle is updated or
+ * uninstalled.
+ * <p>
+ * The file starts with a header that holds the generation id followed by
+ * one record per class.  Each record holds the path, last modified time and
+ * length of the jar the class was read from, which are used to discard the
+ * whole file if any jar has changed.  New classes are appended to the file as
+ * they are loaded.  On the next start the records are validated with plain
+ * reads and any incomplete record is truncated.  Only then is the file mapped
+ * into memory so the classes can be defined without inflating them from the
+ * jar again.  The file is never truncated while it is mapped.
+ * <p>
+ * This class is thread safe.
+ */
+public final class ClassBytesCache {
+	private static final int VERSION = 2;
+	private static final int HEADER_LENGTH = 12;
+
+	private static final class Slot {
+		final int offset;
+		final int length;
+
+		Slot(int offset, int length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private final File cacheFile;
+	private final long generationId;
+	private final boolean readOnly;
+	private final Debug debug;
+	private final Object monitor = new Object();
+	/* written before opened is set; the slots by class name by source path */
+	private Map<String, Map<String, Slot>> slots;
+	private MappedByteBuffer mapped;
+	private volatile boolean opened;
+	private final Set<String> appended = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/* @GuardedBy("monitor") */
+	private DataOutputStream out;
+	/* @GuardedBy("monitor") */
+	private boolean closed;
+
+	ClassBytesCache(File cacheFile, long generationId, boolean readOnly, Debug debug) {
+		this.cacheFile = cacheFile;
+		this.generationId = generationId;
+		this.readOnly = readOnly;
+		this.debug = debug;
+	}
+
+	/**
+	 * Returns the path which identifies a jar file in the cache.  The path
+	 * should be computed once per jar and passed to the other methods.
+	 * @param source the jar file
+	 * @return the path of the jar file
+	 */
+	public static String getSourcePath(File source) {
+		// the path of a reference install may be resolved against the install area with ".." segments
+		return new File(source.toURI().normalize()).getPath();
+	}
+
+	/**
+	 * Returns the cached bytes of a class.
+	 * @param sourcePath the path of the jar file the class is read from
+	 * @param name the path of the class entry in the jar
+	 * @return the class bytes or <code>null</code> if the class is not cached
+	 * @see #getSourcePath(File)
+	 */
+	public byte[] getBytes(String sourcePath, String name) {
+		ByteBuffer buffer = getByteBuffer(sourcePath, name);
+		if (buffer == null) {
+			return null;
+		}
+		byte[] result = new byte[buffer.remaining()];
+		buffer.get(result);
+		return result;
+	}
+
+	/**
+	 * Returns the cached bytes of a class as a read only buffer which
+	 * shares the memory mapped content of the cache file.
+	 * @param sourcePath the path of the jar file the class is read from
+	 * @param name the path of the class entry in the jar
+	 * @return the class bytes or <code>null</code> if the class is not cached
+	 * @see #getSourcePath(File)
+	 */
+	public ByteBuffer getByteBuffer(String sourcePath, String name) {
+		Slot slot = getSlot(sourcePath, name);
+		if (slot == null) {
+			return null;
+		}
+		// use a duplicate so that concurrent readers do not share a position
+		ByteBuffer buffer = mapped.duplicate();
+		buffer.position(slot.offset);
+		buffer.limit(slot.offset + slot.length);
+		return buffer.slice();
+	}
+
+	/**
+	 * Adds the bytes of a class to the cache.  Classes which are already
+	 * cached are ignored.
+	 * @param source the jar file the class was read from
+	 * @param sourcePath the path of the jar file
+	 * @param name the path of the class entry in the jar
+	 * @param bytes the uncompressed class bytes
+	 * @see #getSourcePath(File)
+	 */
+	public void putBytes(final File source, final String sourcePath, final String name, final byte[] bytes) {
+		if (readOnly || getSlot(sourcePath, name) != null) {
+			return;
+		}
+		String key = sourcePath + '!' + name;
+		if (appended.contains(key)) {
+			return;
+		}
+		synchronized (monitor) {
+			if (closed || !appended.add(key)) {
+				return;
+			}
+			try {
+				// classes are added while a bundle loads them
+				StorageFile.doPrivileged(new StorageFile.Action<Void>() {
+					@Override
+					public Void run() throws IOException {
+						append(sourcePath, source, name, bytes);
+						return null;
+					}
+				});
+			} catch (IOException e) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("Unable to write class bytes cache " + cacheFile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				// stop appending; a partial record is discarded on the next start
+				closeOutput();
+				closed = true;
+			}
+		}
+	}
+
+	private Slot getSlot(String sourcePath, String name) {
+		open();
+		Map<String, Slot> sourceSlots = slots.get(sourcePath);
+		return sourceSlots == null ? null : sourceSlots.get(name);
+	}
+
+	/* @GuardedBy("monitor") */
+	private void append(String sourcePath, File source, String name, byte[] bytes) throws IOException {
+		if (out == null) {
+			boolean newFile = cacheFile.length() == 0;
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cacheFile, true)));
+			if (newFile) {
+				out.writeInt(VERSION);
+				out.writeLong(generationId);
+			}
+		}
+		writeString(out, sourcePath);
+		out.writeLong(source.lastModified());
+		out.writeLong(source.length());
+		writeString(out, name);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Flushes the classes which were added to the cache and stops adding
+	 * classes.
+	 */
+	public void close() {
+		synchronized (monitor) {
+			closeOutput();
+			closed = true;
+		}
+	}
+
+	private void closeOutput() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			out = null;
+		}
+	}
+
+	private void open() {
+		if (opened) {
+			return;
+		}
+		synchronized (monitor) {
+			if (opened) {
+				return;
+			}
+			slots = Collections.emptyMap();
+			try {
+				// the cache is opened while a bundle loads a class
+				StorageFile.doPrivileged(new StorageFile.Action<Void>() {
+					@Override
+					public Void run() throws IOException {
+						openFile();
+						return null;
+					}
+				});
+			} catch (IOException e) {
+				if (debug.DEBUG_LOADER) {
+					Debug.println("Unable to read class bytes cache " + cacheFile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+				}
+				slots = Collections.emptyMap();
+				mapped = null;
+				truncate(0);
+			}
+			opened = true;
+		}
+	}
+
+	/* @GuardedBy("monitor") */
+	private void openFile() throws IOException {
+		if (cacheFile.isFile()) {
+			load();
+		} else if (!readOnly) {
+			File parent = cacheFile.getParentFile();
+			if (parent != null && !parent.isDirectory()) {
+				parent.mkdirs();
+			}
+		}
+	}
+
+	private void load() throws IOException {
+		long fileLength = cacheFile.length();
+		if (fileLength < HEADER_LENGTH || fileLength > Integer.MAX_VALUE) {
+			truncate(0);
+			return;
+		}
+		Map<String, Map<String, Slot>> result = new HashMap<>();
+		long end = scan(fileLength, result);
+		if (end < 0) {
+			// the file is for another generation or a jar has changed; start over
+			truncate(0);
+			return;
+		}
+		if (end < fileLength) {
+			// discard the incomplete record so that new records can be appended
+			truncate(end);
+		}
+		if (result.isEmpty()) {
+			return;
+		}
+		MappedByteBuffer buffer;
+		try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r")) { //$NON-NLS-1$
+			buffer = file.getChannel().map(MapMode.READ_ONLY, 0, end);
+		}
+		slots = result;
+		mapped = buffer;
+	}
+
+	/**
+	 * Reads the records of the cache file without mapping it.
+	 * @param fileLength the length of the cache file
+	 * @param result the map to add the slot of each complete record to
+	 * @return the end of the last complete record or -1 if the whole file must be discarded
+	 */
+	private long scan(long fileLength, Map<String, Map<String, Slot>> result) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+			if (in.readInt() != VERSION || in.readLong() != generationId) {
+				return -1;
+			}
+			long end = HEADER_LENGTH;
+			try {
+				while (end < fileLength) {
+					long position = end;
+					byte[] source = readBytes(in, fileLength - position - 4);
+					long lastModified = in.readLong();
+					long length = in.readLong();
+					position += 4 + source.length + 16;
+					byte[] name = readBytes(in, fileLength - position - 4);
+					position += 4 + name.length;
+					int size = in.readInt();
+					position += 4;
+					if (size < 0 || size > fileLength - position) {
+						break;
+					}
+					String sourcePath = new String(source, StandardCharsets.UTF_8);
+					Map<String, Slot> sourceSlots = result.get(sourcePath);
+					if (sourceSlots == null) {
+						File sourceFile = new File(sourcePath);
+						if (!sourceFile.isFile() || sourceFile.lastModified() != lastModified || sourceFile.length() != length) {
+							// a jar has changed or moved
+							return -1;
+						}
+						sourceSlots = new HashMap<>();
+						result.put(sourcePath, sourceSlots);
+					}
+					skipFully(in, size);
+					sourceSlots.put(new String(name, StandardCharsets.UTF_8), new Slot((int) position, size));
+					end = position + size;
+				}
+			} catch (EOFException e) {
+				// the last record is incomplete
+			}
+			return end;
+		}
+	}
+
+	private void truncate(final long length) {
+		if (readOnly) {
+			return;
+		}
+		try {
+			StorageFile.doPrivileged(new StorageFile.Action<Void>() {
+				@Override
+				public Void run() throws IOException {
+					try (RandomAccessFile file = new RandomAccessFile(cacheFile, "rw")) { //$NON-NLS-1$
+						file.setLength(length);
+					}
+					return null;
+				}
+			});
+		} catch (IOException e) {
+			if (debug.DEBUG_LOADER) {
+				Debug.println("Unable to truncate class bytes cache " + cacheFile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static byte[] readBytes(DataInputStream in, long remaining) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > remaining) {
+			throw new EOFException();
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private static void skipFully(DataInputStream in, int length) throws IOException {
+		int skipped = 0;
+		while (skipped < length) {
+			int count = in.skipBytes(length - skipped);
+			if (count <= 0) {
+				throw new EOFException();
+			}
+			skipped += count;
+		}
+	}
+}
@@ -16,6 +16,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -63,6 +64,7 @@ import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.framework.util.FilePath;
 import org.eclipse.osgi.framework.util.ObjectPool;
 import org.eclipse.osgi.framework.util.SecureAction;
+import org.eclipse.osgi.internal.container.LongMap;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
@@ -103,11 +105,8 @@ import org.osgi.framework.Version;
 import org.osgi.framework.namespace.HostNamespace;
 import org.osgi.framework.namespace.NativeNamespace;
 import org.osgi.framework.namespace.PackageNamespace;
-import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWiring;
-import org.osgi.resource.Namespace;
-import org.osgi.resource.Requirement;
 
 public class Storage {
 	public static class StorageException extends RuntimeException {
@@ -134,9 +133,12 @@ public class Storage {
 	public static final int VERSION = 4;
 	private static final int MR_JAR_VERSION = 4;
 	private static final int LOWEST_VERSION_SUPPORTED = 3;
+	private static final int JOURNAL_VERSION = 1;
 	public static final String BUNDLE_DATA_DIR = "data"; //$NON-NLS-1$
 	public static final String BUNDLE_FILE_NAME = "bundleFile"; //$NON-NLS-1$
 	public static final String FRAMEWORK_INFO = "framework.info"; //$NON-NLS-1$
+	public static final String FRAMEWORK_JOURNAL = "framework.journal"; //$NON-NLS-1$
+	public static final String FRAMEWORK_CANDIDATES = "framework.candidates"; //$NON-NLS-1$
 	public static final String ECLIPSE_SYSTEMBUNDLE = "Eclipse-SystemBundle"; //$NON-NLS-1$
 	public static final String DELETE_FLAG = ".delete"; //$NON-NLS-1$
 	public static final String LIB_TEMP = "libtemp"; //$NON-NLS-1$
@@ -160,6 +162,19 @@ public class Storage {
 	private final ModuleContainer moduleContainer;
 	private final Object saveMonitor = new Object();
 	private long lastSavedTimestamp = -1;
+	private final int journalThreshold;
+	private final boolean resolverCandidateCache;
+	// the database timestamps of the framework.info the journal applies to
+	/* @GuardedBy("saveMonitor") */
+	private long journalTimestamp = -1;
+	/* @GuardedBy("saveMonitor") */
+	private long journalRevisionsTimestamp = -1;
+	// the number of records in the journal; zero means a new journal must be started
+	/* @GuardedBy("saveMonitor") */
+	private int journalRecords = 0;
+	// the content of the journal which the next record is appended to
+	/* @GuardedBy("saveMonitor") */
+	private byte[] journalContent;
 	private final MRUBundleFileList mruList;
 	private final FrameworkExtensionInstaller extensionInstaller;
 	private final List<String> cachedHeaderKeys = Arrays.asList(Constants.BUNDLE_SYMBOLICNAME, Constants.BUNDLE_ACTIVATIONPOLICY, "Service-Component"); //$NON-NLS-1$
@@ -199,6 +214,8 @@ public class Storage {
 		runtimeVersion = javaVersion;
 		javaSpecVersion = javaSpecVersionProp;
 		mruList = new MRUBundleFileList(getBundleFileLimit(container.getConfiguration()), container.getConfiguration().getDebug());
+		journalThreshold = getJournalThreshold(container.getConfiguration());
+		resolverCandidateCache = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_RESOLVER_CANDIDATE_CACHE));
 		equinoxContainer = container;
 		extensionInstaller = new FrameworkExtensionInstaller(container.getConfiguration());
 		allowRestrictedProvides = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_ALLOW_RESTRICTED_PROVIDES));
@@ -237,12 +254,12 @@ public class Storage {
 		InputStream info = getInfoInputStream();
 		DataInputStream data = info == null ? null : new DataInputStream(new BufferedInputStream(info));
 		try {
-			Map<Long, Generation> generations;
+			LongMap<Generation> generations;
 			try {
 				generations = loadGenerations(data);
 			} catch (IllegalArgumentException e) {
 				equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "The persistent format for the framework data has changed.  The framework will be reinitialized: " + e.getMessage(), null); //$NON-NLS-1$
-				generations = new HashMap<>(0);
+				generations = new LongMap<>(0);
 				data = null;
 				cleanOSGiStorage(osgiLocation, childRoot);
 			}
@@ -254,6 +271,8 @@ public class Storage {
 			if (data != null) {
 				try {
 					moduleDatabase.load(data);
+					loadJournal();
+					loadResolverCandidates();
 					lastSavedTimestamp = moduleDatabase.getTimestamp();
 				} catch (IllegalArgumentException e) {
 					equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Incompatible version.  Starting with empty framework.", e); //$NON-NLS-1$
@@ -291,6 +310,18 @@ public class Storage {
 		return propValue;
 	}
 
+	private int getJournalThreshold(EquinoxConfiguration configuration) {
+		int propValue = Integer.parseInt(EquinoxConfiguration.DEFAULT_STATE_SAVE_JOURNAL_THRESHOLD);
+		try {
+			String prop = configuration.getConfiguration(EquinoxConfiguration.PROP_STATE_SAVE_JOURNAL_THRESHOLD);
+			if (prop != null)
+				propValue = Integer.parseInt(prop);
+		} catch (NumberFormatException e) {
+			// use the default
+		}
+		return propValue;
+	}
+
 	private void installExtensions() {
 		Module systemModule = moduleContainer.getModule(0);
 		ModuleRevision systemRevision = systemModule == null ? null : systemModule.getCurrentRevision();
@@ -411,10 +442,9 @@ public class Storage {
 			for (ModuleCapability nativeEnvironment : nativeEnvironments) {
 				nativeEnvironment.setTransientAttrs(configMap);
 			}
-			Requirement osgiPackageReq = ModuleContainer.createRequirement(PackageNamespace.PACKAGE_NAMESPACE, Collections.singletonMap(Namespace.REQUIREMENT_FILTER_DIRECTIVE, "(" + PackageNamespace.PACKAGE_NAMESPACE + "=org.osgi.framework)"), Collections.<String, String> emptyMap()); //$NON-NLS-1$ //$NON-NLS-2$
-			Collection<BundleCapability> osgiPackages = moduleContainer.getFrameworkWiring().findProviders(osgiPackageReq);
-			for (BundleCapability packageCapability : osgiPackages) {
-				if (packageCapability.getRevision().getBundle().getBundleId() == 0) {
+			// only the system module exports are of interest; avoid searching all the installed modules
+			for (ModuleCapability packageCapability : currentRevision.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE)) {
+				if ("org.osgi.framework".equals(packageCapability.getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) { //$NON-NLS-1$
 					Version v = (Version) packageCapability.getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE);
 					if (v != null) {
 						this.equinoxContainer.getConfiguration().setConfiguration(Constants.FRAMEWORK_VERSION, v.toString());
@@ -472,6 +502,7 @@ public class Storage {
 		}
 		mruList.shutdown();
 		adaptor.shutdownResolverExecutor();
+		adaptor.shutdownStartLevelExecutor();
 	}
 
 	private boolean needUpdate(ModuleRevision currentRevision, ModuleRevisionBuilder newBuilder) {
@@ -1077,7 +1108,7 @@ public class Storage {
 				boolean strictPath = Boolean.parseBoolean(equinoxContainer.getConfiguration().getConfiguration(EquinoxConfiguration.PROPERTY_STRICT_BUNDLE_ENTRY_PATH, Boolean.FALSE.toString()));
 				result = new DirBundleFile(content, strictPath);
 			} else {
-				result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
+				result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug(), getConfiguration().ZIP_MAPPED_READER);
 			}
 		} catch (IOException e) {
 			throw new RuntimeException("Could not create bundle file.", e); //$NON-NLS-1$
@@ -1208,13 +1239,28 @@ public class Storage {
 				if (lastSavedTimestamp == moduleDatabase.getTimestamp())
 					return;
 				childStorageManager = getChildStorageManager();
+				if (saveJournal(childStorageManager)) {
+					lastSavedTimestamp = moduleDatabase.getTimestamp();
+					return;
+				}
 				mos = childStorageManager.getOutputStream(FRAMEWORK_INFO);
 				out = new DataOutputStream(new BufferedOutputStream(mos));
 				saveGenerations(out);
 				savePermissionData(out);
 				moduleDatabase.store(out, true);
+				// the settings changes are only persisted once the new framework.info is committed
+				out.close();
+				out = null;
+				moduleDatabase.clearSettingsChanges();
 				lastSavedTimestamp = moduleDatabase.getTimestamp();
+				// any existing journal is for the previous framework.info
+				journalTimestamp = lastSavedTimestamp;
+				journalRevisionsTimestamp = moduleDatabase.getRevisionsTimestamp();
+				journalRecords = 0;
+				journalContent = null;
 				success = true;
+				// the chosen providers only change when the wirings change, which always writes a new framework.info
+				saveResolverCandidates();
 			}
 		} finally {
 			if (!success) {
@@ -1236,6 +1282,169 @@ public class Storage {
 		}
 	}
 
+	/**
+	 * Appends the settings changes of the module database to the journal
+	 * instead of writing a new framework.info.  This is only possible if
+	 * the revisions have not changed since the framework.info was written
+	 * and the journal has not reached the compaction threshold.  The journal
+	 * is a managed file of the storage manager like the framework.info, so
+	 * the whole journal is written and then committed with the new record.
+	 * @param storageManager the storage manager of the framework.info
+	 * @return true if the changes were saved to the journal
+	 */
+	private boolean saveJournal(StorageManager storageManager) {
+		if (journalThreshold <= 0 || journalTimestamp == -1 || journalRecords >= journalThreshold) {
+			return false;
+		}
+		if (journalRevisionsTimestamp != moduleDatabase.getRevisionsTimestamp() || permissionData.isDirty()) {
+			return false;
+		}
+		ManagedOutputStream mos = null;
+		try {
+			ByteArrayOutputStream record = new ByteArrayOutputStream();
+			DataOutputStream recordOut = new DataOutputStream(record);
+			moduleDatabase.storeSettingsChanges(recordOut);
+			recordOut.close();
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(content);
+			if (journalRecords == 0) {
+				out.writeInt(JOURNAL_VERSION);
+				out.writeLong(journalTimestamp);
+				out.writeLong(journalRevisionsTimestamp);
+			} else {
+				out.write(journalContent);
+			}
+			out.writeInt(record.size());
+			record.writeTo(out);
+			out.close();
+
+			mos = storageManager.getOutputStream(FRAMEWORK_JOURNAL);
+			content.writeTo(mos);
+			mos.close();
+			mos = null;
+			moduleDatabase.clearSettingsChanges();
+			journalContent = content.toByteArray();
+			journalRecords++;
+			return true;
+		} catch (IOException e) {
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Error writing framework.journal: " + e.getMessage()); //$NON-NLS-1$
+				Debug.printStackTrace(e);
+			}
+			if (mos != null) {
+				mos.abort();
+			}
+			// force a new framework.info
+			journalTimestamp = -1;
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the providers chosen by the resolver next to the framework.info.
+	 * The file is only a hint for the resolver; any error writing it is ignored.
+	 */
+	private void saveResolverCandidates() {
+		if (!resolverCandidateCache) {
+			return;
+		}
+		StorageFile.write(new File(childRoot, FRAMEWORK_CANDIDATES), new StorageFile.Writer() {
+			@Override
+			public void write(DataOutputStream out) throws IOException {
+				moduleDatabase.storeResolverCandidates(out);
+			}
+		}, getConfiguration().getDebug().DEBUG_STORAGE);
+	}
+
+	/**
+	 * Loads the providers chosen by the resolver before the last shutdown.
+	 * A missing or incomplete file is ignored.
+	 */
+	private void loadResolverCandidates() {
+		if (!resolverCandidateCache) {
+			return;
+		}
+		StorageFile.read(new File(childRoot, FRAMEWORK_CANDIDATES), new StorageFile.Reader<Boolean>() {
+			@Override
+			public Boolean read(DataInputStream in) throws IOException {
+				moduleDatabase.loadResolverCandidates(in);
+				return Boolean.TRUE;
+			}
+		}, getConfiguration().getDebug().DEBUG_STORAGE);
+	}
+
+	/**
+	 * Replays the journal of settings changes on top of the loaded framework.info.
+	 * The journal is ignored if it was written for a different framework.info.
+	 */
+	private void loadJournal() {
+		journalTimestamp = moduleDatabase.getTimestamp();
+		journalRevisionsTimestamp = moduleDatabase.getRevisionsTimestamp();
+		journalRecords = 0;
+		journalContent = null;
+		DataInputStream in = null;
+		try {
+			StorageManager storageManager = getChildStorageManager();
+			try {
+				InputStream journal = storageManager.getInputStream(FRAMEWORK_JOURNAL);
+				if (journal == null) {
+					return;
+				}
+				in = new DataInputStream(new BufferedInputStream(journal));
+			} finally {
+				storageManager.close();
+			}
+			if (in.readInt() != JOURNAL_VERSION || in.readLong() != journalTimestamp || in.readLong() != journalRevisionsTimestamp) {
+				// the journal is for a different framework.info
+				return;
+			}
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(content);
+			out.writeInt(JOURNAL_VERSION);
+			out.writeLong(journalTimestamp);
+			out.writeLong(journalRevisionsTimestamp);
+			while (true) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					// reached the end of the journal
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				moduleDatabase.loadSettingsChanges(new DataInputStream(new ByteArrayInputStream(record)));
+				out.writeInt(length);
+				out.write(record);
+				journalRecords++;
+			}
+			out.close();
+			journalContent = content.toByteArray();
+		} catch (IOException e) {
+			// the next save must write a new framework.info
+			journalIncomplete(e);
+		} catch (IllegalArgumentException e) {
+			journalIncomplete(e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// just move on
+				}
+			}
+		}
+	}
+
+	private void journalIncomplete(Exception e) {
+		if (getConfiguration().getDebug().DEBUG_STORAGE) {
+			Debug.println("Error reading framework.journal: " + e.getMessage()); //$NON-NLS-1$
+			Debug.printStackTrace(e);
+		}
+		journalTimestamp = -1;
+	}
+
 	private void savePermissionData(DataOutputStream out) throws IOException {
 		permissionData.savePermissionData(out);
 	}
@@ -1329,9 +1538,9 @@ public class Storage {
 		}
 	}
 
-	private Map<Long, Generation> loadGenerations(DataInputStream in) throws IOException {
+	private LongMap<Generation> loadGenerations(DataInputStream in) throws IOException {
 		if (in == null) {
-			return new HashMap<>(0);
+			return new LongMap<>(0);
 		}
 		int version = in.readInt();
 		if (version > VERSION || version < LOWEST_VERSION_SUPPORTED) {
@@ -1348,7 +1557,7 @@ public class Storage {
 		}
 
 		int numInfos = in.readInt();
-		Map<Long, Generation> result = new HashMap<>(numInfos);
+		LongMap<Generation> result = new LongMap<>(numInfos);
 		List<Generation> generations = new ArrayList<>(numInfos);
 		for (int i = 0; i < numInfos; i++) {
 			long infoId = in.readLong();
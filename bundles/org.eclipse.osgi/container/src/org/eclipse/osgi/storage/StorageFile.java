@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage;
+
+import java.io.*;
+import java.security.*;
+import org.eclipse.osgi.internal.debug.Debug;
+
+/**
+ * Reads and writes the data files the framework keeps in its storage area,
+ * such as indexes and caches.  These files may be read and written while a
+ * bundle loads a class, so the files are always accessed with the permissions
+ * of the framework.  A file is written to a temporary file which replaces the
+ * file once it is complete, so a crash never leaves a partial file behind.
+ */
+public final class StorageFile {
+	/**
+	 * An action which accesses files.
+	 * @param <T> the result type
+	 */
+	public interface Action<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Reads the content of a file.
+	 * @param <T> the result type
+	 */
+	public interface Reader<T> {
+		/**
+		 * Reads the content of a file.
+		 * @param in the content of the file
+		 * @return the result or <code>null</code> if the content is not valid
+		 * @throws IOException if the content cannot be read
+		 */
+		T read(DataInputStream in) throws IOException;
+	}
+
+	/**
+	 * Writes the content of a file.
+	 */
+	public interface Writer {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private StorageFile() {
+		// static methods only
+	}
+
+	/**
+	 * Runs an action with the permissions of the framework.
+	 * @param action the action
+	 * @return the result of the action
+	 * @throws IOException if the action throws an IOException
+	 */
+	public static <T> T doPrivileged(final Action<T> action) throws IOException {
+		if (System.getSecurityManager() == null) {
+			return action.run();
+		}
+		try {
+			return AccessController.doPrivileged(new PrivilegedExceptionAction<T>() {
+				@Override
+				public T run() throws IOException {
+					return action.run();
+				}
+			});
+		} catch (PrivilegedActionException e) {
+			if (e.getException() instanceof IOException)
+				throw (IOException) e.getException();
+			throw (RuntimeException) e.getException();
+		}
+	}
+
+	/**
+	 * Reads a file with the permissions of the framework.
+	 * @param file the file
+	 * @param reader the reader of the content
+	 * @param debug true if errors must be printed
+	 * @return the result of the reader or <code>null</code> if the file does not
+	 * exist or cannot be read
+	 */
+	public static <T> T read(final File file, final Reader<T> reader, boolean debug) {
+		try {
+			return doPrivileged(new Action<T>() {
+				@Override
+				public T run() throws IOException {
+					if (!file.isFile()) {
+						return null;
+					}
+					try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+						return reader.read(in);
+					}
+				}
+			});
+		} catch (IOException e) {
+			if (debug) {
+				Debug.println("Unable to read " + file + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a file with the permissions of the framework.  The content is written
+	 * to a temporary file in the same directory which then replaces the file.
+	 * @param file the file
+	 * @param writer the writer of the content
+	 * @param debug true if errors must be printed
+	 * @return true if the file was written
+	 */
+	public static boolean write(final File file, final Writer writer, final boolean debug) {
+		try {
+			return doPrivileged(new Action<Boolean>() {
+				@Override
+				public Boolean run() throws IOException {
+					File parent = file.getParentFile();
+					if (parent == null || !(parent.isDirectory() || parent.mkdirs())) {
+						throw new IOException("Unable to create directory: " + parent); //$NON-NLS-1$
+					}
+					File tmpFile = File.createTempFile(file.getName() + '.', ".tmp", parent); //$NON-NLS-1$
+					try {
+						try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+							writer.write(out);
+						}
+						file.delete();
+						return Boolean.valueOf(StorageUtil.move(tmpFile, file, debug));
+					} finally {
+						tmpFile.delete();
+					}
+				}
+			}).booleanValue();
+		} catch (IOException e) {
+			if (debug) {
+				Debug.println("Unable to write " + file + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the path, last modified time and length of a file, which are used to
+	 * check that data derived from the content of the file is still valid.
+	 * @param out the output stream
+	 * @param file the file
+	 * @throws IOException if an error occurs writing to the output stream
+	 * @see #readStamp(DataInputStream, File)
+	 */
+	public static void writeStamp(DataOutputStream out, File file) throws IOException {
+		out.writeUTF(file.getAbsolutePath());
+		out.writeLong(file.lastModified());
+		out.writeLong(file.length());
+	}
+
+	/**
+	 * Reads the stamp written by {@link #writeStamp(DataOutputStream, File)} and
+	 * compares it with a file.
+	 * @param in the input stream
+	 * @param file the file
+	 * @return true if the file has the same path, last modified time and length
+	 * @throws IOException if an error occurs reading from the input stream
+	 */
+	public static boolean readStamp(DataInputStream in, File file) throws IOException {
+		return file.getAbsolutePath().equals(in.readUTF()) && file.lastModified() == in.readLong() && file.length() == in.readLong();
+	}
+}
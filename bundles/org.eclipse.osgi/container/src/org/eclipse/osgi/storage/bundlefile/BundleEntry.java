@@ -14,6 +14,7 @@ package org.eclipse.osgi.storage.bundlefile;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import org.eclipse.osgi.storage.StorageUtil;
 
 /**
@@ -93,4 +94,15 @@ public abstract class BundleEntry {
 		//			Debug.println("  about to read " + length + " bytes from " + getName()); //$NON-NLS-1$ //$NON-NLS-2$
 		return StorageUtil.getBytes(in, length, BUF_SIZE);
 	}
+
+	/**
+	 * Used for class loading.  Returns the content of this entry as a byte buffer
+	 * which may be direct or mapped to avoid copying the content into a byte array.
+	 * This default implementation wraps the byte array returned by {@link #getBytes()}.
+	 * @return a byte buffer containing the content of this entry
+	 * @throws IOException
+	 */
+	public ByteBuffer getByteBuffer() throws IOException {
+		return ByteBuffer.wrap(getBytes());
+	}
 }
@@ -12,8 +12,10 @@
 package org.eclipse.osgi.storage.bundlefile;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.util.Collections;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
@@ -28,9 +30,16 @@ import org.eclipse.osgi.internal.debug.Debug;
  * track of open BundleFiles.  The MRU will use the file limit specified by the property
  * &quot;osgi.bundlefile.limit&quot; by default unless the MRU is constructed with a specific
  * file limit.
+ * <p>
+ * Bundle files are closed and prefetched asynchronously on a separate thread.
+ * When a bundle file which was closed by the MRU is opened again the bundle file
+ * which was opened right after it the last two times it was opened is prefetched,
+ * because bundle files tend to be used in the same order.
  */
 public class MRUBundleFileList implements EventDispatcher<Object, Object, BundleFile> {
 	private static final int MIN = 10;
+	private static final int CLOSE = 0;
+	private static final int PREFETCH = 1;
 	private static final ThreadLocal<BundleFile> closingBundleFile = new ThreadLocal<>();
 
 	// list of open bundle files
@@ -53,6 +62,27 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	private final AtomicInteger pending = new AtomicInteger();
 	private final Debug debug;
 
+	/*
+	 * The open history of a bundle file.
+	 */
+	private static final class History {
+		boolean evicted;
+		WeakReference<BundleFile> successor;
+		boolean successorConfirmed;
+	}
+
+	/* @GuardedBy("this") */
+	private final Map<BundleFile, History> histories = new WeakHashMap<>();
+	/* @GuardedBy("this") */
+	private WeakReference<BundleFile> lastAdded;
+	/* @GuardedBy("this") */
+	private long evictions;
+	/* @GuardedBy("this") */
+	private long reopens;
+	/* @GuardedBy("this") */
+	private long prefetches;
+	private final AtomicInteger backpressureWaits = new AtomicInteger();
+
 	public MRUBundleFileList(int fileLimit, Debug debug) {
 		// only enable the MRU if the initFileLimit is > MIN
 		this.fileLimit = fileLimit;
@@ -79,11 +109,13 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
 		BundleFile toRemove = null;
+		BundleFile toPrefetch = null;
 		EventManager manager = null;
 		boolean backpressureNeeded = false;
 		synchronized (this) {
 			if (bundleFile.getMruIndex() >= 0)
 				return false; // do nothing; someone is trying add a bundleFile that is already in an MRU list
+			toPrefetch = recordAdd(bundleFile);
 			int index = 0; // default to the first slot
 			if (numOpen < fileLimit) {
 				// numOpen does not exceed the fileLimit
@@ -105,14 +137,17 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 				if (toRemove.getMruIndex() != index)
 					throw new IllegalStateException("The BundleFile has the incorrect mru index: " + index + " != " + toRemove.getMruIndex()); //$NON-NLS-1$//$NON-NLS-2$
 				removeInternal(toRemove);
-				backpressureNeeded = isBackPressureNeeded();
+				getHistory(toRemove).evicted = true;
+				evictions++;
+				// the closer thread must not wait for itself
+				backpressureNeeded = isBackPressureNeeded() && closingBundleFile.get() == null;
 			}
 			// found an index to place to bundleFile to be opened
 			bundleFileList[index] = bundleFile;
 			bundleFile.setMruIndex(index);
 			incUseStamp(index);
 			numOpen++;
-			if (toRemove != null) {
+			if (toRemove != null || toPrefetch != null) {
 				if (bundleFileCloserManager == null)
 					bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
 				manager = bundleFileCloserManager;
@@ -121,11 +156,64 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		}
 		// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
 		// This queues the bundle file for close asynchronously.
-		closeBundleFile(toRemove, manager);
+		queueBundleFile(toRemove, CLOSE, manager);
+		queueBundleFile(toPrefetch, PREFETCH, manager);
 
 		return backpressureNeeded;
 	}
 
+	// must be called while synchronizing "this"
+	private History getHistory(BundleFile bundleFile) {
+		History history = histories.get(bundleFile);
+		if (history == null) {
+			history = new History();
+			histories.put(bundleFile, history);
+		}
+		return history;
+	}
+
+	/*
+	 * Records the order bundle files are opened in and returns the bundle
+	 * file to prefetch, if any.  Must be called while synchronizing "this".
+	 */
+	private BundleFile recordAdd(BundleFile bundleFile) {
+		if (closingBundleFile.get() == bundleFile) {
+			// prefetched on the closer thread; the history already predicted this bundle file
+			getHistory(bundleFile).evicted = false;
+			lastAdded = new WeakReference<>(bundleFile);
+			return null;
+		}
+		BundleFile previous = lastAdded == null ? null : lastAdded.get();
+		if (previous != null && previous != bundleFile) {
+			History previousHistory = getHistory(previous);
+			BundleFile successor = previousHistory.successor == null ? null : previousHistory.successor.get();
+			if (successor == bundleFile) {
+				previousHistory.successorConfirmed = true;
+			} else {
+				previousHistory.successor = new WeakReference<>(bundleFile);
+				previousHistory.successorConfirmed = false;
+			}
+		}
+		lastAdded = new WeakReference<>(bundleFile);
+
+		History history = getHistory(bundleFile);
+		if (!history.evicted) {
+			return null;
+		}
+		history.evicted = false;
+		reopens++;
+		if (!history.successorConfirmed) {
+			return null;
+		}
+		BundleFile successor = history.successor.get();
+		if (successor == null || successor.getMruIndex() >= 0 || !getHistory(successor).evicted) {
+			// only prefetch bundle files which are closed because the MRU closed them
+			return null;
+		}
+		prefetches++;
+		return successor;
+	}
+
 	/**
 	 * Removes a bundle file which is about to be closed
 	 * @param bundleFile the bundle file about to be closed
@@ -184,6 +272,10 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 			Thread.currentThread().setContextClassLoader(null);
 			firstDispatch = false;
 		}
+		if (eventAction == PREFETCH) {
+			prefetchBundleFile(eventObject);
+			return;
+		}
 		try {
 			closingBundleFile.set(eventObject);
 			eventObject.close();
@@ -202,6 +294,27 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		}
 	}
 
+	private void prefetchBundleFile(BundleFile bundleFile) {
+		if (pending.get() >= fileLimit) {
+			// the closer is behind; opening more files would only add to the back log
+			return;
+		}
+		if (debug.DEBUG_BUNDLE_FILE) {
+			Debug.println("MRUBundleFileList: prefetching bundle file: " + bundleFile); //$NON-NLS-1$
+		}
+		// mark the thread so that opening the bundle file does not wait for the closer
+		closingBundleFile.set(bundleFile);
+		try {
+			bundleFile.open();
+		} catch (IOException e) {
+			if (debug.DEBUG_BUNDLE_FILE) {
+				Debug.printStackTrace(e);
+			}
+		} finally {
+			closingBundleFile.set(null);
+		}
+	}
+
 	private boolean isBackPressureNeeded() {
 		pendingLock.lock();
 		try {
@@ -219,6 +332,7 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 				if (debug.DEBUG_BUNDLE_FILE) {
 					Debug.println("MRUBundleFileList: Applying back pressure before opening: " + toString()); //$NON-NLS-1$
 				}
+				backpressureWaits.incrementAndGet();
 				// delay to allow the closer to catchup
 				try {
 					pendingCond.await(Math.min(500, pendingNum), TimeUnit.MILLISECONDS);
@@ -231,11 +345,11 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 		}
 	}
 
-	private void closeBundleFile(BundleFile toRemove, EventManager manager) {
-		if (toRemove == null)
+	private void queueBundleFile(BundleFile bundleFile, int action, EventManager manager) {
+		if (bundleFile == null)
 			return;
-		if (debug.DEBUG_BUNDLE_FILE) {
-			Debug.println("MRUBundleFileList: about to close bundle file: " + toRemove); //$NON-NLS-1$
+		if (debug.DEBUG_BUNDLE_FILE && action == CLOSE) {
+			Debug.println("MRUBundleFileList: about to close bundle file: " + bundleFile); //$NON-NLS-1$
 		}
 		try {
 			/* queue to hold set of listeners */
@@ -243,7 +357,7 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 			/* add bundle file closer to the queue */
 			queue.queueListeners(bundleFileCloser.entrySet(), this);
 			/* dispatch event to set of listeners */
-			queue.dispatchEventAsynchronous(0, toRemove);
+			queue.dispatchEventAsynchronous(action, bundleFile);
 		} catch (Throwable t) {
 			// we cannot propagate exceptions out of this method
 			// failing to queue a bundle close should not cause an error (bug 283797)
@@ -259,6 +373,9 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	 */
 	public void shutdown() {
 		synchronized (this) {
+			if (debug.DEBUG_BUNDLE_FILE && isEnabled()) {
+				Debug.println("MRUBundleFileList: evictions=" + evictions + " reopens=" + reopens + " prefetches=" + prefetches + " backpressureWaits=" + backpressureWaits.get()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+			}
 			if (bundleFileCloserManager != null)
 				bundleFileCloserManager.close();
 			bundleFileCloserManager = null;
@@ -280,4 +397,37 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean isEnabled() {
 		return fileLimit >= MIN;
 	}
+
+	/**
+	 * Returns the number of bundle files which were closed to open another bundle file.
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of times a bundle file was opened again after it was closed
+	 * to open another bundle file.
+	 * @return the number of reopens
+	 */
+	public synchronized long getReopenCount() {
+		return reopens;
+	}
+
+	/**
+	 * Returns the number of bundle files which were opened ahead of their use.
+	 * @return the number of prefetches
+	 */
+	public synchronized long getPrefetchCount() {
+		return prefetches;
+	}
+
+	/**
+	 * Returns the number of times opening a bundle file waited for the closer thread.
+	 * @return the number of back pressure waits
+	 */
+	public int getBackpressureWaitCount() {
+		return backpressureWaits.get();
+	}
 }
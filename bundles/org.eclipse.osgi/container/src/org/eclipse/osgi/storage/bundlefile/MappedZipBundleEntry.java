@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A ZipBundleEntry found in the central directory of a memory mapped zip file.
+ * The content of STORED entries is read from the mapped zip file without
+ * opening the ZipFile.  The content of compressed entries is read from the
+ * ZipFile of the bundle file.
+ */
+public class MappedZipBundleEntry extends ZipBundleEntry {
+	private final MappedZipIndex index;
+	private final int entryIndex;
+	private final boolean stored;
+
+	MappedZipBundleEntry(MappedZipIndex index, int entryIndex, ZipBundleFile bundleFile) {
+		super(index.createZipEntry(entryIndex), bundleFile);
+		this.index = index;
+		this.entryIndex = entryIndex;
+		this.stored = index.isStored(entryIndex) && !zipEntry.isDirectory();
+	}
+
+	public InputStream getInputStream() throws IOException {
+		if (!stored) {
+			return super.getInputStream();
+		}
+		return new ByteBufferInputStream(index.getContent(entryIndex));
+	}
+
+	public long getTime() {
+		return index.getTime(entryIndex);
+	}
+
+	public byte[] getBytes() throws IOException {
+		if (!stored) {
+			return super.getBytes();
+		}
+		ByteBuffer content = index.getContent(entryIndex);
+		byte[] result = new byte[content.remaining()];
+		content.get(result);
+		return result;
+	}
+
+	@Override
+	public ByteBuffer getByteBuffer() throws IOException {
+		if (!stored) {
+			return super.getByteBuffer();
+		}
+		return index.getContent(entryIndex);
+	}
+
+	private static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		public int available() {
+			return buffer.remaining();
+		}
+
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright (c) 2018 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+
+/**
+ * A read only view of a zip file which is mapped into memory.  The central
+ * directory is read once into a sorted array of entry names so that entries
+ * are found with a binary search and directory queries only look at the
+ * names under the directory.  The content of STORED entries is returned as
+ * a slice of the mapped file without copying it.
+ * <p>
+ * The mapping does not hold a file descriptor open, but it is only released
+ * when the index is garbage collected.  Zip files which use the zip64
+ * extensions, have content before the first entry or are larger than 2 GB
+ * are not supported.
+ * <p>
+ * This class is thread safe.
+ */
+final class MappedZipIndex {
+	private static final int LOCAL_HEADER_SIG = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+	private static final int END_SIG = 0x06054b50;
+	private static final int LOCAL_HEADER_LENGTH = 30;
+	private static final int CENTRAL_HEADER_LENGTH = 46;
+	private static final int END_LENGTH = 22;
+	private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+	private static final int FLAG_ENCRYPTED = 0x1;
+	private static final int ZIP64_MAGIC = 0xFFFFFFFF;
+
+	private final ByteBuffer mapped;
+	/* the sorted entry names */
+	private final String[] names;
+	/* the central directory header offset of each name */
+	private final int[] headers;
+
+	private MappedZipIndex(ByteBuffer mapped, String[] names, int[] headers) {
+		this.mapped = mapped;
+		this.names = names;
+		this.headers = headers;
+	}
+
+	/**
+	 * Maps the specified zip file and reads its central directory.
+	 * @param file the zip file
+	 * @return the index or <code>null</code> if the zip file is not supported
+	 * @throws IOException if the zip file cannot be read or is not a valid zip file
+	 */
+	static MappedZipIndex open(File file) throws IOException {
+		MappedByteBuffer buffer;
+		// open the file with the permissions of the framework; the mapping does not need the stream
+		try (FileInputStream in = BundleFile.secureAction.getFileInputStream(file)) {
+			long length = in.getChannel().size();
+			if (length < END_LENGTH || length > Integer.MAX_VALUE) {
+				return null;
+			}
+			buffer = in.getChannel().map(MapMode.READ_ONLY, 0, length);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int end = findEnd(buffer);
+		if (end < 0) {
+			throw new IOException("Zip end header not found: " + file); //$NON-NLS-1$
+		}
+		int numEntries = buffer.getShort(end + 10) & 0xFFFF;
+		int centralLength = buffer.getInt(end + 12);
+		int centralOffset = buffer.getInt(end + 16);
+		if (numEntries == 0xFFFF || centralOffset == ZIP64_MAGIC || centralOffset < 0 || centralLength < 0 || centralOffset + centralLength != end) {
+			// zip64 or content before the first entry
+			return null;
+		}
+		final String[] entryNames = new String[numEntries];
+		int[] entryHeaders = new int[numEntries];
+		int header = centralOffset;
+		for (int i = 0; i < numEntries; i++) {
+			if (header + CENTRAL_HEADER_LENGTH > end || buffer.getInt(header) != CENTRAL_HEADER_SIG) {
+				throw new IOException("Invalid zip central directory: " + file); //$NON-NLS-1$
+			}
+			int nameLength = buffer.getShort(header + 28) & 0xFFFF;
+			int extraLength = buffer.getShort(header + 30) & 0xFFFF;
+			int commentLength = buffer.getShort(header + 32) & 0xFFFF;
+			if (buffer.getInt(header + 20) == ZIP64_MAGIC || buffer.getInt(header + 24) == ZIP64_MAGIC || buffer.getInt(header + 42) == ZIP64_MAGIC) {
+				return null;
+			}
+			byte[] nameBytes = new byte[nameLength];
+			ByteBuffer name = buffer.duplicate();
+			name.position(header + CENTRAL_HEADER_LENGTH);
+			name.get(nameBytes);
+			entryNames[i] = new String(nameBytes, StandardCharsets.UTF_8);
+			entryHeaders[i] = header;
+			header += CENTRAL_HEADER_LENGTH + nameLength + extraLength + commentLength;
+		}
+
+		Integer[] order = new Integer[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			order[i] = Integer.valueOf(i);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return entryNames[i1.intValue()].compareTo(entryNames[i2.intValue()]);
+			}
+		});
+		String[] sortedNames = new String[numEntries];
+		int[] sortedHeaders = new int[numEntries];
+		for (int i = 0; i < numEntries; i++) {
+			sortedNames[i] = entryNames[order[i].intValue()];
+			sortedHeaders[i] = entryHeaders[order[i].intValue()];
+		}
+		return new MappedZipIndex(buffer, sortedNames, sortedHeaders);
+	}
+
+	private static int findEnd(ByteBuffer buffer) {
+		int last = buffer.limit() - END_LENGTH;
+		int first = Math.max(0, last - MAX_COMMENT_LENGTH);
+		for (int i = last; i >= first; i--) {
+			if (buffer.getInt(i) == END_SIG && i + END_LENGTH + (buffer.getShort(i + 20) & 0xFFFF) == buffer.limit()) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of an entry.
+	 * @param name the name of the entry without a leading slash
+	 * @return the index of the entry or a negative value if the entry does not exist
+	 */
+	int indexOf(String name) {
+		int index = Arrays.binarySearch(names, name);
+		// duplicate names are found in any order; ZipFile returns the first one
+		while (index > 0 && names[index - 1].equals(name)) {
+			index--;
+		}
+		return index;
+	}
+
+	String getName(int index) {
+		return names[index];
+	}
+
+	long getSize(int index) {
+		return mapped.getInt(headers[index] + 24) & 0xFFFFFFFFL;
+	}
+
+	long getTime(int index) {
+		return dosToJavaTime(mapped.getInt(headers[index] + 12));
+	}
+
+	/**
+	 * Returns true if the content of an entry can be returned by {@link #getContent(int)}.
+	 * @param index the index of the entry
+	 * @return true if the entry is not compressed or encrypted
+	 */
+	boolean isStored(int index) {
+		int header = headers[index];
+		return (mapped.getShort(header + 10) & 0xFFFF) == ZipEntry.STORED && (mapped.getShort(header + 8) & FLAG_ENCRYPTED) == 0;
+	}
+
+	/**
+	 * Creates a zip entry with the name, sizes, method and crc of an entry.
+	 * The time is not set, see {@link #getTime(int)}.
+	 * @param index the index of the entry
+	 * @return a zip entry
+	 */
+	ZipEntry createZipEntry(int index) {
+		int header = headers[index];
+		ZipEntry result = new ZipEntry(names[index]);
+		result.setMethod(mapped.getShort(header + 10) & 0xFFFF);
+		result.setCrc(mapped.getInt(header + 16) & 0xFFFFFFFFL);
+		result.setCompressedSize(mapped.getInt(header + 20) & 0xFFFFFFFFL);
+		result.setSize(mapped.getInt(header + 24) & 0xFFFFFFFFL);
+		return result;
+	}
+
+	/**
+	 * Returns the content of a STORED entry as a read only slice of the mapped zip file.
+	 * @param index the index of the entry
+	 * @return the content of the entry
+	 * @throws IOException if the local header of the entry is not valid
+	 */
+	ByteBuffer getContent(int index) throws IOException {
+		int header = headers[index];
+		int local = mapped.getInt(header + 42);
+		int size = mapped.getInt(header + 20);
+		if (local < 0 || local + LOCAL_HEADER_LENGTH > mapped.limit() || mapped.getInt(local) != LOCAL_HEADER_SIG) {
+			throw new IOException("Invalid zip local header: " + names[index]); //$NON-NLS-1$
+		}
+		int start = local + LOCAL_HEADER_LENGTH + (mapped.getShort(local + 26) & 0xFFFF) + (mapped.getShort(local + 28) & 0xFFFF);
+		if (size < 0 || start + size > mapped.limit()) {
+			throw new IOException("Invalid zip entry size: " + names[index]); //$NON-NLS-1$
+		}
+		// use a duplicate so that concurrent readers do not share a position
+		ByteBuffer result = mapped.duplicate();
+		result.position(start);
+		result.limit(start + size);
+		return result.slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns true if any entry starts with the specified directory.
+	 * @param dir the directory name ending with a slash and without a leading slash
+	 * @return true if the directory exists
+	 */
+	boolean containsDir(String dir) {
+		int index = Arrays.binarySearch(names, dir);
+		if (index >= 0) {
+			return true;
+		}
+		// the first name which sorts after the directory is the first name it may be a prefix of
+		index = -(index + 1);
+		return index < names.length && names[index].startsWith(dir);
+	}
+
+	/**
+	 * Returns the names of the entries which start with the specified prefix
+	 * in sorted order.
+	 * @param prefix the prefix
+	 * @return the names starting with the prefix
+	 */
+	List<String> getNames(String prefix) {
+		int index = Arrays.binarySearch(names, prefix);
+		if (index < 0) {
+			index = -(index + 1);
+		}
+		while (index > 0 && names[index - 1].equals(prefix)) {
+			index--;
+		}
+		int end = index;
+		while (end < names.length && names[end].startsWith(prefix)) {
+			end++;
+		}
+		return Arrays.asList(names).subList(index, end);
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static long dosToJavaTime(int dosTime) {
+		Date date = new Date(((dosTime >> 25) & 0x7f) + 80, ((dosTime >> 21) & 0x0f) - 1, (dosTime >> 16) & 0x1f, (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+		return date.getTime();
+	}
+}
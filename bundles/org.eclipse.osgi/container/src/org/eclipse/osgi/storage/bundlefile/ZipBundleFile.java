@@ -16,9 +16,12 @@ import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
@@ -61,7 +64,26 @@ public class ZipBundleFile extends BundleFile {
 
 	private int referenceCount = 0;
 
+	/**
+	 * The sorted entry names of the zip file, retained once the zip file has been
+	 * closed by the MRU list so that missing entries can be detected without
+	 * opening the zip file again.
+	 */
+	private volatile String[] retainedNames;
+
+	/**
+	 * True if entries and directories are looked up in a memory mapped view
+	 * of the zip file instead of the ZipFile.
+	 */
+	private final boolean mappedReader;
+	private volatile MappedZipIndex mappedIndex;
+	private volatile boolean mappedIndexFailed;
+
 	public ZipBundleFile(File basefile, BundleInfo.Generation generation, MRUBundleFileList mruList, Debug debug) throws IOException {
+		this(basefile, generation, mruList, debug, false);
+	}
+
+	public ZipBundleFile(File basefile, BundleInfo.Generation generation, MRUBundleFileList mruList, Debug debug, boolean mappedReader) throws IOException {
 		super(basefile);
 		if (!BundleFile.secureAction.exists(basefile))
 			throw new IOException(NLS.bind(Msg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
@@ -69,6 +91,68 @@ public class ZipBundleFile extends BundleFile {
 		this.generation = generation;
 		this.closed = true;
 		this.mruList = mruList;
+		this.mappedReader = mappedReader;
+	}
+
+	/**
+	 * Returns the memory mapped index of the zip file.  The index is created
+	 * on first use and is kept when the zip file is closed by the MRU list
+	 * because it does not hold a file descriptor open.
+	 * @return the index or <code>null</code> if the mapped reader is not
+	 * enabled or the zip file is not supported by the mapped reader
+	 */
+	private MappedZipIndex getMappedIndex() {
+		if (!mappedReader || mappedIndexFailed) {
+			return null;
+		}
+		MappedZipIndex result = mappedIndex;
+		if (result != null) {
+			return result;
+		}
+		openLock.lock();
+		try {
+			result = mappedIndex;
+			if (result == null && !mappedIndexFailed) {
+				try {
+					result = MappedZipIndex.open(basefile);
+				} catch (IOException e) {
+					if (debug.DEBUG_BUNDLE_FILE) {
+						Debug.println("Unable to map zip file " + basefile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+					}
+				}
+				if (result == null) {
+					// fall back to the ZipFile which also reports any errors
+					mappedIndexFailed = true;
+				} else if (debug.DEBUG_BUNDLE_FILE) {
+					Debug.println("Mapped zip file " + basefile + " with " + result.size() + " entries"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				}
+				mappedIndex = result;
+			}
+			return result;
+		} finally {
+			openLock.unlock();
+		}
+	}
+
+	private BundleEntry getMappedEntry(MappedZipIndex index, String path) {
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		int entryIndex = index.indexOf(path);
+		if (entryIndex >= 0 && index.getSize(entryIndex) == 0 && path.length() > 0 && path.charAt(path.length() - 1) != '/') {
+			// work around the directory bug see bug 83542
+			int dirIndex = index.indexOf(path + '/');
+			if (dirIndex >= 0)
+				entryIndex = dirIndex;
+		}
+		if (entryIndex < 0) {
+			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (path.length() == 0 || index.containsDir(path))
+					return new DirZipBundleEntry(this, path);
+			}
+			return null;
+		}
+		return new MappedZipBundleEntry(index, entryIndex, this);
 	}
 
 	/**
@@ -247,7 +331,51 @@ public class ZipBundleFile extends BundleFile {
 		return null;
 	}
 
+	/**
+	 * Returns true if the zip file is closed and its retained entry names show
+	 * that the specified path does not exist.
+	 * @param path the path of an entry
+	 * @param dirRequest true if any entry under the path should be considered
+	 * @return true if the path is known to not exist
+	 */
+	private boolean isRetainedMissing(String path, boolean dirRequest) {
+		String[] names = retainedNames;
+		if (names == null || !closed) {
+			return false;
+		}
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() == 0) {
+			return false;
+		}
+		if (Arrays.binarySearch(names, path) >= 0 || Arrays.binarySearch(names, path + '/') >= 0) {
+			return false;
+		}
+		if (dirRequest) {
+			String dir = path.charAt(path.length() - 1) == '/' ? path : path + '/';
+			// the first name which sorts after the directory is the first name it may be a prefix of
+			int index = -(Arrays.binarySearch(names, dir) + 1);
+			if (index < names.length && names[index].startsWith(dir)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public boolean containsDir(String dir) {
+		MappedZipIndex index = dir == null ? null : getMappedIndex();
+		if (index != null) {
+			if (dir.length() > 0 && dir.charAt(0) == '/')
+				dir = dir.substring(1);
+			if (dir.length() == 0)
+				return true;
+			if (dir.charAt(dir.length() - 1) != '/')
+				dir = dir + '/';
+			return index.containsDir(dir);
+		}
+		if (dir != null && isRetainedMissing(dir, true)) {
+			return false;
+		}
 		if (!lockOpen()) {
 			return false;
 		}
@@ -284,6 +412,13 @@ public class ZipBundleFile extends BundleFile {
 	}
 
 	public BundleEntry getEntry(String path) {
+		MappedZipIndex index = getMappedIndex();
+		if (index != null) {
+			return getMappedEntry(index, path);
+		}
+		if (isRetainedMissing(path, path.length() == 0 || path.charAt(path.length() - 1) == '/')) {
+			return null;
+		}
 		if (!lockOpen()) {
 			return null;
 		}
@@ -306,6 +441,21 @@ public class ZipBundleFile extends BundleFile {
 
 	@Override
 	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
+		MappedZipIndex index = path == null ? null : getMappedIndex();
+		if (index != null) {
+			if (path.length() > 0 && path.charAt(0) == '/')
+				path = path.substring(1);
+			if (path.length() > 0 && path.charAt(path.length() - 1) != '/')
+				path = path + '/';
+			LinkedHashSet<String> result = new LinkedHashSet<>();
+			// only the names under the path are visited
+			for (String entryPath : index.getNames(path)) {
+				if (path.length() < entryPath.length()) {
+					getEntryPaths(path, entryPath.substring(path.length()), recurse, result);
+				}
+			}
+			return result.size() == 0 ? null : Collections.enumeration(result);
+		}
 		if (!lockOpen()) {
 			return null;
 		}
@@ -360,6 +510,10 @@ public class ZipBundleFile extends BundleFile {
 	public void close() throws IOException {
 		openLock.lock();
 		try {
+			if (!isMruListClosing()) {
+				// the mapping is released once the bundle file is no longer used
+				mappedIndex = null;
+			}
 			if (!closed) {
 				if (referenceCount > 0 && isMruListClosing()) {
 					// there are some opened streams to this BundleFile still;
@@ -376,6 +530,10 @@ public class ZipBundleFile extends BundleFile {
 						return;
 
 				}
+				if (retainedNames == null && mappedIndex == null && isMruListClosing()) {
+					// the zip file is likely to be opened again; remember which entries exist
+					retainedNames = getEntryNames(zipFile);
+				}
 				closed = true;
 				zipFile.close();
 				mruListRemove();
@@ -386,6 +544,17 @@ public class ZipBundleFile extends BundleFile {
 		}
 	}
 
+	private static String[] getEntryNames(ZipFile zip) {
+		List<String> names = new ArrayList<>(zip.size());
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			names.add(entries.nextElement().getName());
+		}
+		String[] result = names.toArray(new String[names.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
 	private boolean isMruListClosing() {
 		return this.mruList != null && this.mruList.isClosing(this);
 	}
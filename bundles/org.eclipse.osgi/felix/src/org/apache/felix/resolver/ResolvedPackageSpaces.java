@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.resolver.ResolverImpl.Packages;
+import org.osgi.framework.namespace.BundleNamespace;
+import org.osgi.resource.*;
+import org.osgi.service.resolver.ResolveContext;
+
+/**
+ * Holds the package spaces of resolved resources so that they can be
+ * reused by later resolve operations instead of being calculated again
+ * from the wirings.
+ * <p>
+ * The package space of a resolved resource only depends on the capabilities
+ * and required wires of its wiring and of the wirings of the resources it
+ * requires with the bundle namespace.  A package space is only reused if
+ * all these wirings still have the same capabilities and required wires as
+ * when the package space was calculated.  The package spaces of resources
+ * which are no longer resolved are removed with {@link #retainAll(Collection)}.
+ * <p>
+ * This class is thread safe.  The cached package spaces are never modified
+ * once they are added.
+ */
+public class ResolvedPackageSpaces
+{
+    static class Snapshot
+    {
+        private final List<Capability> m_capabilities;
+        private final List<Wire> m_wires;
+
+        Snapshot(Wiring wiring)
+        {
+            List<Capability> capabilities = wiring.getResourceCapabilities(null);
+            List<Wire> wires = wiring.getRequiredResourceWires(null);
+            // an invalid wiring has no capabilities or wires and never matches
+            m_capabilities = capabilities == null ? null : new ArrayList<Capability>(capabilities);
+            m_wires = wires == null ? Collections.<Wire> emptyList() : new ArrayList<Wire>(wires);
+        }
+
+        boolean matches(Wiring wiring)
+        {
+            // Substitution wires are a subset of the required wires so they
+            // do not need to be compared.
+            List<Capability> capabilities = wiring.getResourceCapabilities(null);
+            List<Wire> wires = wiring.getRequiredResourceWires(null);
+            return m_capabilities != null && capabilities != null && wires != null
+                && m_capabilities.equals(capabilities) && m_wires.equals(wires);
+        }
+    }
+
+    static class Entry
+    {
+        final Packages m_packages;
+        final Collection<Resource> m_providers;
+        final Map<Resource, Snapshot> m_dependencies;
+
+        Entry(Packages packages, Collection<Resource> providers, Map<Resource, Snapshot> dependencies)
+        {
+            m_packages = packages;
+            m_providers = providers;
+            m_dependencies = dependencies;
+        }
+
+        boolean isValid(ResolveContext rc)
+        {
+            Map<Resource, Wiring> wirings = rc.getWirings();
+            for (Map.Entry<Resource, Snapshot> dependency : m_dependencies.entrySet())
+            {
+                Wiring wiring = wirings.get(dependency.getKey());
+                if (wiring == null || !dependency.getValue().matches(wiring))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Map<Resource, Entry> m_entries = new HashMap<Resource, Entry>();
+    private final AtomicLong m_hits = new AtomicLong();
+    private final AtomicLong m_misses = new AtomicLong();
+
+    /**
+     * Returns the valid package space of a resolved resource.
+     * @param rc the resolve context which provides the current wirings
+     * @param resource the resolved resource
+     * @return the package space or <code>null</code> if none is cached or
+     * the cached package space is no longer valid
+     */
+    Entry get(ResolveContext rc, Resource resource)
+    {
+        Entry entry;
+        synchronized (m_entries)
+        {
+            entry = m_entries.get(resource);
+        }
+        if (entry != null && !entry.isValid(rc))
+        {
+            entry = null;
+        }
+        (entry == null ? m_misses : m_hits).incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Adds the calculated package space of a resolved resource.
+     * @param rc the resolve context which provides the current wirings
+     * @param resource the resolved resource
+     * @param packages the calculated package space of the resource
+     * @param providers the resources which provide the capabilities the
+     * resource is wired to
+     * @param snapshots the snapshots taken by the current resolve operation
+     * @return the added entry or <code>null</code> if the package space
+     * cannot be reused
+     */
+    Entry put(ResolveContext rc, Resource resource, Packages packages,
+        Collection<Resource> providers, Map<Resource, Snapshot> snapshots)
+    {
+        Map<Resource, Snapshot> dependencies = new HashMap<Resource, Snapshot>();
+        Map<Resource, Wiring> wirings = rc.getWirings();
+        Deque<Resource> toVisit = new ArrayDeque<Resource>();
+        toVisit.add(resource);
+        while (!toVisit.isEmpty())
+        {
+            Resource current = toVisit.removeFirst();
+            if (dependencies.containsKey(current))
+            {
+                continue;
+            }
+            Wiring currentWiring = wirings.get(current);
+            if (currentWiring == null)
+            {
+                // not resolved; do not cache
+                return null;
+            }
+            Snapshot snapshot;
+            synchronized (snapshots)
+            {
+                snapshot = snapshots.get(current);
+                if (snapshot == null)
+                {
+                    snapshot = new Snapshot(currentWiring);
+                    snapshots.put(current, snapshot);
+                }
+            }
+            dependencies.put(current, snapshot);
+            // the exported packages and package sources of required bundles
+            // are part of the package space
+            for (Wire wire : snapshot.m_wires)
+            {
+                if (BundleNamespace.BUNDLE_NAMESPACE.equals(wire.getRequirement().getNamespace()))
+                {
+                    toVisit.add(wire.getProvider());
+                }
+            }
+        }
+        Entry entry = new Entry(packages, providers, dependencies);
+        synchronized (m_entries)
+        {
+            m_entries.put(resource, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the package spaces of all resources except the specified ones.
+     * @param resources the resources to keep the package spaces of,
+     * typically the resources which are currently resolved
+     */
+    public void retainAll(Collection<? extends Resource> resources)
+    {
+        synchronized (m_entries)
+        {
+            m_entries.keySet().retainAll(resources);
+        }
+    }
+
+    /**
+     * Removes all cached package spaces.
+     */
+    public void clear()
+    {
+        synchronized (m_entries)
+        {
+            m_entries.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached package spaces.
+     * @return the number of cached package spaces
+     */
+    public int size()
+    {
+        synchronized (m_entries)
+        {
+            return m_entries.size();
+        }
+    }
+
+    /**
+     * Returns the number of times a valid package space was reused.
+     * @return the number of times a valid package space was reused
+     */
+    public long getHitCount()
+    {
+        return m_hits.get();
+    }
+
+    /**
+     * Returns the number of times a package space had to be calculated
+     * for a resolved resource.
+     * @return the number of times a package space had to be calculated
+     */
+    public long getMissCount()
+    {
+        return m_misses.get();
+    }
+}
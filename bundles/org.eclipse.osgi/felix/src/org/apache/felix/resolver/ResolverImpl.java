@@ -45,6 +45,8 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    private final ResolvedPackageSpaces m_packageSpaces;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -89,12 +91,17 @@ public class ResolverImpl implements Resolver
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
         private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        // Holds the package spaces of resolved resources reused from previous resolve operations
+        private final ResolvedPackageSpaces m_packageSpaces;
+        // The package spaces of resolved resources found valid for this session
+        private final ConcurrentMap<Resource, Object> m_resolvedPackageSpaces = new ConcurrentHashMap<Resource, Object>();
+        private final Map<Resource, ResolvedPackageSpaces.Snapshot> m_snapshots = new HashMap<Resource, ResolvedPackageSpaces.Snapshot>();
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
 
-        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        static ResolveSession createSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, ResolvedPackageSpaces packageSpaces)
         {
-            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates);
+            ResolveSession session = new ResolveSession(resolveContext, executor, dynamicHost, dynamicReq, dynamicCandidates, packageSpaces);
             // call onCancel first
             session.getContext().onCancel(session);
             // now gather the mandatory and optional resources
@@ -102,9 +109,10 @@ public class ResolverImpl implements Resolver
             return session;
         }
 
-        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
+        private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates, ResolvedPackageSpaces packageSpaces)
         {
             m_resolveContext = resolveContext;
+            m_packageSpaces = packageSpaces;
             m_executor = executor;
             m_dynamicHost = dynamicHost;
             m_dynamicReq = dynamicReq;
@@ -139,6 +147,36 @@ public class ResolverImpl implements Resolver
             return m_usesCache;
         }
 
+        /**
+         * Returns the reusable package space of a resolved resource.  The
+         * package space of the dynamic host is never reused because the
+         * dynamic import is added to it.
+         */
+        ResolvedPackageSpaces.Entry getResolvedPackageSpace(Resource resource) {
+            if (m_packageSpaces == null || resource.equals(m_dynamicHost)) {
+                return null;
+            }
+            Object result = m_resolvedPackageSpaces.get(resource);
+            if (result == null) {
+                result = getContext().getWirings().containsKey(resource) ? m_packageSpaces.get(getContext(), resource) : null;
+                if (result == null) {
+                    result = Boolean.FALSE;
+                }
+                m_resolvedPackageSpaces.put(resource, result);
+            }
+            return result instanceof ResolvedPackageSpaces.Entry ? (ResolvedPackageSpaces.Entry) result : null;
+        }
+
+        void putResolvedPackageSpace(Resource resource, Packages packages, Collection<Resource> providers) {
+            if (m_packageSpaces == null || resource.equals(m_dynamicHost)) {
+                return;
+            }
+            ResolvedPackageSpaces.Entry entry = m_packageSpaces.put(getContext(), resource, packages, providers, m_snapshots);
+            if (entry != null) {
+                m_resolvedPackageSpaces.put(resource, entry);
+            }
+        }
+
         void permutateIfNeeded(PermutationType type, Requirement req, Candidates permutation) {
             List<Capability> candidates = permutation.getCandidates(req);
             if ((candidates != null) && (candidates.size() > 1))
@@ -358,13 +396,28 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_packageSpaces = null;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, null);
+    }
+
+    /**
+     * Creates a resolver which reuses the package spaces of resolved
+     * resources calculated by previous resolve operations.
+     * @param logger the logger
+     * @param executor the executor used to calculate package spaces
+     * @param packageSpaces the package spaces of resolved resources
+     * to reuse and add to, may be <code>null</code>
+     */
+    public ResolverImpl(Logger logger, Executor executor, ResolvedPackageSpaces packageSpaces)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_packageSpaces = packageSpaces;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -416,7 +469,7 @@ public class ResolverImpl implements Resolver
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc, Executor executor) throws ResolutionException
     {
-        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null);
+        ResolveSession session = ResolveSession.createSession(rc, executor, null, null, null, m_packageSpaces);
         return doResolve(session);
     }
 
@@ -612,12 +665,30 @@ public class ResolverImpl implements Resolver
         // Calculate package spaces
         Map<Resource, Packages> resourcePkgMap =
             calculatePackageSpaces(session, allCandidates, allhosts.values());
+        // Check in parallel which package spaces have conflicts.  Only the resources
+        // with a conflict and the resources which depend on them can fail the
+        // consistency check, so a permutation without conflicts is consistent.
+        Set<Resource> inconsistent = null;
+        if (!session.isDynamic() && !(session.getExecutor() instanceof DumbExecutor))
+        {
+            Set<Resource> conflicts = getConflicts(session, resourcePkgMap);
+            if (session.isCancelled() || conflicts.isEmpty())
+            {
+                return null;
+            }
+            inconsistent = getDependents(session, allCandidates, resourcePkgMap, conflicts);
+        }
         ResolutionError error = null;
         // Check package consistency
         Map<Resource, Object> resultCache =
                 new OpenHashMap<Resource, Object>(resourcePkgMap.size());
         for (Entry<Resource, Resource> entry : allhosts.entrySet())
         {
+            if (inconsistent != null && !inconsistent.contains(entry.getValue()))
+            {
+                // the check would pass without adding any permutation
+                continue;
+            }
             rethrow = checkPackageSpaceConsistency(
                     session, entry.getValue(),
                     allCandidates, session.isDynamic(), resourcePkgMap, resultCache);
@@ -667,7 +738,7 @@ public class ResolverImpl implements Resolver
                         "Matching candidate does not provide a package name.");
                 }
             }
-            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches);
+            ResolveSession session = ResolveSession.createSession(context,  new DumbExecutor(), host, dynamicRequirement, matches, m_packageSpaces);
             return doResolve(session);
         }
 
@@ -1127,6 +1198,8 @@ public class ResolverImpl implements Resolver
 
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
+        // Package spaces of resolved resources reused from previous resolve operations
+        final Map<Resource, Packages> reusedPackages = new ConcurrentHashMap<Resource, Packages>();
         {
             final ConcurrentMap<Resource, Runnable> tasks = new ConcurrentHashMap<Resource, Runnable>(allCandidates.getNbResources());
             class Computer implements Runnable
@@ -1138,18 +1211,32 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
+                    ResolvedPackageSpaces.Entry reused = session.getResolvedPackageSpace(resource);
+                    if (reused != null)
+                    {
+                        // The providers are still needed to check uses constraints
+                        reusedPackages.put(resource, reused.m_packages);
+                        for (Resource u : reused.m_providers)
+                        {
+                            visit(u);
+                        }
+                        return;
+                    }
                     List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
-                        Resource u = w.capability.getResource();
-                        if (!tasks.containsKey(u))
+                        visit(w.capability.getResource());
+                    }
+                }
+                private void visit(Resource u)
+                {
+                    if (!tasks.containsKey(u))
+                    {
+                        Computer c = new Computer(u);
+                        if (tasks.putIfAbsent(u, c) == null)
                         {
-                            Computer c = new Computer(u);
-                            if (tasks.putIfAbsent(u, c) == null)
-                            {
-                                executor.execute(c);
-                            }
+                            executor.execute(c);
                         }
                     }
                 }
@@ -1163,6 +1250,7 @@ public class ResolverImpl implements Resolver
 
         // Parallel get all exported packages
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
+        allPackages.putAll(reusedPackages);
         for (final Resource resource : allWireCandidates.keySet())
         {
             final Packages packages = new Packages(resource);
@@ -1199,7 +1287,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1210,7 +1298,7 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty() && !reusedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1236,6 +1324,21 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Keep the package spaces of resolved resources for later resolve operations
+        for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+        {
+            Resource resource = entry.getKey();
+            if (session.getContext().getWirings().containsKey(resource))
+            {
+                Set<Resource> providers = new LinkedHashSet<Resource>();
+                for (WireCandidate w : entry.getValue())
+                {
+                    providers.add(w.capability.getResource());
+                }
+                session.putResolvedPackageSpace(resource, allPackages.get(resource), providers);
+            }
+        }
+
         return allPackages;
     }
 
@@ -1289,6 +1392,174 @@ public class ResolverImpl implements Resolver
         addToBlame.addBlame(newBlame, matchingCap);
     }
 
+    /**
+     * Checks the package spaces of all the resolving resources in parallel for
+     * conflicts.  Unlike {@link #checkPackageSpaceConsistency} this check does
+     * not create any permutation, so it can run concurrently.  A conflict found
+     * by this check does not mean the permutation is inconsistent, for example a
+     * conflicting candidate of a requirement with multiple cardinality may be
+     * removed, so the caller must check the consistency of the conflicting
+     * resources again.  A resource without a conflict passes the checks of its
+     * own package space in {@link #checkPackageSpaceConsistency}.
+     * @return the resources with a conflict; the result is incomplete if the
+     * session was cancelled
+     */
+    private static Set<Resource> getConflicts(
+        final ResolveSession session,
+        final Map<Resource, Packages> resourcePkgMap)
+    {
+        final Set<Resource> conflicts = Collections.newSetFromMap(new ConcurrentHashMap<Resource, Boolean>());
+        final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        for (final Map.Entry<Resource, Packages> entry : resourcePkgMap.entrySet())
+        {
+            if (wirings.containsKey(entry.getKey()))
+            {
+                // resolved resources are consistent by definition
+                continue;
+            }
+            executor.execute(new Runnable()
+            {
+                public void run()
+                {
+                    if (session.isCancelled())
+                    {
+                        return;
+                    }
+                    if (hasConflicts(entry.getValue(), resourcePkgMap))
+                    {
+                        conflicts.add(entry.getKey());
+                    }
+                }
+            });
+        }
+        executor.await();
+        return conflicts;
+    }
+
+    /**
+     * Returns the resources with a conflict and the resources which depend on them
+     * through the first candidates of their requirements, which are the dependencies
+     * followed by {@link #checkPackageSpaceConsistency}.  The consistency check of
+     * any other resource passes without adding any permutation, so checking only
+     * the returned resources gives the same permutations and errors as checking
+     * all the resources.
+     */
+    private static Set<Resource> getDependents(
+        ResolveSession session,
+        Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap,
+        Set<Resource> conflicts)
+    {
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        Map<Resource, List<Resource>> dependents = new HashMap<Resource, List<Resource>>();
+        for (Resource resource : resourcePkgMap.keySet())
+        {
+            if (wirings.containsKey(resource))
+            {
+                // resolved resources are not checked
+                continue;
+            }
+            for (Requirement req : resource.getRequirements(null))
+            {
+                Capability cap = allCandidates.getFirstCandidate(req);
+                if (cap != null && !resource.equals(cap.getResource()))
+                {
+                    List<Resource> list = dependents.get(cap.getResource());
+                    if (list == null)
+                    {
+                        list = new ArrayList<Resource>();
+                        dependents.put(cap.getResource(), list);
+                    }
+                    list.add(resource);
+                }
+            }
+        }
+        Set<Resource> result = new HashSet<Resource>(conflicts);
+        List<Resource> queue = new ArrayList<Resource>(conflicts);
+        while (!queue.isEmpty())
+        {
+            List<Resource> list = dependents.get(queue.remove(queue.size() - 1));
+            if (list != null)
+            {
+                for (Resource dependent : list)
+                {
+                    if (result.add(dependent))
+                    {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasConflicts(Packages pkgs, Map<Resource, Packages> resourcePkgMap)
+    {
+        // Conflicting imports from fragments
+        for (Entry<String, List<Blame>> entry : pkgs.m_importedPkgs.fast())
+        {
+            List<Blame> blames = entry.getValue();
+            for (int i = 1; i < blames.size(); i++)
+            {
+                if (!blames.get(0).m_cap.getResource().equals(blames.get(i).m_cap.getResource()))
+                {
+                    return true;
+                }
+            }
+        }
+        // Uses conflicts with exported packages
+        for (Entry<String, Blame> entry : pkgs.m_exportedPkgs.fast())
+        {
+            ArrayMap<Capability, UsedBlames> pkgBlames = pkgs.m_usedPkgs.get(entry.getKey());
+            if (pkgBlames != null)
+            {
+                for (UsedBlames usedBlames : pkgBlames.values())
+                {
+                    if (!isCompatible(entry.getValue(), usedBlames.m_cap, resourcePkgMap))
+                    {
+                        return true;
+                    }
+                }
+            }
+        }
+        // Uses conflicts with imported and required packages; imported packages
+        // shadow the packages from required bundles
+        for (Entry<String, List<Blame>> entry : pkgs.m_requiredPkgs.fast())
+        {
+            if (!pkgs.m_importedPkgs.containsKey(entry.getKey())
+                && hasConflicts(pkgs, entry.getKey(), entry.getValue(), resourcePkgMap))
+            {
+                return true;
+            }
+        }
+        for (Entry<String, List<Blame>> entry : pkgs.m_importedPkgs.fast())
+        {
+            if (hasConflicts(pkgs, entry.getKey(), entry.getValue(), resourcePkgMap))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasConflicts(Packages pkgs, String pkgName,
+        List<Blame> requirementBlames, Map<Resource, Packages> resourcePkgMap)
+    {
+        ArrayMap<Capability, UsedBlames> pkgBlames = pkgs.m_usedPkgs.get(pkgName);
+        if (pkgBlames != null)
+        {
+            for (UsedBlames usedBlames : pkgBlames.values())
+            {
+                if (!isCompatible(requirementBlames, usedBlames.m_cap, resourcePkgMap))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private ResolutionError checkPackageSpaceConsistency(
         ResolveSession session,
         Resource resource,
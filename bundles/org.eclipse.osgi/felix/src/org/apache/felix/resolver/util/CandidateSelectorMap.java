@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.util;
+
+import java.util.*;
+
+import org.osgi.resource.Requirement;
+
+/**
+ * Maps requirements to their candidate selectors.  Copies of the map share
+ * their structure until they are modified.
+ * <p>
+ * Each requirement is given a dense int id which is shared by the map and all
+ * its copies.  The selectors are kept in fixed size chunks indexed by id.  A
+ * copy only copies the array of chunks; a chunk and the selectors in it are
+ * copied the first time a map modifies the chunk after the map was copied.
+ * Selectors returned by {@link #get(Requirement)} may be shared with other
+ * copies and must not be modified; use {@link #getForUpdate(Requirement)}
+ * to get a selector which can be modified.
+ * <p>
+ * This class is not thread safe.  A map and its copies must not be modified
+ * while any of them is used by another thread.
+ */
+public class CandidateSelectorMap
+{
+    private static final int CHUNK_BITS = 5;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static class Index
+    {
+        final Map<Requirement, Integer> m_ids = new HashMap<Requirement, Integer>();
+        final List<Requirement> m_requirements = new ArrayList<Requirement>();
+
+        int getId(Requirement req)
+        {
+            Integer id = m_ids.get(req);
+            return id == null ? -1 : id.intValue();
+        }
+
+        int getOrCreateId(Requirement req)
+        {
+            Integer id = m_ids.get(req);
+            if (id == null)
+            {
+                id = Integer.valueOf(m_requirements.size());
+                m_ids.put(req, id);
+                m_requirements.add(req);
+            }
+            return id.intValue();
+        }
+    }
+
+    private final Index m_index;
+    private CandidateSelector[][] m_chunks;
+    // the chunks which are not shared with other copies
+    private boolean[] m_owned;
+    private int m_size;
+
+    public CandidateSelectorMap()
+    {
+        m_index = new Index();
+        m_chunks = new CandidateSelector[0][];
+        m_owned = new boolean[0];
+    }
+
+    private CandidateSelectorMap(CandidateSelectorMap map)
+    {
+        m_index = map.m_index;
+        m_chunks = map.m_chunks.clone();
+        m_owned = new boolean[m_chunks.length];
+        m_size = map.m_size;
+    }
+
+    /**
+     * Creates a copy of this map.  The chunks of this map are shared with the
+     * copy, so neither map owns them anymore.
+     * @return the copy
+     */
+    public CandidateSelectorMap copy()
+    {
+        Arrays.fill(m_owned, false);
+        return new CandidateSelectorMap(this);
+    }
+
+    public int size()
+    {
+        return m_size;
+    }
+
+    public boolean isEmpty()
+    {
+        return m_size == 0;
+    }
+
+    /**
+     * Returns the selector of a requirement.  The selector may be shared
+     * with other copies of this map and must not be modified.
+     * @param req the requirement
+     * @return the selector or <code>null</code>
+     */
+    public CandidateSelector get(Requirement req)
+    {
+        int id = m_index.getId(req);
+        if (id < 0)
+        {
+            return null;
+        }
+        int chunk = id >>> CHUNK_BITS;
+        return chunk < m_chunks.length ? m_chunks[chunk][id & CHUNK_MASK] : null;
+    }
+
+    /**
+     * Returns the selector of a requirement which can be modified
+     * without affecting other copies of this map.
+     * @param req the requirement
+     * @return the selector or <code>null</code>
+     */
+    public CandidateSelector getForUpdate(Requirement req)
+    {
+        int id = m_index.getId(req);
+        if (id < 0 || (id >>> CHUNK_BITS) >= m_chunks.length)
+        {
+            return null;
+        }
+        return getOwnedChunk(id)[id & CHUNK_MASK];
+    }
+
+    /**
+     * Sets the selector of a requirement.  The selector must not be used
+     * by any other map.
+     * @param req the requirement
+     * @param selector the selector
+     * @return the previous selector or <code>null</code>
+     */
+    public CandidateSelector put(Requirement req, CandidateSelector selector)
+    {
+        int id = m_index.getOrCreateId(req);
+        int chunk = id >>> CHUNK_BITS;
+        if (chunk >= m_chunks.length)
+        {
+            int length = Math.max(chunk + 1, m_chunks.length * 2);
+            CandidateSelector[][] chunks = Arrays.copyOf(m_chunks, length);
+            boolean[] owned = Arrays.copyOf(m_owned, length);
+            for (int i = m_chunks.length; i < length; i++)
+            {
+                chunks[i] = new CandidateSelector[CHUNK_SIZE];
+                owned[i] = true;
+            }
+            m_chunks = chunks;
+            m_owned = owned;
+        }
+        CandidateSelector[] selectors = getOwnedChunk(id);
+        CandidateSelector previous = selectors[id & CHUNK_MASK];
+        selectors[id & CHUNK_MASK] = selector;
+        if (previous == null)
+        {
+            m_size++;
+        }
+        return previous;
+    }
+
+    /**
+     * Removes the selector of a requirement.
+     * @param req the requirement
+     * @return the removed selector or <code>null</code>
+     */
+    public CandidateSelector remove(Requirement req)
+    {
+        int id = m_index.getId(req);
+        if (id < 0 || (id >>> CHUNK_BITS) >= m_chunks.length
+            || m_chunks[id >>> CHUNK_BITS][id & CHUNK_MASK] == null)
+        {
+            return null;
+        }
+        CandidateSelector[] selectors = getOwnedChunk(id);
+        CandidateSelector previous = selectors[id & CHUNK_MASK];
+        selectors[id & CHUNK_MASK] = null;
+        m_size--;
+        return previous;
+    }
+
+    /**
+     * Returns the requirements and selectors of this map ordered by id.
+     * The selectors must not be modified.
+     * @return the entries of this map
+     */
+    public List<Map.Entry<Requirement, CandidateSelector>> entries()
+    {
+        List<Map.Entry<Requirement, CandidateSelector>> entries =
+            new ArrayList<Map.Entry<Requirement, CandidateSelector>>(m_size);
+        for (int chunk = 0; chunk < m_chunks.length; chunk++)
+        {
+            CandidateSelector[] selectors = m_chunks[chunk];
+            for (int i = 0; i < CHUNK_SIZE; i++)
+            {
+                if (selectors[i] != null)
+                {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<Requirement, CandidateSelector>(
+                        m_index.m_requirements.get((chunk << CHUNK_BITS) + i), selectors[i]));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private CandidateSelector[] getOwnedChunk(int id)
+    {
+        int chunk = id >>> CHUNK_BITS;
+        CandidateSelector[] selectors = m_chunks[chunk];
+        if (!m_owned[chunk])
+        {
+            // copy the chunk and its selectors; they may be used by other copies
+            selectors = selectors.clone();
+            for (int i = 0; i < CHUNK_SIZE; i++)
+            {
+                if (selectors[i] != null)
+                {
+                    selectors[i] = selectors[i].copy();
+                }
+            }
+            m_chunks[chunk] = selectors;
+            m_owned[chunk] = true;
+        }
+        return selectors;
+    }
+}
@@ -134,6 +134,7 @@ public class Msg extends NLS {
 	public static String ModuleContainer_NameCollisionWithLocation;
 	public static String ModuleContainer_NegativeStartLevelError;
 	public static String ModuleContainer_StateLockError;
+	public static String ModuleContainer_StopTimeoutError;
 	public static String ModuleContainer_SystemNotActiveError;
 	public static String ModuleContainer_SystemStartLevelError;
 